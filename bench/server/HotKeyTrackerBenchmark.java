@@ -0,0 +1,250 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The HotKeyTrackerBenchmark class measures what the hot key tracking adds to a request: the time of one record() call on
+ * one thread and with several threads recording at once, and the in-process cost of a getMeaning request with and without
+ * it. Given the address of a running server, it also times getMeaning round trips, which is the cost the tracking is
+ * compared with. The words are drawn from the dictionary file with a skewed (Zipf) distribution, as real traffic is, and
+ * before measuring it checks that the tracker ranks the most requested word first.
+ * It lives outside the server's sources, in the same package so that it can reach the tracker, and is compiled against the
+ * server jar: javac -cp DictionaryServer.jar:json-simple-1.1.1.jar -d bench-classes bench/server/HotKeyTrackerBenchmark.java
+ * Usage: java -cp bench-classes:DictionaryServer.jar:json-simple-1.1.1.jar server.HotKeyTrackerBenchmark &lt;dictionary file&gt; [requests] [threads] [host:port]
+ */
+package server;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import client.DictionaryServiceClient;
+
+public class HotKeyTrackerBenchmark {
+    private static final int PASSES = 20;
+    private static final int CLIENTS = 64;
+    private static final int WRITE_EVERY = 10;
+    private static final long DECAY_PERIOD_MS = 60000;
+
+    private final DictionaryHandler dictionary;
+    private final String[] words;
+    private final String[] clients;
+    private final JSONParser parser = new JSONParser();
+
+    /**
+     * Constructs a benchmark over the given request sequence.
+     * @param dictionary the dictionary to look the words up in
+     * @param words the word of each request
+     * @param clients the client address of each request
+     */
+    private HotKeyTrackerBenchmark(DictionaryHandler dictionary, String[] words, String[] clients) {
+        this.dictionary = dictionary;
+        this.words = words;
+        this.clients = clients;
+    }
+
+    /**
+     * Records every request once and checks that the tracker ranks the most requested word first.
+     * @param expected the most requested word
+     * @return true if the tracker's top read word is the expected one
+     */
+    private boolean verify(String expected) {
+        HotKeyTracker tracker = new HotKeyTracker(DECAY_PERIOD_MS);
+        for (int i = 0; i < words.length; i++) {
+            tracker.record(false, words[i], clients[i]);
+        }
+        JSONArray ranking = (JSONArray) ((JSONObject) tracker.report(1).get("hotKeys")).get("readWords");
+        String top = ranking.isEmpty() ? null : (String) ((JSONObject) ranking.get(0)).get("key");
+        System.out.println("Most requested word: " + expected + ", ranked first by the tracker: " + top);
+        return expected.equals(top);
+    }
+
+    /**
+     * Records every request on each of the given number of threads at once, several times over, and reports the time per
+     * request on each thread.
+     * @param threads the number of threads recording into the same tracker
+     * @return the time per recorded request on each thread, in nanoseconds
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    private double measureRecord(int threads) throws InterruptedException {
+        HotKeyTracker tracker = new HotKeyTracker(DECAY_PERIOD_MS);
+        // Warm up so that the JIT has compiled record() before measuring
+        runRecord(tracker, threads);
+        long nanos = runRecord(tracker, threads);
+        double perRequest = (double) nanos / ((long) PASSES * words.length);
+        System.out.printf(Locale.ROOT, "%-24s %.0f ns per request on each thread%n",
+                "record, " + threads + (threads == 1 ? " thread:" : " threads:"), perRequest);
+        return perRequest;
+    }
+
+    private long runRecord(HotKeyTracker tracker, int threads) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int offset = t * (words.length / threads);
+            workers[t] = new Thread(() -> {
+                for (int pass = 0; pass < PASSES; pass++) {
+                    for (int i = 0; i < words.length; i++) {
+                        int request = (i + offset) % words.length;
+                        tracker.record(request % WRITE_EVERY == 0, words[request], clients[request]);
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Answers every request the way ThreadHandler does, parsing the request and writing the reply as JSON, several times
+     * over, and reports the time per request.
+     * @param tracker the tracker to record each request in, or null to not record
+     * @return the time per request, in nanoseconds
+     * @throws ParseException if a request is not JSON
+     */
+    private double measureLookup(HotKeyTracker tracker) throws ParseException {
+        String[] requests = new String[words.length];
+        for (int i = 0; i < words.length; i++) {
+            JSONObject request = new JSONObject();
+            request.put("command", "getMeaning");
+            request.put("word", words[i]);
+            requests[i] = request.toJSONString();
+        }
+        // Warm up so that the JIT has compiled the path before measuring
+        long sink = runLookup(requests, tracker);
+        long start = System.nanoTime();
+        sink += runLookup(requests, tracker);
+        long nanos = System.nanoTime() - start;
+        double perRequest = (double) nanos / ((long) PASSES * words.length);
+        System.out.printf(Locale.ROOT, "%-24s %.0f ns per request (%d reply bytes)%n",
+                tracker == null ? "getMeaning:" : "getMeaning and record:", perRequest, sink);
+        return perRequest;
+    }
+
+    private long runLookup(String[] requests, HotKeyTracker tracker) throws ParseException {
+        long replyLength = 0;
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (int i = 0; i < requests.length; i++) {
+                JSONObject command = (JSONObject) parser.parse(requests[i]);
+                if (tracker != null) {
+                    tracker.record(false, (String) command.get("word"), clients[i]);
+                }
+                JSONObject jsonResponse = new JSONObject();
+                jsonResponse.putAll(dictionary.getMeaning(command));
+                replyLength += jsonResponse.toString().length();
+            }
+        }
+        return replyLength;
+    }
+
+    /**
+     * Times getMeaning round trips to a running server over one connection.
+     * @param address the server address in "host:port" form
+     * @return the time per round trip, in nanoseconds
+     * @throws IOException if a request fails
+     */
+    private double measureRoundTrip(String address) throws IOException {
+        try (DictionaryServiceClient client = new DictionaryServiceClient(address, 1, DictionaryServiceClient.DEFAULT_REQUEST_TIMEOUT_MS)) {
+            int count = Math.min(words.length, 10000);
+            for (int i = 0; i < count; i++) {
+                client.getMeaning(words[i]);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                client.getMeaning(words[i]);
+            }
+            double perRequest = (double) (System.nanoTime() - start) / count;
+            System.out.printf(Locale.ROOT, "%-24s %.0f ns per request%n", "round trip:", perRequest);
+            return perRequest;
+        }
+    }
+
+    /**
+     * Draws the requests from the words of the dictionary file and runs the benchmark.
+     * @param args the dictionary file, optionally the number of requests per pass and of recording threads, and the
+     *             address of a running server to time round trips against
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: java -cp bench-classes:DictionaryServer.jar:json-simple-1.1.1.jar server.HotKeyTrackerBenchmark <dictionary file> [requests] [threads] [host:port]");
+            System.exit(1);
+        }
+        int requestCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        String address = args.length > 3 ? args[3] : null;
+        try {
+            List<String> dictionaryWords = new ArrayList<>();
+            try (Reader reader = new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8)) {
+                for (Object word : ((JSONObject) new JSONParser().parse(reader)).keySet()) {
+                    dictionaryWords.add((String) word);
+                }
+            }
+            if (dictionaryWords.isEmpty()) {
+                System.err.println("The dictionary file has no words");
+                System.exit(1);
+            }
+            DictionaryHandler dictionary = new DictionaryHandler(DictionaryEngine.open(args[0], DictionaryEngine.Mode.READ_ONLY));
+
+            // Zipf weights 1/rank, so that a few words take most of the requests
+            double[] cumulative = new double[dictionaryWords.size()];
+            double sum = 0;
+            for (int rank = 0; rank < cumulative.length; rank++) {
+                sum += 1.0 / (rank + 1);
+                cumulative[rank] = sum;
+            }
+            Random random = new Random(42);
+            String[] words = new String[requestCount];
+            String[] clients = new String[requestCount];
+            int[] counts = new int[dictionaryWords.size()];
+            for (int i = 0; i < requestCount; i++) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                rank = Math.min(rank < 0 ? -rank - 1 : rank, cumulative.length - 1);
+                counts[rank]++;
+                words[i] = dictionaryWords.get(rank);
+                clients[i] = "10.0.0." + random.nextInt(CLIENTS);
+            }
+            int mostRequested = 0;
+            for (int rank = 1; rank < counts.length; rank++) {
+                if (counts[rank] > counts[mostRequested]) {
+                    mostRequested = rank;
+                }
+            }
+
+            HotKeyTrackerBenchmark benchmark = new HotKeyTrackerBenchmark(dictionary, words, clients);
+            boolean ranked = benchmark.verify(dictionaryWords.get(mostRequested));
+            double record = benchmark.measureRecord(1);
+            if (threads > 1) {
+                benchmark.measureRecord(threads);
+            }
+            double lookup = benchmark.measureLookup(null);
+            double tracked = benchmark.measureLookup(new HotKeyTracker(DECAY_PERIOD_MS));
+            System.out.printf(Locale.ROOT, "Recording adds %.1f%% to an in-process getMeaning.%n", 100 * (tracked - lookup) / lookup);
+            if (address != null) {
+                double roundTrip = benchmark.measureRoundTrip(address);
+                System.out.printf(Locale.ROOT, "Recording is %.2f%% of a getMeaning round trip.%n", 100 * record / roundTrip);
+            } else {
+                System.out.println("Pass the address of a running server to compare with a getMeaning round trip.");
+            }
+            if (!ranked) {
+                System.exit(1);
+            }
+        } catch (IOException | ParseException | InterruptedException e) {
+            System.err.println("Benchmark failed: " + e);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The LegacyCodecBenchmark class compares the cost of a getMeaning request on the general path (readUTF, json-simple and
+ * writeUTF) with its cost through the LegacyCodec, in bytes allocated and time per request. The requests are framed as the
+ * client frames them and are a mix of found and missing words, normalised lookups and traced requests. Before measuring,
+ * it checks that both paths write exactly the same reply bytes for every request.
+ * It lives outside the server's sources, in the same package so that it can reach the codec, and is compiled against the
+ * server jar: javac -cp DictionaryServer.jar:json-simple-1.1.1.jar -d bench-classes bench/server/LegacyCodecBenchmark.java
+ * Usage: java -cp bench-classes:DictionaryServer.jar:json-simple-1.1.1.jar server.LegacyCodecBenchmark &lt;dictionary file&gt; [requests]
+ */
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class LegacyCodecBenchmark {
+    private static final int PASSES = 20;
+
+    private final DictionaryHandler dictionary;
+    private final ByteArrayInputStream frames;
+    private final int requestCount;
+    private final JSONParser parser = new JSONParser();
+    private final LegacyCodec codec = new LegacyCodec();
+    private final ByteArrayOutputStream replies = new ByteArrayOutputStream(1 << 16);
+
+    /**
+     * Constructs a benchmark over the requests in the given frames.
+     * @param dictionary the dictionary to look the words up in
+     * @param frames the requests, each framed with writeUTF
+     * @param requestCount the number of requests in the frames
+     */
+    private LegacyCodecBenchmark(DictionaryHandler dictionary, byte[] frames, int requestCount) {
+        this.dictionary = dictionary;
+        this.frames = new ByteArrayInputStream(frames);
+        this.requestCount = requestCount;
+    }
+
+    /**
+     * Answers one request the way ThreadHandler does without the codec.
+     * @param input the request frames
+     * @param output the reply stream
+     * @throws IOException if a frame is malformed
+     * @throws ParseException if a request is not JSON
+     */
+    private void generalPath(DataInputStream input, DataOutputStream output) throws IOException, ParseException {
+        JSONObject command = (JSONObject) parser.parse(input.readUTF());
+        JSONObject jsonResponse = new JSONObject();
+        jsonResponse.putAll(dictionary.getMeaning(command));
+        if (command.containsKey("traceId")) {
+            jsonResponse.put("traceId", RequestEvents.traceId(command));
+        }
+        output.writeUTF(jsonResponse.toString());
+    }
+
+    /**
+     * Answers one request through the codec.
+     * @param input the request frames
+     * @param output the reply stream
+     * @throws IOException if a frame is malformed or not a request the codec answers
+     */
+    private void codecPath(DataInputStream input, DataOutputStream output) throws IOException {
+        codec.readFrame(input);
+        if (!codec.decodeLookup()) {
+            throw new IOException("The codec did not decode a benchmark request");
+        }
+        codec.lookup(dictionary);
+        codec.writeReply(output);
+    }
+
+    /**
+     * Runs every request through both paths and compares the replies.
+     * @return the number of requests whose replies differ
+     * @throws IOException if a request fails
+     * @throws ParseException if a request is not JSON
+     */
+    private int verify() throws IOException, ParseException {
+        DataInputStream generalInput = new DataInputStream(new ByteArrayInputStream(bytesOf(frames)));
+        DataInputStream codecInput = new DataInputStream(new ByteArrayInputStream(bytesOf(frames)));
+        DataOutputStream output = new DataOutputStream(replies);
+        int mismatches = 0;
+        for (int i = 0; i < requestCount; i++) {
+            replies.reset();
+            generalPath(generalInput, output);
+            byte[] expected = replies.toByteArray();
+            replies.reset();
+            codecPath(codecInput, output);
+            if (!Arrays.equals(expected, replies.toByteArray())) {
+                if (mismatches++ == 0) {
+                    System.out.println("First mismatch:\n  general: " + new String(expected, 2, expected.length - 2, StandardCharsets.UTF_8)
+                            + "\n  codec:   " + new String(replies.toByteArray(), 2, replies.size() - 2, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * Runs every request through one path, several times over, and reports the allocation and time per request.
+     * @param name the name of the path
+     * @param codecPath true for the codec path, false for the general path
+     * @throws IOException if a request fails
+     * @throws ParseException if a request is not JSON
+     */
+    private void measure(String name, boolean codecPath) throws IOException, ParseException {
+        DataInputStream input = new DataInputStream(frames);
+        DataOutputStream output = new DataOutputStream(replies);
+        // Warm up so that the JIT has compiled the path before measuring
+        for (int pass = 0; pass < PASSES; pass++) {
+            runPass(input, output, codecPath);
+        }
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int pass = 0; pass < PASSES; pass++) {
+            runPass(input, output, codecPath);
+        }
+        long nanos = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        long requests = (long) PASSES * requestCount;
+        System.out.printf(Locale.ROOT, "%-12s %d requests, %s allocated and %.0f ns per request%n", name + ":", requests,
+                allocated < 0 ? "unknown bytes" : String.format(Locale.ROOT, "%.0f bytes", (double) allocated / requests),
+                (double) nanos / requests);
+    }
+
+    private void runPass(DataInputStream input, DataOutputStream output, boolean codecPath) throws IOException, ParseException {
+        frames.reset();
+        for (int i = 0; i < requestCount; i++) {
+            replies.reset();
+            if (codecPath) {
+                codecPath(input, output);
+            } else {
+                generalPath(input, output);
+            }
+        }
+    }
+
+    private static byte[] bytesOf(ByteArrayInputStream stream) {
+        stream.reset();
+        byte[] bytes = new byte[stream.available()];
+        stream.read(bytes, 0, bytes.length);
+        stream.reset();
+        return bytes;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread.
+     * @return the bytes, or -1 if the JVM does not measure allocation
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Builds the requests from the words of the dictionary file and runs the benchmark.
+     * @param args the dictionary file and optionally the number of requests per pass
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: java -cp bench-classes:DictionaryServer.jar:json-simple-1.1.1.jar server.LegacyCodecBenchmark <dictionary file> [requests]");
+            System.exit(1);
+        }
+        int requestCount = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        try {
+            List<String> words = new ArrayList<>();
+            try (Reader reader = new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8)) {
+                for (Object word : ((JSONObject) new JSONParser().parse(reader)).keySet()) {
+                    words.add((String) word);
+                }
+            }
+            DictionaryHandler dictionary = new DictionaryHandler(DictionaryEngine.open(args[0], DictionaryEngine.Mode.READ_ONLY));
+
+            ByteArrayOutputStream framed = new ByteArrayOutputStream();
+            DataOutputStream frameOutput = new DataOutputStream(framed);
+            for (int i = 0; i < requestCount; i++) {
+                JSONObject request = new JSONObject();
+                request.put("command", "getMeaning");
+                String word = words.isEmpty() ? "" : words.get(i % words.size());
+                switch (i % 8) {
+                    case 5:
+                        request.put("word", word + "-missing");
+                        break;
+                    case 6:
+                        request.put("word", word.toUpperCase(Locale.ROOT));
+                        request.put("normalize", true);
+                        break;
+                    case 7:
+                        request.put("word", word);
+                        request.put("traceId", (long) i * 7919);
+                        break;
+                    default:
+                        request.put("word", word);
+                        break;
+                }
+                frameOutput.writeUTF(request.toJSONString());
+            }
+
+            LegacyCodecBenchmark benchmark = new LegacyCodecBenchmark(dictionary, framed.toByteArray(), requestCount);
+            int mismatches = benchmark.verify();
+            System.out.println(mismatches == 0 ? "Replies are identical on both paths for all " + requestCount + " requests."
+                    : mismatches + " of " + requestCount + " replies differ between the paths.");
+            benchmark.measure("general path", false);
+            benchmark.measure("LegacyCodec", true);
+            if (mismatches > 0) {
+                System.exit(1);
+            }
+        } catch (IOException | ParseException e) {
+            System.err.println("Benchmark failed: " + e);
+            System.exit(1);
+        }
+    }
+}
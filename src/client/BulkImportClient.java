@@ -0,0 +1,260 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The BulkImportClient class streams word records to a server's "import" session, for loading a large vocabulary without a
+ * round trip and a file save per word. Records are packed into frames of JSON lines, and a frame is only sent while the
+ * server has granted a credit for it, so the client never runs ahead of what the server has applied.
+ * Its main method imports a JSON lines file (one {"word":...,"meanings":[...]} per line) or a dictionary file and reports
+ * the sustained records per second.
+ */
+
+package client;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import common.AdmissionHandshake;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class BulkImportClient implements AutoCloseable {
+    // Leaves room below the 65535 byte limit of writeUTF for the last line added
+    private static final int FRAME_BYTES = 60000;
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+    private final JSONParser parser = new JSONParser();
+    private final StringBuilder frame = new StringBuilder(FRAME_BYTES);
+    private int frameBytes = 0;
+    private long credits;
+    private long sent = 0;
+
+    /**
+     * Connects to a server and starts an import session with the server's default batch size, saving only at the end.
+     *
+     * @param address The server address in "host:port" form.
+     * @throws IOException If the server cannot be reached or refuses the import.
+     */
+    public BulkImportClient(String address) throws IOException {
+        this(address, 0, 0);
+    }
+
+    /**
+     * Connects to a server and starts an import session.
+     *
+     * @param address The server address in "host:port" form.
+     * @param batchSize How many records the server commits at once, or 0 for the server's default.
+     * @param checkpointRecords How many records the server imports between saves of the dictionary file, or 0 to save only at the end.
+     * @throws IOException If the server cannot be reached or refuses the import.
+     */
+    public BulkImportClient(String address, int batchSize, long checkpointRecords) throws IOException {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IOException("Server address \"" + address + "\" must be in host:port form");
+        }
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+            input = new DataInputStream(socket.getInputStream());
+            output = new DataOutputStream(socket.getOutputStream());
+            AdmissionHandshake.await(input, null);
+
+            JSONObject request = new JSONObject();
+            request.put("command", "import");
+            if (batchSize > 0) {
+                request.put("batchSize", batchSize);
+            }
+            if (checkpointRecords > 0) {
+                request.put("checkpointRecords", checkpointRecords);
+            }
+            output.writeUTF(request.toJSONString());
+            output.flush();
+            JSONObject reply = read();
+            if (!(reply.get("credits") instanceof Number)) {
+                throw new IOException(String.valueOf(reply.get("output")));
+            }
+            credits = ((Number) reply.get("credits")).longValue();
+        } catch (IOException | NumberFormatException e) {
+            socket.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Invalid port in server address \"" + address + "\"");
+        }
+    }
+
+    /**
+     * Queues a word and its meanings, replacing any meanings the word already has.
+     *
+     * @param word The word.
+     * @param meanings Its meanings.
+     * @throws IOException If the connection fails.
+     */
+    public void add(String word, List<String> meanings) throws IOException {
+        JSONArray meaningArray = new JSONArray();
+        meaningArray.addAll(meanings);
+        JSONObject record = new JSONObject();
+        record.put("word", word);
+        record.put("meanings", meaningArray);
+        addLine(record.toJSONString());
+    }
+
+    /**
+     * Queues a record already encoded as one JSON line.
+     *
+     * @param line The record, without a line break.
+     * @throws IOException If the connection fails or the record is too large for a frame.
+     */
+    public void addLine(String line) throws IOException {
+        int bytes = utfLength(line) + 1;
+        if (bytes > FRAME_BYTES) {
+            throw new IOException("Record of " + bytes + " bytes is too large to import");
+        }
+        if (frameBytes + bytes > FRAME_BYTES) {
+            sendFrame();
+        }
+        frame.append(line).append('\n');
+        frameBytes += bytes;
+        sent++;
+    }
+
+    /**
+     * Sends the remaining records, ends the stream and waits until the server has applied and saved everything.
+     *
+     * @return The server's report, with "imported", "rejected" and "recordsPerSecond".
+     * @throws IOException If the connection fails.
+     */
+    public JSONObject finish() throws IOException {
+        if (frameBytes > 0) {
+            sendFrame();
+        }
+        // The end of the stream needs no credit, as the server buffers nothing for it
+        output.writeUTF("");
+        output.flush();
+        while (true) {
+            JSONObject reply = read();
+            if (reply.containsKey("output")) {
+                return reply;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of records queued so far.
+     *
+     * @return The record count.
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * Sends the current frame once the server has granted a credit for it.
+     *
+     * @throws IOException If the connection fails.
+     */
+    private void sendFrame() throws IOException {
+        awaitCredit();
+        output.writeUTF(frame.toString());
+        output.flush();
+        credits--;
+        frame.setLength(0);
+        frameBytes = 0;
+    }
+
+    /**
+     * Waits until the server has granted at least one credit.
+     *
+     * @throws IOException If the connection fails.
+     */
+    private void awaitCredit() throws IOException {
+        while (credits <= 0) {
+            JSONObject reply = read();
+            if (reply.get("credits") instanceof Number) {
+                credits += ((Number) reply.get("credits")).longValue();
+            } else if (reply.containsKey("output")) {
+                throw new IOException(String.valueOf(reply.get("output")));
+            }
+        }
+    }
+
+    private JSONObject read() throws IOException {
+        try {
+            return (JSONObject) parser.parse(input.readUTF());
+        } catch (ParseException | ClassCastException e) {
+            throw new IOException("Malformed reply from the server", e);
+        }
+    }
+
+    private static int utfLength(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return length;
+    }
+
+    /**
+     * Closes the connection. Records not yet sent with finish() are not imported.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Imports a file and reports the import rate.
+     * Usage: java -cp DictionaryClient.jar client.BulkImportClient &lt;host:port&gt; &lt;file&gt; [batch size] [checkpoint records]
+     *
+     * @param args The command-line arguments.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: java -cp DictionaryClient.jar client.BulkImportClient <host:port> <file.jsonl | dictionary.json> [batch size] [checkpoint records]");
+            System.exit(1);
+        }
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        long checkpointRecords = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        long started = System.nanoTime();
+        try (BulkImportClient importer = new BulkImportClient(args[0], batchSize, checkpointRecords);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(args[1]), StandardCharsets.UTF_8))) {
+            if (args[1].endsWith(".jsonl")) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        importer.addLine(line);
+                    }
+                }
+            } else {
+                JSONObject dictionary = (JSONObject) new JSONParser().parse(reader);
+                for (Object entry : dictionary.entrySet()) {
+                    Map.Entry<?, ?> word = (Map.Entry<?, ?>) entry;
+                    JSONObject record = new JSONObject();
+                    record.put("word", word.getKey());
+                    record.put("meanings", word.getValue());
+                    importer.addLine(record.toJSONString());
+                }
+            }
+            JSONObject outcome = importer.finish();
+            double seconds = (System.nanoTime() - started) / 1e9;
+            System.out.println(outcome.get("output"));
+            System.out.printf("Sent %d record(s) in %.1f s, %.0f records/s end to end.%n", importer.getSent(), seconds, importer.getSent() / seconds);
+        } catch (IOException | ParseException | ClassCastException e) {
+            System.err.println("Import failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -1,10 +1,17 @@
 /**
  * Name: Anna Gan, Student ID: 1579818
  * The DictionaryClient class connects to a dictionary server to perform word retrieval, addition, removal, and updates via a GUI.
+ * When given several "host:port" nodes it connects to all of them and routes each word to the node that owns it.
+ * Requests run one at a time on a background thread and their replies are shown when they arrive, so the GUI never waits
+ * on the network. A lookup supersedes every lookup made before it: one still queued is never sent, and the reply to one
+ * already sent is not shown.
  */
 
 package client;
 
+import common.AdmissionHandshake;
+import common.FrameCodec;
+
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -14,18 +21,56 @@ import javax.swing.*;
 import java.awt.Color;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 public class DictionaryClient {
+    // Fraction of requests tagged with a trace id, set with -Ddictionary.traceSampleRate=0.01; 0 turns tracing off
+    private static final double TRACE_SAMPLE_RATE = traceSampleRate();
+    // Offer to compress the session, unless started with -Ddictionary.compression=false
+    private static final boolean OFFER_COMPRESSION = !"false".equalsIgnoreCase(System.getProperty("dictionary.compression"));
+    // How long typing must pause before the word is looked up, set with -Ddictionary.typeAheadDelayMs=300; 0 turns it off
+    static final int TYPE_AHEAD_DELAY_MS = typeAheadDelayMs();
+    // How long the server may keep a request queued before dropping it, set with -Ddictionary.requestTimeoutMs=10000; 0 for no limit
+    private static final int REQUEST_TIMEOUT_MS = requestTimeoutMs();
     private String ip;
     private int port;
     private Socket socket;
     private DataInputStream input;
     private DataOutputStream output;
     private DictionaryClientGUI gui;
+    private List<String> nodes;
+    private ShardedDictionaryClient router;
+    // Set once the server has accepted compression
+    private FrameCodec codec;
+    private final FrameCodec.Stats compressionStats = new FrameCodec.Stats();
+    // Carries out requests in the order they are made, off the event dispatch thread
+    private final ExecutorService requestExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dictionary-requests");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger pendingRequests = new AtomicInteger();
+    // Numbers the lookups; only the reply to the latest is shown
+    private final AtomicLong latestLookup = new AtomicLong();
     
     /**
      * Constructs a DictionaryClient instance with the specified server IP and port.
@@ -40,14 +85,36 @@ public class DictionaryClient {
         this.gui = new DictionaryClientGUI(this);
         connectToServer();
     }
+
+    /**
+     * Constructs a DictionaryClient instance that routes requests across several sharded server nodes.
+     *
+     * @param nodes The node addresses in "host:port" form.
+     * @throws InterruptedException If the thread is interrupted while waiting for a connection.
+     */
+    public DictionaryClient(List<String> nodes) throws InterruptedException {
+        this.nodes = nodes;
+        this.gui = new DictionaryClientGUI(this);
+        connectToServer();
+    }
     
     /**
      * Attempts to connect to the server using the provided IP address and port.
-     * Displays messages about the connection status and initializes the GUI once connected.
+     * The connection and the wait for a free worker thread happen on a background thread, so the event dispatch thread
+     * is never blocked; the GUI is initialised on the event dispatch thread once the server admits the connection.
      *
      * @throws InterruptedException If the thread is interrupted while waiting for a connection.
      */
     void connectToServer() throws InterruptedException {
+        Thread connector = new Thread(nodes != null ? this::connectToShards : this::connectToSingleServer, "dictionary-connect");
+        connector.setDaemon(true);
+        connector.start();
+    }
+
+    /**
+     * Connects to the single server, waits for admission and then shows the GUI.
+     */
+    private void connectToSingleServer() {
         try {
             socket = new Socket(ip, port);
             System.out.println("Connection established with the server.");
@@ -55,23 +122,24 @@ public class DictionaryClient {
             input = new DataInputStream(socket.getInputStream());
             output = new DataOutputStream(socket.getOutputStream());
 
-            boolean hasPrintedWaitMessage = false;
-            while (true) {
-                int availableThread = input.read(); // Check if there are available threads
-                if (availableThread > 0) {
-                    System.out.println("Loading the application...");
-                    gui.initialiseGUI(); //Initialise the GUI once task is picked up by a thread
-                    System.out.println("Application loaded.");
-                    break;
-                } else {
-                    if (!hasPrintedWaitMessage) { 
-                    	//Inform client that there are no available threads to run task
-                        System.out.println("Server is busy. Please wait while we process your request...");
-                        hasPrintedWaitMessage = true;
-                    }
-                }
+            AdmissionHandshake.await(input, queued -> {
+            	//Inform client that there are no available threads to run task
+                long etaMs = ((Number) queued.get("etaMs")).longValue();
+                System.out.println("Server is busy. You are number " + queued.get("position") + " in the queue"
+                        + (etaMs >= 0 ? ", estimated wait " + (etaMs + 999) / 1000 + " s." : ". Please wait..."));
+            });
+            if (OFFER_COMPRESSION) {
+                negotiateCompression();
             }
+            System.out.println("Loading the application...");
+            SwingUtilities.invokeLater(() -> {
+                gui.initialiseGUI(); //Initialise the GUI once task is picked up by a thread
+                System.out.println("Application loaded.");
+            });
 
+        } catch (AdmissionHandshake.RejectedException e) {
+            System.err.println(e.getMessage() + ". Please try connecting to the server again later.");
+            System.exit(1);
         } catch (UnknownHostException e) {
             System.err.println("Unknown host due to incorrect IP address.");
             System.exit(1);
@@ -85,20 +153,100 @@ public class DictionaryClient {
     }
     
     /**
-     * Sends a request to the server to retrieve the meaning of a specified word.
+     * Offers the server to compress the rest of the session. A server that does not support it replies with an error,
+     * and the session carries on uncompressed.
+     *
+     * @throws IOException If the connection fails.
+     */
+    private void negotiateCompression() throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "compression");
+        request.put("algorithm", FrameCodec.ALGORITHM);
+        request.put("threshold", FrameCodec.DEFAULT_THRESHOLD);
+        writeMessage(request.toJSONString());
+        try {
+            JSONObject reply = (JSONObject) new JSONParser().parse(readMessage());
+            if (FrameCodec.ALGORITHM.equals(reply.get("algorithm"))) {
+                codec = new FrameCodec(FrameCodec.DEFAULT_THRESHOLD, compressionStats);
+                System.out.println("Compression enabled.");
+            }
+        } catch (ParseException e) {
+            throw new IOException("Malformed reply from the server", e);
+        }
+    }
+
+    /**
+     * Sends one message to the single server, compressed if the session has negotiated compression.
+     *
+     * @param message The message to send.
+     * @throws IOException If the connection fails.
+     */
+    private void writeMessage(String message) throws IOException {
+        if (codec == null) {
+            output.writeUTF(message);
+        } else {
+            codec.write(output, message);
+        }
+        output.flush();
+    }
+
+    /**
+     * Reads one message from the single server.
+     *
+     * @return The message.
+     * @throws IOException If the connection fails.
+     */
+    private String readMessage() throws IOException {
+        return codec == null ? input.readUTF() : codec.read(input);
+    }
+
+    /**
+     * Connects to every shard node and initialises the GUI once all of them have accepted the connection.
+     */
+    private void connectToShards() {
+        try {
+            router = new ShardedDictionaryClient(nodes);
+            System.out.println("Connection established with " + nodes.size() + " server nodes.");
+            SwingUtilities.invokeLater(gui::initialiseGUI);
+        } catch (IOException e) {
+            System.err.println(e.getMessage() + ". Unable to reach all of the nodes " + nodes);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Queues a request to the server to retrieve the meaning of a specified word, superseding any earlier lookup.
+     * Several words separated by commas are looked up together, in parallel across shards.
      *
      * @param word The word for which the meaning is to be retrieved.
      */
-    synchronized void getMeaning(String word){
+    void getMeaning(String word) {
+        long lookup = latestLookup.incrementAndGet();
+        submit(() -> {
+            // Skipped without a round trip if a later lookup has been made while this one waited
+            if (lookup == latestLookup.get()) {
+                lookUp(word, lookup);
+            }
+        });
+    }
+
+    /**
+     * Looks up the meaning of a word and shows it unless a later lookup has been made meanwhile.
+     *
+     * @param word The word for which the meaning is to be retrieved.
+     * @param lookup The number of this lookup.
+     */
+    private void lookUp(String word, long lookup) {
+        if (word.contains(",")) {
+            getMeanings(word.split(","), lookup);
+            return;
+        }
         try {
             JSONObject request = new JSONObject(); //Create a JSON object to represent the request
             request.put("command", "getMeaning");
             request.put("word", word);
 
-
-            output.writeUTF(request.toJSONString());
-            output.flush();
-            getServerResponse();
+            sendRequest(word, request, lookup);
 
 
         } catch (IOException | ParseException e) {
@@ -108,94 +256,298 @@ public class DictionaryClient {
     }
     
     /**
-     * Sends a request to the server to add a new word to the dictionary.
+     * Queues a request to the server to add a new word to the dictionary.
      *
      * @param word The word to be added to the dictionary.
      * @param meaning The meaning of the word to be added.
      */
-    synchronized void addNewWord(String word, String meaning)  {
-        try {
-            JSONObject request = new JSONObject();
-            request.put("command", "addNewWord");
-            request.put("word", word);
-            request.put("meaning", meaning);
-         
-            output.writeUTF(request.toJSONString());
-            output.flush();
-            getServerResponse();
-
-
-        }  catch (IOException | ParseException e) {
-        	handleDisconnection(e);
-        }
+    void addNewWord(String word, String meaning)  {
+        JSONObject request = new JSONObject();
+        request.put("command", "addNewWord");
+        request.put("word", word);
+        request.put("meaning", meaning);
+        submitChange(word, request);
     }
     
     /**
-     * Sends a request to the server to remove a word from the dictionary.
+     * Queues a request to the server to remove a word from the dictionary.
      *
      * @param word The word to be removed from the dictionary.
      */
-    synchronized void removeWord(String word) {
-        try {
-            JSONObject request = new JSONObject();
-            request.put("command", "removeWord");
-            request.put("word", word);
-
-            output.writeUTF(request.toJSONString());
-            output.flush();
-            getServerResponse();
-
-        } catch (IOException | ParseException e) {
-        	handleDisconnection(e);
-        }
+    void removeWord(String word) {
+        JSONObject request = new JSONObject();
+        request.put("command", "removeWord");
+        request.put("word", word);
+        submitChange(word, request);
     }
     
     /**
-     * Sends a request to the server to add a new meaning to an existing word.
+     * Queues a request to the server to add a new meaning to an existing word.
      *
      * @param word The word to which the new meaning will be added.
      * @param newMeaning The new meaning to be added to the word.
      */
-    synchronized void addNewMeaning(String word, String newMeaning){
-        try {
-
-            JSONObject request = new JSONObject();
-            request.put("command", "addNewMeaning");
-            request.put("word", word);
-            request.put("newMeaning", newMeaning);
-            
-
-            output.writeUTF(request.toJSONString());
-            output.flush();
-            getServerResponse();
-            
-        }  catch (IOException | ParseException e) {
-        	handleDisconnection(e);
-        }
+    void addNewMeaning(String word, String newMeaning){
+        JSONObject request = new JSONObject();
+        request.put("command", "addNewMeaning");
+        request.put("word", word);
+        request.put("newMeaning", newMeaning);
+        submitChange(word, request);
     }
     
     /**
-     * Sends a request to the server to update the meaning of an existing word.
+     * Queues a request to the server to update the meaning of an existing word.
      *
      * @param word The word whose meaning is to be updated.
      * @param existingMeaning The current meaning of the word.
      * @param newMeaning The new meaning to replace the existing meaning.
      */
-    synchronized void updateMeaning(String word, String existingMeaning, String newMeaning)  {
+    void updateMeaning(String word, String existingMeaning, String newMeaning)  {
+        JSONObject request = new JSONObject();
+        request.put("command", "updateMeaning");
+        request.put("word", word);
+        request.put("existingMeaning", existingMeaning);
+        request.put("newMeaning", newMeaning);
+        submitChange(word, request);
+    }
+
+    /**
+     * Queues a download of the server's dictionary file into a local file, and shows the outcome.
+     *
+     * @param fileName The local file to write; replaced only once the whole file has arrived and its checksum matches.
+     */
+    void download(String fileName) {
+        submit(() -> {
+            try {
+                displayResponse(downloadTo(Paths.get(fileName)));
+            } catch (IOException | ParseException e) {
+                handleDisconnection(e);
+            }
+        });
+    }
+
+    /**
+     * Downloads the server's dictionary file as last saved, streaming it straight into a local file.
+     * The bytes are always read to the end, even if the local file cannot be written, so the session stays usable.
+     *
+     * @param target The local file to write.
+     * @return The outcome to show.
+     * @throws IOException If the connection fails.
+     * @throws ParseException If the server's reply is malformed.
+     */
+    private String downloadTo(Path target) throws IOException, ParseException {
+        if (router != null) {
+            return "ERROR: Downloading is only available when connected to a single server.";
+        }
+        JSONObject request = new JSONObject();
+        request.put("command", "download");
+        writeMessage(request.toJSONString());
+        JSONObject reply = (JSONObject) new JSONParser().parse(readMessage());
+        if (!(reply.get("size") instanceof Number)) {
+            return reply.get("output").toString();
+        }
+        long size = ((Number) reply.get("size")).longValue();
+        Path temporary = target.resolveSibling(target.getFileName() + ".part");
+        CRC32 checksum = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        String localError = null;
+        OutputStream file = null;
         try {
-            JSONObject request = new JSONObject();
-            request.put("command", "updateMeaning");
-            request.put("word", word);
-            request.put("existingMeaning", existingMeaning);
-            request.put("newMeaning", newMeaning);
+            file = Files.newOutputStream(temporary);
+        } catch (IOException e) {
+            localError = e.getMessage();
+        }
+        try {
+            for (long remaining = size; remaining > 0; ) {
+                int count = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (count < 0) {
+                    throw new EOFException("Connection closed during the download");
+                }
+                remaining -= count;
+                checksum.update(buffer, 0, count);
+                if (file != null) {
+                    try {
+                        file.write(buffer, 0, count);
+                    } catch (IOException e) {
+                        localError = e.getMessage();
+                        file.close();
+                        file = null;
+                    }
+                }
+            }
+        } finally {
+            if (file != null) {
+                file.close();
+            }
+        }
+        if (localError == null && checksum.getValue() != ((Number) reply.get("crc32")).longValue()) {
+            localError = "the checksum does not match";
+        }
+        if (localError != null) {
+            Files.deleteIfExists(temporary);
+            return "ERROR: Unable to download the dictionary to " + target + ": " + localError;
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return "SUCCESS: Downloaded " + size + " bytes of the dictionary at version " + reply.get("version") + " to " + target + ".";
+    }
 
-            output.writeUTF(request.toJSONString());
-            output.flush();
-            getServerResponse();
-           
+    /**
+     * Queues a request that changes the dictionary. Changes are never superseded: each one is sent and its reply shown.
+     *
+     * @param word The word the request is about.
+     * @param request The request to send.
+     */
+    private void submitChange(String word, JSONObject request) {
+        submit(() -> {
+            try {
+                sendRequest(word, request, 0);
+            } catch (IOException | ParseException e) {
+                handleDisconnection(e);
+            }
+        });
+    }
 
+    /**
+     * Runs a request on the request thread, showing in the GUI that a reply is awaited until no request is left.
+     *
+     * @param request The request to run.
+     */
+    private void submit(Runnable request) {
+        if (pendingRequests.getAndIncrement() == 0) {
+            gui.updateWaiting(true);
+        }
+        requestExecutor.execute(() -> {
+            try {
+                request.run();
+            } finally {
+                if (pendingRequests.decrementAndGet() == 0) {
+                    gui.updateWaiting(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Looks up several words and shows their meanings one after another, unless a later lookup has been made meanwhile.
+     *
+     * @param words The words to look up.
+     * @param lookup The number of this lookup.
+     */
+    private void getMeanings(String[] words, long lookup) {
+        List<String> wordList = new ArrayList<>();
+        for (String word : words) {
+            if (!word.trim().isEmpty()) {
+                wordList.add(word.trim());
+            }
+        }
+        try {
+            StringBuilder outputText = new StringBuilder();
+            boolean allFailed = true;
+            if (router != null) {
+                for (Map.Entry<String, JSONObject> reply : router.getMeanings(wordList).entrySet()) {
+                    String text = reply.getValue().get("output").toString();
+                    allFailed &= text.startsWith("ERROR");
+                    outputText.append(reply.getKey()).append(" - ").append(text).append("\n");
+                }
+            } else {
+                JSONParser parser = new JSONParser();
+                for (String word : wordList) {
+                    JSONObject request = new JSONObject();
+                    request.put("command", "getMeaning");
+                    request.put("word", word);
+                    if (REQUEST_TIMEOUT_MS > 0) {
+                        request.put("timeoutMs", REQUEST_TIMEOUT_MS);
+                    }
+                    writeMessage(request.toJSONString());
+                    String text = ((JSONObject) parser.parse(readMessage())).get("output").toString();
+                    allFailed &= text.startsWith("ERROR");
+                    outputText.append(word).append(" - ").append(text).append("\n");
+                }
+            }
+            if (lookup == latestLookup.get()) {
+                gui.updateOutputArea(outputText.toString(), allFailed ? Color.red : Color.black);
+            }
         } catch (IOException | ParseException e) {
-        	handleDisconnection(e);
+            handleDisconnection(e);
+        }
+    }
+
+    /**
+     * Sends a request to the server, or to the node that owns the word when sharded, and shows the reply.
+     *
+     * @param word The word the request is about.
+     * @param request The request to send.
+     * @param lookup The number of the lookup, whose reply is only shown if no later lookup has been made; 0 for a change,
+     * whose reply is always shown.
+     * @throws ParseException If there is an error parsing the server response.
+     * @throws IOException If there is an error communicating with the server.
+     */
+    private void sendRequest(String word, JSONObject request, long lookup) throws IOException, ParseException {
+        long traceId = 0;
+        if (TRACE_SAMPLE_RATE > 0 && ThreadLocalRandom.current().nextDouble() < TRACE_SAMPLE_RATE) {
+            // The server tags its flight recorder events for this request with the same id
+            traceId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+            request.put("traceId", traceId);
+        }
+        if (REQUEST_TIMEOUT_MS > 0 && router == null) {
+            // Sharded requests get the time left on their pool's timeout instead
+            request.put("timeoutMs", REQUEST_TIMEOUT_MS);
+        }
+        long started = System.nanoTime();
+        String outputText;
+        if (router != null) {
+            outputText = router.send(word, request).get("output").toString();
+        } else {
+            writeMessage(request.toJSONString());
+            outputText = getServerResponse();
+        }
+        if (lookup == 0 || lookup == latestLookup.get()) {
+            displayResponse(outputText);
+        }
+        if (traceId != 0) {
+            System.out.printf("Trace %d: %s took %.3f ms%n", traceId, request.get("command"), (System.nanoTime() - started) / 1e6);
+        }
+    }
+
+    /**
+     * Reads the trace sampling rate from the "dictionary.traceSampleRate" system property.
+     *
+     * @return The fraction of requests to trace, between 0 and 1.
+     */
+    private static double traceSampleRate() {
+        try {
+            return Math.max(0, Math.min(1, Double.parseDouble(System.getProperty("dictionary.traceSampleRate", "0"))));
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid dictionary.traceSampleRate, tracing is off.");
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the as-you-type lookup delay from the "dictionary.typeAheadDelayMs" system property.
+     *
+     * @return The delay in milliseconds, or 0 to look words up only when asked.
+     */
+    private static int typeAheadDelayMs() {
+        try {
+            return Math.max(0, Integer.parseInt(System.getProperty("dictionary.typeAheadDelayMs", "300")));
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid dictionary.typeAheadDelayMs, looking words up after 300 ms.");
+            return 300;
+        }
+    }
+
+    /**
+     * Reads the request timeout from the "dictionary.requestTimeoutMs" system property.
+     *
+     * @return The time in milliseconds after which the server drops a request it has not started, or 0 for no limit.
+     */
+    private static int requestTimeoutMs() {
+        try {
+            return Math.max(0, Integer.parseInt(System.getProperty("dictionary.requestTimeoutMs", "10000")));
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid dictionary.requestTimeoutMs, requests time out after 10000 ms.");
+            return 10000;
         }
     }
 
@@ -207,6 +559,10 @@ public class DictionaryClient {
     void handleDisconnection(Exception e) {
 
         // Close socket
+        if (router != null) {
+            router.close();
+            gui.printDisconnectionMessage();
+        }
         if (socket != null && !socket.isClosed()) {
             try {
 				socket.close();
@@ -223,16 +579,25 @@ public class DictionaryClient {
     
 
     /**
-     * Reads the server's response and updates the GUI accordingly.
+     * Reads the server's response.
      *
+     * @return The text of the server reply.
      * @throws ParseException If there is an error parsing the server response.
      * @throws IOException If there is an error reading from the server.
      */
-    private void getServerResponse() throws ParseException, IOException {
-        String serverResponse = input.readUTF(); // Read the server's response as a UTF-encoded string
+    private String getServerResponse() throws ParseException, IOException {
+        String serverResponse = readMessage(); // Read the server's response
         JSONParser parser = new JSONParser();
         JSONObject response = (JSONObject) parser.parse(serverResponse);
-        String outputText = response.get("output").toString();
+        return response.get("output").toString();
+    }
+
+    /**
+     * Shows a server reply in the GUI, coloured by whether it reports an error or a success.
+     *
+     * @param outputText The text of the server reply.
+     */
+    private void displayResponse(String outputText) {
         Color color;
         
         //Determine the colour for the output based on the response text
@@ -251,6 +616,9 @@ public class DictionaryClient {
      * Updates the GUI to reflect the disconnection.
      */
     void closeSocket() {
+        if (router != null) {
+            router.close();
+        }
         if (socket != null && !socket.isClosed()) {
             try {
                 socket.close(); //Close the socket connection
@@ -260,6 +628,12 @@ public class DictionaryClient {
             }
         }
         
+        if (codec != null) {
+            long wire = compressionStats.receivedWireBytes.sum();
+            System.out.printf("Compression: received %d bytes of replies as %d bytes (%.2fx), %.1f ms decompressing.%n",
+                    compressionStats.receivedRawBytes.sum(), wire,
+                    wire == 0 ? 1.0 : (double) compressionStats.receivedRawBytes.sum() / wire, compressionStats.decompressNanos.sum() / 1e6);
+        }
         System.out.println("Closing the GUI...");
         System.exit(0); 
     }
@@ -267,8 +641,20 @@ public class DictionaryClient {
 
     public static void main(String[] args) throws IOException {
     	try {
+	        if (args.length >= 1 && args[0].contains(":")) {
+	        	// Sharded mode: every argument is a node address
+	        	List<String> nodes = Arrays.asList(args);
+	        	SwingUtilities.invokeLater(() -> {
+	        		try {
+	        			new DictionaryClient(nodes);
+	        		} catch (InterruptedException e) {
+	        			System.out.println("Connection failed. Please check the node addresses and try again.");
+	        		}
+	        	});
+	        	return;
+	        }
 	        if (args.length != 2) {
-    			System.err.println("Lack of Parameters. Usage example: \"java - jar DictServer.jar <ip address> <port>\"");
+    			System.err.println("Lack of Parameters. Usage example: \"java - jar DictServer.jar <ip address> <port>\" or \"java -jar DictionaryClient.jar <host:port> <host:port> ...\"");
 	            System.exit(1);
 	        }
 	        
@@ -1,6 +1,8 @@
 /**
  * Name: Anna Gan, Student ID: 1579818
  * The DictionaryClientGUI class provides a graphical user interface for interacting with the DictionaryClient, allowing users to perform word-related operations and view server responses.
+ * The buttons only queue requests, and replies are shown as they arrive, so the window stays responsive however slow the server is.
+ * The word is also looked up as it is typed, once typing pauses, so that only the word finally typed is sent.
  */
 
 package client;
@@ -10,7 +12,10 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 public class DictionaryClientGUI extends JFrame {
 
@@ -20,6 +25,9 @@ public class DictionaryClientGUI extends JFrame {
     private JTextArea outputArea;
     private JLabel connectionStatus;
     private DictionaryClient client;
+    private Timer typeAheadTimer;
+    // The last word looked up, so that a pause after an edit that leaves the word unchanged sends nothing
+    private String lastLookup;
     
     /**
      * Constructs a DictionaryClientGUI instance with the specified DictionaryClient.
@@ -51,6 +59,22 @@ public class DictionaryClientGUI extends JFrame {
         inputPanel.add(new JLabel("Word:"));
         wordField = new JTextField();
         inputPanel.add(wordField);
+        if (DictionaryClient.TYPE_AHEAD_DELAY_MS > 0) {
+            typeAheadTimer = new Timer(DictionaryClient.TYPE_AHEAD_DELAY_MS, e -> lookUpTypedWord());
+            typeAheadTimer.setRepeats(false);
+            wordField.getDocument().addDocumentListener(new DocumentListener() {
+                public void insertUpdate(DocumentEvent e) {
+                    typeAheadTimer.restart();
+                }
+
+                public void removeUpdate(DocumentEvent e) {
+                    typeAheadTimer.restart();
+                }
+
+                public void changedUpdate(DocumentEvent e) {
+                }
+            });
+        }
 
         inputPanel.add(new JLabel("Connection status:"));
         connectionStatus = new JLabel();
@@ -80,6 +104,8 @@ public class DictionaryClientGUI extends JFrame {
         getMeaningButton.setPreferredSize(new Dimension(140, 50));
         getMeaningButton.addActionListener(e -> {
         	
+        	stopTypeAhead();
+        	lastLookup = wordField.getText().trim();
         	client.getMeaning(wordField.getText());
 
         });
@@ -90,6 +116,8 @@ public class DictionaryClientGUI extends JFrame {
         addNewWordButton.setPreferredSize(new Dimension(140, 50));
         addNewWordButton.addActionListener(e -> {
 
+        	stopTypeAhead();
+        	lastLookup = null;
         	client.addNewWord(wordField.getText(), newMeaningField.getText());
 
         });
@@ -100,6 +128,8 @@ public class DictionaryClientGUI extends JFrame {
         removeWordButton.setPreferredSize(new Dimension(140, 50));
         removeWordButton.addActionListener(e -> {
 
+        	stopTypeAhead();
+        	lastLookup = null;
         	client.removeWord(wordField.getText());
 
         });
@@ -110,6 +140,8 @@ public class DictionaryClientGUI extends JFrame {
         addNewMeaningButton.setPreferredSize(new Dimension(140, 50));
         addNewMeaningButton.addActionListener(e -> {
 
+        	stopTypeAhead();
+        	lastLookup = null;
         	client.addNewMeaning(wordField.getText(), newMeaningField.getText());
 
         });
@@ -120,11 +152,27 @@ public class DictionaryClientGUI extends JFrame {
         updateMeaningButton.setPreferredSize(new Dimension(140, 50));
         updateMeaningButton.addActionListener(e -> {
         	
+        	stopTypeAhead();
+        	lastLookup = null;
         	client.updateMeaning(wordField.getText(), existingMeaningField.getText(), newMeaningField.getText());
 
         });
         buttonPanel.add(updateMeaningButton);
 
+        JButton downloadButton = new JButton("Download");
+        downloadButton.setBackground(Color.GRAY);
+        downloadButton.setPreferredSize(new Dimension(140, 50));
+        downloadButton.addActionListener(e -> {
+
+        	JFileChooser chooser = new JFileChooser();
+        	chooser.setSelectedFile(new File("dictionary.json"));
+        	if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+        		client.download(chooser.getSelectedFile().getPath());
+        	}
+
+        });
+        buttonPanel.add(downloadButton);
+
         add(buttonPanel);
         
         //Add window listener to handle closing the application and printing exit message
@@ -144,23 +192,62 @@ public class DictionaryClientGUI extends JFrame {
  
 
     /**
-     * Updates the output area with the specified text and colour.
+     * Looks up the word in the word field once typing has paused, unless it is empty or was the last word looked up.
+     */
+    private void lookUpTypedWord() {
+        String word = wordField.getText().trim();
+        if (word.isEmpty() || word.equals(lastLookup)) {
+            return;
+        }
+        lastLookup = word;
+        client.getMeaning(word);
+    }
+
+    /**
+     * Cancels a pending as-you-type lookup, as a button press supersedes it.
+     */
+    private void stopTypeAhead() {
+        if (typeAheadTimer != null) {
+            typeAheadTimer.stop();
+        }
+    }
+
+    /**
+     * Updates the output area with the specified text and colour. May be called from any thread.
      * @param text The text to be displayed in the output area.
      * @param colour The colour to be used for the text.
      */
     void updateOutputArea(String text, Color color) {
-        outputArea.setForeground(color);
-        outputArea.setText(text);
+        SwingUtilities.invokeLater(() -> {
+            outputArea.setForeground(color);
+            outputArea.setText(text);
+        });
     }
     
     /**
-     * Updates the connection status label with the specified status and colour.
+     * Updates the connection status label with the specified status and colour. May be called from any thread.
      * @param status The connection status text to be displayed.
      * @param colour The colour to be used for the status text.
      */
     void updateConnectionStatus(String status, Color color) {
-        connectionStatus.setText(status);
-        connectionStatus.setForeground(color);
+        SwingUtilities.invokeLater(() -> {
+            connectionStatus.setText(status);
+            connectionStatus.setForeground(color);
+        });
+    }
+
+    /**
+     * Shows in the connection status whether replies are awaited. May be called from any thread.
+     * @param waiting True while requests are queued or in flight.
+     */
+    void updateWaiting(boolean waiting) {
+        SwingUtilities.invokeLater(() -> {
+            if (connectionStatus == null || "Disconnected".equals(connectionStatus.getText())) {
+                return;
+            }
+            connectionStatus.setText(waiting ? "Connected, waiting for the server..." : "Connected");
+            connectionStatus.setForeground(waiting ? new Color(200, 120, 0) : new Color(0, 150, 0));
+        });
     }
     
     /**
@@ -0,0 +1,226 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The DictionaryConnectionPool class keeps a bounded set of connections to one server node that many threads can share.
+ * Each request borrows an idle connection (opening a new one if the pool is below its limit), reconnects with an
+ * exponential backoff after failures, and idle connections are pinged in the background so broken ones are replaced.
+ * Note that the server assigns one worker thread per open connection, so the pool size should not exceed the server's worker pool.
+ */
+
+package client;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+public class DictionaryConnectionPool implements AutoCloseable {
+    private static final long INITIAL_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 5000;
+    private static final long HEALTH_CHECK_INTERVAL_MS = 5000;
+
+    // One daemon thread checks the idle connections of every pool in the process
+    private static final ScheduledExecutorService healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dictionary-pool-health");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String address;
+    private final int requestTimeoutMs;
+    private final Semaphore permits;
+    // Most recently used connections are at the front so the warmest connection is reused first
+    private final LinkedBlockingDeque<NodeConnection> idle = new LinkedBlockingDeque<>();
+
+    private final Object backoffLock = new Object();
+    private long backoffMs = INITIAL_BACKOFF_MS;
+    private volatile long retryAt = 0;
+    private volatile boolean healthy = true;
+    private volatile boolean closed = false;
+    private final ScheduledFuture<?> healthCheck;
+
+    /**
+     * Constructs a pool for one node. Connections are opened lazily as requests need them.
+     * @param address The node address in "host:port" form.
+     * @param maxConnections The maximum number of connections open at once.
+     * @param requestTimeoutMs The time a request may take, including waiting for a free connection.
+     */
+    public DictionaryConnectionPool(String address, int maxConnections, int requestTimeoutMs) {
+        this.address = address;
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.permits = new Semaphore(maxConnections, true);
+        this.healthCheck = healthChecker.scheduleWithFixedDelay(this::checkHealth, HEALTH_CHECK_INTERVAL_MS, HEALTH_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a request over a pooled connection and waits for the reply.
+     * A connection that fails or times out is discarded rather than returned to the pool. The request carries the time
+     * left as "timeoutMs", so the node drops it instead of running it once nobody is waiting for the reply.
+     * @param request The request to send.
+     * @return The node's reply.
+     * @throws IOException If no connection is available in time, the node is unreachable or the request times out.
+     * @throws ParseException If the node sends a malformed reply.
+     */
+    public JSONObject exchange(JSONObject request) throws IOException, ParseException {
+        if (closed) {
+            throw new IOException("Connection pool for " + address + " is closed");
+        }
+        long deadline = System.currentTimeMillis() + requestTimeoutMs;
+        try {
+            if (!permits.tryAcquire(requestTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("No connection to " + address + " became free within " + requestTimeoutMs + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + address);
+        }
+
+        NodeConnection connection = null;
+        try {
+            connection = idle.pollFirst();
+            if (connection == null) {
+                connection = open(remaining(deadline));
+            }
+            int timeoutMs = remaining(deadline);
+            connection.setTimeout(timeoutMs);
+            // Copied so that the caller's request is left as it was
+            JSONObject timedRequest = new JSONObject(request);
+            timedRequest.put("timeoutMs", timeoutMs);
+            JSONObject response = connection.exchange(timedRequest);
+            if (!closed) {
+                idle.offerFirst(connection);
+                connection = null;
+            }
+            return response;
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+            permits.release();
+        }
+    }
+
+    /**
+     * Opens one connection straight away so that an unreachable node is reported early.
+     * @throws IOException If the node cannot be reached.
+     */
+    public void warmUp() throws IOException {
+        idle.offerFirst(open(requestTimeoutMs));
+    }
+
+    /**
+     * Opens a new connection unless the node is in its reconnect backoff period.
+     * @param timeoutMs The time allowed for connecting.
+     * @return The new connection.
+     * @throws IOException If the node is backing off or cannot be reached.
+     */
+    private NodeConnection open(int timeoutMs) throws IOException {
+        long wait = retryAt - System.currentTimeMillis();
+        if (wait > 0) {
+            throw new IOException("Node " + address + " is unavailable, next reconnect attempt in " + wait + " ms");
+        }
+        try {
+            NodeConnection connection = new NodeConnection(address, timeoutMs);
+            synchronized (backoffLock) {
+                backoffMs = INITIAL_BACKOFF_MS;
+                retryAt = 0;
+            }
+            healthy = true;
+            return connection;
+        } catch (IOException e) {
+            synchronized (backoffLock) {
+                retryAt = System.currentTimeMillis() + backoffMs;
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            }
+            healthy = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Pings every idle connection, dropping the ones that no longer answer. If the pool has no connections
+     * because the node was down, tries to reconnect once the backoff period has passed.
+     */
+    private void checkHealth() {
+        if (closed) {
+            return;
+        }
+        List<NodeConnection> checked = new ArrayList<>();
+        NodeConnection connection;
+        while (permits.tryAcquire()) {
+            connection = idle.pollLast();
+            if (connection == null) {
+                permits.release();
+                break;
+            }
+            try {
+                connection.setTimeout(requestTimeoutMs);
+                JSONObject ping = new JSONObject();
+                ping.put("command", "ping");
+                connection.exchange(ping);
+                checked.add(connection);
+            } catch (IOException | ParseException e) {
+                connection.close();
+                healthy = false;
+            } finally {
+                permits.release();
+            }
+        }
+        for (NodeConnection alive : checked) {
+            idle.offerLast(alive);
+        }
+
+        if (checked.isEmpty() && !healthy && retryAt <= System.currentTimeMillis()) {
+            try {
+                warmUp();
+            } catch (IOException e) {
+                // Still unreachable; the next check will try again after the backoff period
+            }
+        }
+    }
+
+    /**
+     * Reports whether the last connection attempt and health check succeeded.
+     * @return True if the node is considered reachable.
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Returns the address of the node this pool connects to.
+     * @return The node address in "host:port" form.
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    private static int remaining(long deadline) throws SocketTimeoutException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Request timed out");
+        }
+        return (int) remaining;
+    }
+
+    /**
+     * Closes every idle connection. Connections in use are closed when their request completes.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        healthCheck.cancel(false);
+        NodeConnection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+}
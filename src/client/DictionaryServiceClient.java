@@ -0,0 +1,420 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The DictionaryServiceClient class is a thread-safe, GUI-free client for backend services.
+ * Requests from many threads run concurrently over a pool of connections instead of queuing behind one socket,
+ * and failures are reported as exceptions rather than closing the application.
+ */
+
+package client;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+public class DictionaryServiceClient implements AutoCloseable {
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    public static final int DEFAULT_REQUEST_TIMEOUT_MS = 5000;
+
+    private final DictionaryConnectionPool pool;
+    private final int requestTimeoutMs;
+
+    /**
+     * Constructs a client for the server at the given address with the default pool size and timeout.
+     *
+     * @param address The server address in "host:port" form.
+     */
+    public DictionaryServiceClient(String address) {
+        this(address, DEFAULT_MAX_CONNECTIONS, DEFAULT_REQUEST_TIMEOUT_MS);
+    }
+
+    /**
+     * Constructs a client for the server at the given address.
+     *
+     * @param address The server address in "host:port" form.
+     * @param maxConnections The maximum number of connections kept open to the server.
+     * @param requestTimeoutMs The time a single request may take before it fails.
+     */
+    public DictionaryServiceClient(String address, int maxConnections, int requestTimeoutMs) {
+        this.pool = new DictionaryConnectionPool(address, maxConnections, requestTimeoutMs);
+        this.requestTimeoutMs = requestTimeoutMs;
+    }
+
+    /**
+     * Retrieves the meaning(s) of a word.
+     *
+     * @param word The word to look up.
+     * @return The server's reply, starting with "ERROR" if the word is not found.
+     * @throws IOException If the request fails or times out.
+     */
+    public String getMeaning(String word) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "getMeaning");
+        request.put("word", word);
+        return output(send(request));
+    }
+
+    /**
+     * Retrieves a word's meanings as an array together with its version, for use with the conditional writes.
+     *
+     * @param word The word to look up.
+     * @return The reply with "meanings", "meaningCount" and "wordVersion", plus "nextOffset" if not every meaning fit in
+     * one reply; or only an "output" starting with "ERROR" if the word is not found.
+     * @throws IOException If the request fails or times out.
+     */
+    public JSONObject getEntry(String word) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "getMeaning");
+        request.put("word", word);
+        request.put("format", "array");
+        return send(request);
+    }
+
+    /**
+     * Retrieves a word's meanings, matching it regardless of case, surrounding spaces and Unicode normalisation form.
+     *
+     * @param word The word to look up, e.g. "Apple " for "apple".
+     * @return The reply with "meanings", "meaningCount", "wordVersion" and the dictionary's spelling of the word as "word",
+     * plus "nextOffset" if not every meaning fit in one reply; or only an "output" starting with "ERROR" if no spelling matches.
+     * @throws IOException If the request fails or times out.
+     */
+    public JSONObject getEntryNormalized(String word) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "getMeaning");
+        request.put("word", word);
+        request.put("normalize", true);
+        request.put("format", "array");
+        return send(request);
+    }
+
+    /**
+     * Retrieves the number of meanings a word has, without any of the meanings.
+     *
+     * @param word The word to look up.
+     * @return The number of meanings, or -1 if the word is not found.
+     * @throws IOException If the request fails or times out.
+     */
+    public int getMeaningCount(String word) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "getMeaning");
+        request.put("word", word);
+        request.put("countOnly", true);
+        Object count = send(request).get("meaningCount");
+        return count instanceof Number ? ((Number) count).intValue() : -1;
+    }
+
+    /**
+     * Retrieves part of a word's meanings as an array, for words with more meanings than a caller needs or one reply can carry.
+     *
+     * @param word The word to look up.
+     * @param offset The position of the first meaning to return, starting at 0.
+     * @param limit The maximum number of meanings to return.
+     * @return The reply with "meanings", "meaningCount", "wordVersion" and, unless the last meaning was returned, the
+     * "nextOffset" to pass for the next part; or only an "output" starting with "ERROR" if the word is not found.
+     * @throws IOException If the request fails or times out.
+     */
+    public JSONObject getMeanings(String word, int offset, int limit) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "getMeaning");
+        request.put("word", word);
+        request.put("offset", offset);
+        request.put("limit", limit);
+        request.put("format", "array");
+        return send(request);
+    }
+
+    /**
+     * Adds a new word with one or more comma-separated meanings.
+     *
+     * @param word The word to add.
+     * @param meaning The meaning(s) of the word.
+     * @return The server's reply, starting with "SUCCESS" or "ERROR".
+     * @throws IOException If the request fails or times out.
+     */
+    public String addNewWord(String word, String meaning) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "addNewWord");
+        request.put("word", word);
+        request.put("meaning", meaning);
+        return output(send(request));
+    }
+
+    /**
+     * Removes a word.
+     *
+     * @param word The word to remove.
+     * @return The server's reply, starting with "SUCCESS" or "ERROR".
+     * @throws IOException If the request fails or times out.
+     */
+    public String removeWord(String word) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "removeWord");
+        request.put("word", word);
+        return output(send(request));
+    }
+
+    /**
+     * Adds a meaning to an existing word.
+     *
+     * @param word The word to extend.
+     * @param newMeaning The meaning to add.
+     * @return The server's reply, starting with "SUCCESS" or "ERROR".
+     * @throws IOException If the request fails or times out.
+     */
+    public String addNewMeaning(String word, String newMeaning) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "addNewMeaning");
+        request.put("word", word);
+        request.put("newMeaning", newMeaning);
+        return output(send(request));
+    }
+
+    /**
+     * Replaces one meaning of a word.
+     *
+     * @param word The word to update.
+     * @param existingMeaning The meaning to replace.
+     * @param newMeaning The replacement meaning.
+     * @return The server's reply, starting with "SUCCESS" or "ERROR".
+     * @throws IOException If the request fails or times out.
+     */
+    public String updateMeaning(String word, String existingMeaning, String newMeaning) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "updateMeaning");
+        request.put("word", word);
+        request.put("existingMeaning", existingMeaning);
+        request.put("newMeaning", newMeaning);
+        return output(send(request));
+    }
+
+    /**
+     * Adds a meaning to a word only if nobody has changed the word since it was read.
+     *
+     * @param word The word to extend.
+     * @param expectedVersion The "wordVersion" returned by getEntry.
+     * @param newMeaning The meaning to add.
+     * @return The reply, with the word's new "wordVersion" on success or its current one on a version conflict.
+     * @throws IOException If the request fails or times out.
+     */
+    public JSONObject casAddNewMeaning(String word, long expectedVersion, String newMeaning) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "casAddNewMeaning");
+        request.put("word", word);
+        request.put("expectedVersion", expectedVersion);
+        request.put("newMeaning", newMeaning);
+        return send(request);
+    }
+
+    /**
+     * Replaces one meaning of a word, addressed by its position, only if nobody has changed the word since it was read.
+     *
+     * @param word The word to update.
+     * @param expectedVersion The "wordVersion" returned by getEntry.
+     * @param index The position of the meaning to replace, starting at 1 as numbered by getMeaning.
+     * @param newMeaning The replacement meaning.
+     * @return The reply, with the word's new "wordVersion" on success or its current one on a version conflict.
+     * @throws IOException If the request fails or times out.
+     */
+    public JSONObject casUpdateMeaning(String word, long expectedVersion, int index, String newMeaning) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "casUpdateMeaning");
+        request.put("word", word);
+        request.put("expectedVersion", expectedVersion);
+        request.put("index", index);
+        request.put("newMeaning", newMeaning);
+        return send(request);
+    }
+
+    /**
+     * Removes a word only if nobody has changed it since it was read.
+     *
+     * @param word The word to remove.
+     * @param expectedVersion The "wordVersion" returned by getEntry.
+     * @return The reply, with the word's current "wordVersion" on a version conflict.
+     * @throws IOException If the request fails or times out.
+     */
+    public JSONObject casRemoveWord(String word, long expectedVersion) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "casRemoveWord");
+        request.put("word", word);
+        request.put("expectedVersion", expectedVersion);
+        return send(request);
+    }
+
+    /**
+     * Fetches one page of words in sorted order.
+     *
+     * @param cursor The "nextCursor" of the previous page, or null for the first page.
+     * @param limit The maximum number of words in the page.
+     * @param withMeanings Whether to include each word's meanings.
+     * @return The reply with "words" (or "entries" with meanings) and "nextCursor", which is absent on the last page.
+     * @throws IOException If the request fails or times out.
+     */
+    public JSONObject scan(String cursor, int limit, boolean withMeanings) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "scan");
+        if (cursor != null) {
+            request.put("cursor", cursor);
+        }
+        request.put("limit", limit);
+        request.put("withMeanings", withMeanings);
+        return send(request);
+    }
+
+    /**
+     * Fetches one page of words as they were at a snapshot version, so that every page of a scan sees the same state.
+     *
+     * @param cursor The "nextCursor" of the previous page, or null for the first page.
+     * @param limit The maximum number of words in the page.
+     * @param withMeanings Whether to include each word's meanings.
+     * @param version A version returned by openSnapshot.
+     * @return The reply with "words" (or "entries" with meanings) and "nextCursor", which is absent on the last page.
+     * @throws IOException If the request fails or times out.
+     */
+    public JSONObject scan(String cursor, int limit, boolean withMeanings, long version) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "scan");
+        if (cursor != null) {
+            request.put("cursor", cursor);
+        }
+        request.put("limit", limit);
+        request.put("withMeanings", withMeanings);
+        request.put("version", version);
+        return send(request);
+    }
+
+    /**
+     * Retrieves the meaning(s) of a word as they were at a snapshot version.
+     *
+     * @param word The word to look up.
+     * @param version A version returned by openSnapshot.
+     * @return The server's reply, starting with "ERROR" if the word did not exist at that version.
+     * @throws IOException If the request fails or times out.
+     */
+    public String getMeaning(String word, long version) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("command", "getMeaning");
+        request.put("word", word);
+        request.put("version", version);
+        return output(send(request));
+    }
+
+    /**
+     * Pins the server's current version so that reads at that version stay consistent across requests.
+     * The pin belongs to a dedicated connection, so it is released when the snapshot is closed even if the client crashes.
+     *
+     * @return The open snapshot; pass its version to getMeaning or scan and close it when done.
+     * @throws IOException If the connection fails or the server refuses the snapshot.
+     */
+    public Snapshot openSnapshot() throws IOException {
+        NodeConnection connection = new NodeConnection(pool.getAddress(), requestTimeoutMs);
+        try {
+            JSONObject request = new JSONObject();
+            request.put("command", "openSnapshot");
+            JSONObject response = connection.exchange(request);
+            if (response.get("version") == null) {
+                throw new IOException(output(response));
+            }
+            return new Snapshot(connection, ((Number) response.get("version")).longValue());
+        } catch (IOException | ParseException e) {
+            connection.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Malformed reply from " + pool.getAddress(), e);
+        }
+    }
+
+    /**
+     * Computes statistics of the whole dictionary on the server: word and meaning counts, the number of words by number of
+     * meanings, the longest entries and the meanings shared by several words. The analysis runs on a connection of its own,
+     * which reports its progress until the analysis finishes.
+     *
+     * @param limit The length of the lists of longest entries and most shared meanings.
+     * @param progress Called with each progress message, which has "progress" from 0 to 1 and "wordsScanned"; may be null.
+     * @return The report, with "words", "meanings", "meaningCountHistogram", "longestEntries" and "mostSharedMeanings", or
+     * only an "output" starting with "ERROR" if the server could not run the analysis.
+     * @throws IOException If the connection fails.
+     */
+    public JSONObject analyze(int limit, Consumer<JSONObject> progress) throws IOException {
+        try (NodeConnection connection = new NodeConnection(pool.getAddress(), requestTimeoutMs)) {
+            JSONObject request = new JSONObject();
+            request.put("command", "analyze");
+            request.put("limit", limit);
+            JSONObject message = connection.exchange(request);
+            while (!message.containsKey("output")) {
+                if (progress != null) {
+                    progress.accept(message);
+                }
+                message = connection.receive();
+            }
+            return message;
+        } catch (ParseException e) {
+            throw new IOException("Malformed reply from " + pool.getAddress(), e);
+        }
+    }
+
+    /**
+     * Sends any request to the server, for commands without a dedicated method.
+     *
+     * @param request The request, including its "command" field.
+     * @return The server's full reply.
+     * @throws IOException If the request fails, times out or the reply is malformed.
+     */
+    public JSONObject send(JSONObject request) throws IOException {
+        try {
+            return pool.exchange(request);
+        } catch (ParseException e) {
+            throw new IOException("Malformed reply from " + pool.getAddress(), e);
+        }
+    }
+
+    /**
+     * Reports whether the server answered the most recent connection attempt and health check.
+     *
+     * @return True if the server is considered reachable.
+     */
+    public boolean isHealthy() {
+        return pool.isHealthy();
+    }
+
+    private static String output(JSONObject response) {
+        return response.get("output").toString();
+    }
+
+    /**
+     * Closes the client's connections.
+     */
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * A version pinned on the server for consistent reads across several requests.
+     */
+    public static class Snapshot implements AutoCloseable {
+        private final NodeConnection connection;
+        private final long version;
+
+        private Snapshot(NodeConnection connection, long version) {
+            this.connection = connection;
+            this.version = version;
+        }
+
+        /**
+         * Returns the pinned version.
+         *
+         * @return The version to pass to getMeaning or scan.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Releases the snapshot by closing its connection.
+         */
+        @Override
+        public void close() {
+            connection.close();
+        }
+    }
+}
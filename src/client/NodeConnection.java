@@ -0,0 +1,128 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The NodeConnection class is a single GUI-free connection to one dictionary server node.
+ * It waits for the server to assign a worker thread and then exchanges one JSON request and reply at a time.
+ */
+
+package client;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+
+import common.AdmissionHandshake;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class NodeConnection implements AutoCloseable {
+    private final String address;
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+    private final JSONParser parser = new JSONParser();
+
+    /**
+     * Connects to a node and waits until the node has a worker thread available for this connection.
+     * @param address The node address in "host:port" form.
+     * @throws IOException If the node cannot be reached or closes the connection.
+     */
+    public NodeConnection(String address) throws IOException {
+        this(address, 0);
+    }
+
+    /**
+     * Connects to a node and waits until the node has a worker thread available for this connection.
+     * @param address The node address in "host:port" form.
+     * @param timeoutMs The limit for connecting and for waiting on a worker thread, or 0 to wait indefinitely.
+     * @throws IOException If the node cannot be reached in time or closes the connection.
+     */
+    public NodeConnection(String address, int timeoutMs) throws IOException {
+        this.address = address;
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IOException("Node address \"" + address + "\" must be in host:port form");
+        }
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))), timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            socket.setTcpNoDelay(true);
+        } catch (IOException | NumberFormatException e) {
+            socket.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Invalid port in node address \"" + address + "\"");
+        }
+        this.input = new DataInputStream(socket.getInputStream());
+        this.output = new DataOutputStream(socket.getOutputStream());
+
+        try {
+            AdmissionHandshake.await(input, null);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a request and waits for the node's reply.
+     * @param request The request to send.
+     * @return The node's reply.
+     * @throws IOException If the connection fails.
+     * @throws ParseException If the node sends a malformed reply.
+     */
+    public synchronized JSONObject exchange(JSONObject request) throws IOException, ParseException {
+        output.writeUTF(request.toJSONString());
+        output.flush();
+        return (JSONObject) parser.parse(input.readUTF());
+    }
+
+    /**
+     * Waits for the node's next message, for commands that reply with several messages.
+     * @return The message.
+     * @throws IOException If the connection fails.
+     * @throws ParseException If the node sends a malformed message.
+     */
+    public synchronized JSONObject receive() throws IOException, ParseException {
+        return (JSONObject) parser.parse(input.readUTF());
+    }
+
+    /**
+     * Sets how long a single exchange may wait for the node's reply.
+     * @param timeoutMs The timeout in milliseconds, or 0 to wait indefinitely.
+     * @throws SocketException If the socket is no longer usable.
+     */
+    public void setTimeout(int timeoutMs) throws SocketException {
+        socket.setSoTimeout(timeoutMs);
+    }
+
+    /**
+     * Checks whether the connection has been closed.
+     * @return True if the connection is closed.
+     */
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    /**
+     * Returns the address of the node.
+     * @return The node address in "host:port" form.
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Closes the connection to the node.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+        }
+    }
+}
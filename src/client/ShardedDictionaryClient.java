@@ -0,0 +1,256 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The ShardedDictionaryClient class routes each request to the server node that owns the word on a consistent hash ring,
+ * fans multi-word lookups out to the owning nodes in parallel, and drives the online rebalance when a node is added.
+ * Each node is reached through its own connection pool, so the client can be shared by many threads.
+ */
+
+package client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import common.ConsistentHashRing;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+public class ShardedDictionaryClient implements AutoCloseable {
+    private final Map<String, DictionaryConnectionPool> pools = new ConcurrentHashMap<>();
+    private final ExecutorService fanOut;
+    private volatile ConsistentHashRing ring;
+    // Ring in use before the current rebalance started, or null when no rebalance is running
+    private volatile ConsistentHashRing previousRing;
+    private final int maxConnectionsPerNode;
+    private final int requestTimeoutMs;
+
+    /**
+     * Constructs a client for the given nodes and connects to each of them, using the default pool size and timeout per node.
+     * @param nodes The node addresses in "host:port" form.
+     * @throws IOException If a node cannot be reached.
+     */
+    public ShardedDictionaryClient(List<String> nodes) throws IOException {
+        this(nodes, DictionaryServiceClient.DEFAULT_MAX_CONNECTIONS, DictionaryServiceClient.DEFAULT_REQUEST_TIMEOUT_MS);
+    }
+
+    /**
+     * Constructs a client for the given nodes and connects to each of them.
+     * @param nodes The node addresses in "host:port" form.
+     * @param maxConnectionsPerNode The maximum number of connections kept open to each node.
+     * @param requestTimeoutMs The time a single request may take before it fails.
+     * @throws IOException If a node cannot be reached.
+     */
+    public ShardedDictionaryClient(List<String> nodes, int maxConnectionsPerNode, int requestTimeoutMs) throws IOException {
+        this.maxConnectionsPerNode = maxConnectionsPerNode;
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.ring = new ConsistentHashRing(nodes, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        this.fanOut = Executors.newFixedThreadPool(Math.max(2, nodes.size()), runnable -> {
+            Thread thread = new Thread(runnable, "shard-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String node : nodes) {
+            poolFor(node);
+        }
+    }
+
+    /**
+     * Sends a single-word request to the node that owns the word.
+     * While a rebalance is running, a read that misses on the new owner is retried on the previous owner.
+     * @param word The word the request is about.
+     * @param request The request to send.
+     * @return The owner's reply.
+     * @throws IOException If the owner cannot be reached.
+     * @throws ParseException If the owner sends a malformed reply.
+     */
+    public JSONObject send(String word, JSONObject request) throws IOException, ParseException {
+        String owner = ring.getOwner(word);
+        JSONObject response = exchangeWith(owner, request);
+
+        ConsistentHashRing before = previousRing;
+        if (before != null && "getMeaning".equals(request.get("command"))
+                && response.get("output").toString().startsWith("ERROR: Word not found")) {
+            String previousOwner = before.getOwner(word);
+            if (!previousOwner.equals(owner)) {
+                response = exchangeWith(previousOwner, request);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Looks up several words at once. Words are grouped by owner and each group is sent to its node in parallel.
+     * @param words The words to look up.
+     * @return The reply for each word, in the order the words were given.
+     * @throws IOException If a node cannot be reached.
+     * @throws ParseException If a node sends a malformed reply.
+     */
+    public Map<String, JSONObject> getMeanings(Collection<String> words) throws IOException, ParseException {
+        Map<String, List<String>> byOwner = new HashMap<>();
+        for (String word : words) {
+            byOwner.computeIfAbsent(ring.getOwner(word), owner -> new ArrayList<>()).add(word);
+        }
+
+        List<Future<Map<String, JSONObject>>> pending = new ArrayList<>();
+        for (List<String> group : byOwner.values()) {
+            pending.add(fanOut.submit(() -> {
+                Map<String, JSONObject> replies = new HashMap<>();
+                for (String word : group) {
+                    JSONObject request = new JSONObject();
+                    request.put("command", "getMeaning");
+                    request.put("word", word);
+                    replies.put(word, send(word, request));
+                }
+                return replies;
+            }));
+        }
+
+        Map<String, JSONObject> collected = new HashMap<>();
+        try {
+            for (Future<Map<String, JSONObject>> future : pending) {
+                collected.putAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for lookups");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ParseException) {
+                throw (ParseException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+
+        Map<String, JSONObject> ordered = new LinkedHashMap<>();
+        for (String word : words) {
+            ordered.put(word, collected.get(word));
+        }
+        return ordered;
+    }
+
+    /**
+     * Adds a node to the ring online. Requests are routed with the new ring straight away (falling back to the
+     * previous owner on a miss) while each existing node streams the words it no longer owns to their new owners.
+     * @param node The address of the new node, which must already be running.
+     * @return A summary of the rebalance reported by each existing node.
+     * @throws IOException If a node cannot be reached.
+     * @throws ParseException If a node sends a malformed reply.
+     */
+    public synchronized String addNode(String node) throws IOException, ParseException {
+        ConsistentHashRing oldRing = ring;
+        ConsistentHashRing newRing = oldRing.withNode(node);
+        if (newRing == oldRing) {
+            return "ERROR: Node " + node + " is already part of the ring.";
+        }
+        poolFor(node);
+        previousRing = oldRing;
+        ring = newRing;
+
+        StringBuilder summary = new StringBuilder();
+        try {
+            JSONArray nodes = new JSONArray();
+            nodes.addAll(newRing.getNodes());
+            for (String existing : oldRing.getNodes()) {
+                JSONObject request = new JSONObject();
+                request.put("command", "rebalance");
+                request.put("nodes", nodes);
+                request.put("self", existing);
+                request.put("virtualNodes", newRing.getVirtualNodes());
+                // A rebalance can outlast the pool's request timeout, so it runs on its own connection
+                try (NodeConnection admin = new NodeConnection(existing)) {
+                    summary.append(existing).append(": ").append(admin.exchange(request).get("output")).append("\n");
+                }
+            }
+        } finally {
+            previousRing = null;
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Returns the nodes currently on the ring.
+     * @return The node addresses.
+     */
+    public List<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    /**
+     * Sends a request to a node over that node's connection pool.
+     * @param node The node address in "host:port" form.
+     * @param request The request to send.
+     * @return The node's reply.
+     * @throws IOException If the node cannot be reached.
+     * @throws ParseException If the node sends a malformed reply.
+     */
+    private JSONObject exchangeWith(String node, JSONObject request) throws IOException, ParseException {
+        return poolFor(node).exchange(request);
+    }
+
+    /**
+     * Returns the connection pool of a node, creating it and opening its first connection if needed.
+     * @param node The node address in "host:port" form.
+     * @return The node's connection pool.
+     * @throws IOException If the node cannot be reached.
+     */
+    private DictionaryConnectionPool poolFor(String node) throws IOException {
+        DictionaryConnectionPool pool = pools.get(node);
+        if (pool == null) {
+            synchronized (pools) {
+                pool = pools.get(node);
+                if (pool == null) {
+                    pool = new DictionaryConnectionPool(node, maxConnectionsPerNode, requestTimeoutMs);
+                    try {
+                        pool.warmUp();
+                    } catch (IOException e) {
+                        pool.close();
+                        throw e;
+                    }
+                    pools.put(node, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Closes the connections to every node.
+     */
+    @Override
+    public void close() {
+        fanOut.shutdownNow();
+        for (DictionaryConnectionPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+    /**
+     * Command-line entry point for adding a node to a running cluster.
+     * Usage: "add-node <new host:port> <existing host:port> ..."
+     * @param args the new node followed by every existing node
+     */
+    public static void main(String[] args) {
+        if (args.length < 3 || !args[0].equals("add-node")) {
+            System.err.println("Usage: java -cp DictionaryClient.jar client.ShardedDictionaryClient add-node <new host:port> <existing host:port> ...");
+            System.exit(1);
+        }
+        try (ShardedDictionaryClient client = new ShardedDictionaryClient(Arrays.asList(args).subList(2, args.length))) {
+            System.out.print(client.addNode(args[1]));
+        } catch (IOException | ParseException e) {
+            System.err.println("Rebalance failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
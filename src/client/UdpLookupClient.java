@@ -0,0 +1,190 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The UdpLookupClient class looks words up through a server's UDP fast path ("--udp-port"), one datagram each way.
+ * Lost datagrams are retried after a timeout; replies to earlier, timed-out attempts are recognised by their id and skipped.
+ * Its main method compares lookup latency over UDP and over a TCP connection.
+ */
+
+package client;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class UdpLookupClient implements AutoCloseable {
+    public static final int DEFAULT_TIMEOUT_MS = 200;
+    public static final int DEFAULT_ATTEMPTS = 3;
+    private static final int MAX_REPLY_BYTES = 2048;
+
+    private final DatagramSocket socket;
+    private final int attempts;
+    private final JSONParser parser = new JSONParser();
+    private final byte[] replyBuffer = new byte[MAX_REPLY_BYTES];
+    private long nextId = 1;
+
+    /**
+     * Constructs a client for the UDP port of the server at the given address, with the default timeout and attempts.
+     *
+     * @param address The server's UDP address in "host:port" form.
+     * @throws IOException If the address is invalid or no local socket can be opened.
+     */
+    public UdpLookupClient(String address) throws IOException {
+        this(address, DEFAULT_TIMEOUT_MS, DEFAULT_ATTEMPTS);
+    }
+
+    /**
+     * Constructs a client for the UDP port of the server at the given address.
+     *
+     * @param address The server's UDP address in "host:port" form.
+     * @param timeoutMs How long to wait for a reply before sending the request again.
+     * @param attempts How many times a request is sent before the lookup fails.
+     * @throws IOException If the address is invalid or no local socket can be opened.
+     */
+    public UdpLookupClient(String address, int timeoutMs, int attempts) throws IOException {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IOException("Server address \"" + address + "\" must be in host:port form");
+        }
+        this.socket = new DatagramSocket();
+        try {
+            // Connecting filters out datagrams from anyone but the server
+            socket.connect(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+            socket.setSoTimeout(timeoutMs);
+        } catch (IOException | NumberFormatException e) {
+            socket.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Invalid port in server address \"" + address + "\"");
+        }
+        this.attempts = Math.max(1, attempts);
+    }
+
+    /**
+     * Looks up the meanings of a word.
+     *
+     * @param word The word to look up.
+     * @return The reply with "found", and for a found word "meanings", "wordVersion" and "truncated" if not every meaning fit.
+     * @throws IOException If no reply arrives after every attempt.
+     */
+    public JSONObject getMeaning(String word) throws IOException {
+        return lookup("getMeaning", word);
+    }
+
+    /**
+     * Checks whether a word exists, without transferring its meanings.
+     *
+     * @param word The word to look up.
+     * @return True if the word is in the dictionary.
+     * @throws IOException If no reply arrives after every attempt.
+     */
+    public boolean exists(String word) throws IOException {
+        return Boolean.TRUE.equals(lookup("exists", word).get("found"));
+    }
+
+    /**
+     * Sends a lookup and waits for its reply, sending it again after each timeout.
+     *
+     * @param commandName The lookup command.
+     * @param word The word to look up.
+     * @return The server's reply.
+     * @throws IOException If no reply arrives after every attempt.
+     */
+    private synchronized JSONObject lookup(String commandName, String word) throws IOException {
+        long id = nextId++;
+        JSONObject request = new JSONObject();
+        request.put("command", commandName);
+        request.put("word", word);
+        request.put("id", id);
+        byte[] data = request.toJSONString().getBytes(StandardCharsets.UTF_8);
+        DatagramPacket reply = new DatagramPacket(replyBuffer, replyBuffer.length);
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            socket.send(new DatagramPacket(data, data.length));
+            try {
+                while (true) {
+                    reply.setLength(replyBuffer.length);
+                    socket.receive(reply);
+                    JSONObject response = (JSONObject) parser.parse(new String(reply.getData(), 0, reply.getLength(), StandardCharsets.UTF_8));
+                    Object replyId = response.get("id");
+                    if (replyId instanceof Number && ((Number) replyId).longValue() == id) {
+                        return response;
+                    }
+                    // A late reply to an attempt that already timed out
+                }
+            } catch (SocketTimeoutException e) {
+                // Lost request or reply; send it again
+            } catch (ParseException e) {
+                throw new IOException("Malformed reply from the server", e);
+            }
+        }
+        throw new IOException("No reply from the server after " + attempts + " attempts");
+    }
+
+    /**
+     * Closes the socket.
+     */
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    /**
+     * Measures lookup latency over UDP and over TCP against the same server.
+     * Usage: java -cp DictionaryClient.jar client.UdpLookupClient &lt;host&gt; &lt;tcp port&gt; &lt;udp port&gt; &lt;word&gt; [iterations]
+     *
+     * @param args The command-line arguments.
+     */
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.err.println("Usage: java -cp DictionaryClient.jar client.UdpLookupClient <host> <tcp port> <udp port> <word> [iterations]");
+            System.exit(1);
+        }
+        String host = args[0];
+        String word = args[3];
+        int iterations = args.length > 4 ? Integer.parseInt(args[4]) : 20000;
+        try (UdpLookupClient udp = new UdpLookupClient(host + ":" + args[2]);
+             NodeConnection tcp = new NodeConnection(host + ":" + args[1])) {
+            JSONObject request = new JSONObject();
+            request.put("command", "getMeaning");
+            request.put("word", word);
+            // Warm up both paths so that the JIT has compiled them before measuring
+            for (int i = 0; i < Math.min(iterations, 5000); i++) {
+                udp.getMeaning(word);
+                tcp.exchange(request);
+            }
+            long[] udpNanos = new long[iterations];
+            long[] tcpNanos = new long[iterations];
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                udp.getMeaning(word);
+                udpNanos[i] = System.nanoTime() - start;
+                start = System.nanoTime();
+                tcp.exchange(request);
+                tcpNanos[i] = System.nanoTime() - start;
+            }
+            report("UDP", udpNanos);
+            report("TCP", tcpNanos);
+        } catch (IOException | ParseException e) {
+            System.err.println("Benchmark failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints the latency percentiles of one path.
+     *
+     * @param path The name of the path.
+     * @param nanos The latency of every lookup in nanoseconds.
+     */
+    private static void report(String path, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s: %d lookups, p50 %.1f us, p99 %.1f us, max %.1f us%n", path, sorted.length,
+                sorted[sorted.length / 2] / 1e3, sorted[(int) (sorted.length * 0.99)] / 1e3, sorted[sorted.length - 1] / 1e3);
+    }
+}
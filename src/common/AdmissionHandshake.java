@@ -0,0 +1,75 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The AdmissionHandshake class reads the server's admission messages that open every connection.
+ * The server sends zero or more "queued" messages with the connection's place in line and an estimated wait,
+ * followed by either "admitted" once a worker thread has picked the connection up, or "rejected".
+ */
+package common;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class AdmissionHandshake {
+
+    public static final String QUEUED = "queued";
+    public static final String ADMITTED = "admitted";
+    public static final String REJECTED = "rejected";
+
+    /**
+     * Builds an admission message.
+     * @param state one of QUEUED, ADMITTED or REJECTED
+     * @return the message, to which callers add "position", "etaMs" or "reason"
+     */
+    public static JSONObject message(String state) {
+        JSONObject message = new JSONObject();
+        message.put("admission", state);
+        return message;
+    }
+
+    /**
+     * Blocks until the server admits the connection.
+     * @param input the connection's input stream
+     * @param onQueued called with each "queued" message, e.g. to show the position in line; may be null
+     * @throws RejectedException if the server rejects the connection
+     * @throws IOException if the server closes the connection or sends something other than an admission message
+     */
+    public static void await(DataInputStream input, Consumer<JSONObject> onQueued) throws IOException {
+        JSONParser parser = new JSONParser();
+        while (true) {
+            JSONObject message;
+            try {
+                message = (JSONObject) parser.parse(input.readUTF());
+            } catch (ParseException | ClassCastException e) {
+                throw new IOException("Unexpected admission message from server");
+            }
+            String state = (String) message.get("admission");
+            if (ADMITTED.equals(state)) {
+                return;
+            } else if (QUEUED.equals(state)) {
+                if (onQueued != null) {
+                    onQueued.accept(message);
+                }
+            } else if (REJECTED.equals(state)) {
+                throw new RejectedException("Server rejected the connection: " + message.get("reason"));
+            } else {
+                throw new IOException("Unexpected admission message from server");
+            }
+        }
+    }
+
+    /**
+     * Thrown when the server refuses to serve a connection, e.g. because it waited too long for a worker thread.
+     */
+    public static class RejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The ConsistentHashRing class maps each word to the server node that owns it. Every node is placed on the ring
+ * at several virtual positions so words spread evenly, and adding a node only moves the words it takes over.
+ * A ring is immutable; adding a node returns a new ring so routers can swap rings atomically.
+ */
+package common;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final List<String> nodes;
+    private final int virtualNodes;
+
+    /**
+     * Constructs a ring over the given nodes.
+     * @param nodes the node addresses in "host:port" form
+     * @param virtualNodes the number of ring positions per node
+     * @throws IllegalArgumentException if no nodes are given
+     */
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one node");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        this.virtualNodes = virtualNodes;
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * Returns the node that owns a word: the first node position clockwise from the word's hash.
+     * @param word the word to look up
+     * @return the owner's address in "host:port" form
+     */
+    public String getOwner(String word) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(word));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Returns a new ring that also contains the given node.
+     * @param node the address of the node to add
+     * @return the new ring, or this ring if the node is already present
+     */
+    public ConsistentHashRing withNode(String node) {
+        if (nodes.contains(node)) {
+            return this;
+        }
+        List<String> newNodes = new ArrayList<>(nodes);
+        newNodes.add(node);
+        return new ConsistentHashRing(newNodes, virtualNodes);
+    }
+
+    /**
+     * Returns the nodes on the ring.
+     * @return an unmodifiable list of node addresses
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the number of ring positions per node.
+     * @return the virtual node count
+     */
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * Hashes a key onto the ring using the first eight bytes of its MD5 digest, which is stable across JVMs.
+     * @param key the key to hash
+     * @return the ring position
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (digest[i] & 0xff);
+            }
+            return value;
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
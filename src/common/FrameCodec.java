@@ -0,0 +1,197 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The FrameCodec class carries the messages of a connection that has negotiated compression with the "compression" command.
+ * Each message is sent as a frame of one flag byte, a four-byte length and the message's UTF-8 bytes, deflated when the
+ * message is at least the threshold size. Every frame is compressed on its own against a preset dictionary of the phrases
+ * that recur in meanings and replies, so even a single short reply compresses well and a lost frame never affects the next.
+ * Both ends must use the same preset dictionary, which is named by ALGORITHM.
+ */
+package common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class FrameCodec {
+
+    /** The name both ends negotiate; changes whenever the preset dictionary changes. */
+    public static final String ALGORITHM = "deflate-v1";
+    public static final int DEFAULT_THRESHOLD = 256;
+    // Frames larger than this are refused, so a corrupt length cannot make the reader allocate without bound
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+
+    // Deflate matches against the end of the dictionary most cheaply, so the most common phrases come last
+    private static final byte[] PRESET_DICTIONARY = (
+            "characterized by; denoting; a type of; a kind of; a member of; a small; a large; informal; archaic; "
+            + "formal; literary; British; North American; technical; chiefly; especially; typically; usually; often; "
+            + "in a way that; the quality or state of being; the action or process of; the act of; a period of; "
+            + "a piece of; a group of; a place where; the fact of; the power or ability to; a feeling of; "
+            + "relating to or denoting; having or showing; able to be; capable of; consisting of; made of; "
+            + "used for; used to; used in; used as; in order to; that is; which is; who is; with the; from the; "
+            + "for the; by the; on the; at the; in the; to the; or the; and the; of the; a person who; "
+            + "a thing that; something that; someone who; the state of; relating to; cause to; make or become; "
+            + "\"truncated\":true,\"wordVersion\":,\"version\":,\"nextCursor\":\",\"entries\":[{\"word\":\","
+            + "\"words\":[\",\"meanings\":[\"\",\"\"],\"output\":\"SUCCESS: \"output\":\"ERROR: Word not found. "
+            + "\"output\":\"Meaning(s):\\n1. \\n2. \\n3. \\n4. the \"}").getBytes(StandardCharsets.UTF_8);
+
+    private final int threshold;
+    private final Stats stats;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final Inflater inflater = new Inflater();
+    private final byte[] buffer = new byte[8192];
+
+    /**
+     * Constructs a codec for one connection.
+     * @param threshold the size in bytes from which outgoing messages are compressed
+     * @param stats the statistics to add this connection's traffic to, shared between connections
+     */
+    public FrameCodec(int threshold, Stats stats) {
+        this.threshold = Math.max(0, threshold);
+        this.stats = stats;
+    }
+
+    /**
+     * Writes one message as a frame, compressed if it is at least the threshold size and compression makes it smaller.
+     * @param output the connection's output stream; not flushed
+     * @param message the message
+     * @throws IOException if the connection fails
+     */
+    public void write(DataOutputStream output, String message) throws IOException {
+        byte[] raw = message.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = raw;
+        byte flag = RAW;
+        if (raw.length >= threshold) {
+            long start = System.nanoTime();
+            byte[] deflated = deflate(raw);
+            stats.compressNanos.add(System.nanoTime() - start);
+            if (deflated.length < raw.length) {
+                payload = deflated;
+                flag = DEFLATED;
+                stats.compressedMessages.increment();
+            }
+        }
+        // One write per frame, as the stream may be unbuffered and separate small writes would each wait on Nagle's algorithm
+        byte[] frame = new byte[payload.length + 5];
+        frame[0] = flag;
+        frame[1] = (byte) (payload.length >>> 24);
+        frame[2] = (byte) (payload.length >>> 16);
+        frame[3] = (byte) (payload.length >>> 8);
+        frame[4] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, 5, payload.length);
+        output.write(frame);
+        stats.sentMessages.increment();
+        stats.sentRawBytes.add(raw.length);
+        stats.sentWireBytes.add(payload.length + 5);
+    }
+
+    /**
+     * Reads one frame.
+     * @param input the connection's input stream
+     * @return the message
+     * @throws IOException if the connection fails or the frame is malformed
+     */
+    public String read(DataInputStream input) throws IOException {
+        byte flag = input.readByte();
+        int length = input.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES || (flag != RAW && flag != DEFLATED)) {
+            throw new IOException("Malformed frame");
+        }
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+        stats.receivedWireBytes.add(length + 5);
+        if (flag == RAW) {
+            stats.receivedRawBytes.add(length);
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+        long start = System.nanoTime();
+        byte[] raw = inflate(payload);
+        stats.decompressNanos.add(System.nanoTime() - start);
+        stats.receivedRawBytes.add(raw.length);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    private byte[] deflate(byte[] raw) {
+        deflater.reset();
+        deflater.setDictionary(PRESET_DICTIONARY);
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] inflate(byte[] payload) throws IOException {
+        inflater.reset();
+        inflater.setInput(payload);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length * 3);
+        try {
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(PRESET_DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("Truncated compressed frame");
+                    }
+                }
+                out.write(buffer, 0, count);
+                if (out.size() > MAX_FRAME_BYTES) {
+                    throw new IOException("Compressed frame too large");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed compressed frame", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Releases the native memory of the compressor and decompressor.
+     */
+    public void close() {
+        deflater.end();
+        inflater.end();
+    }
+
+    /**
+     * Traffic and CPU statistics of the connections using compression.
+     */
+    public static class Stats {
+        public final LongAdder sentMessages = new LongAdder();
+        public final LongAdder compressedMessages = new LongAdder();
+        public final LongAdder sentRawBytes = new LongAdder();
+        public final LongAdder sentWireBytes = new LongAdder();
+        public final LongAdder receivedRawBytes = new LongAdder();
+        public final LongAdder receivedWireBytes = new LongAdder();
+        public final LongAdder compressNanos = new LongAdder();
+        public final LongAdder decompressNanos = new LongAdder();
+
+        /**
+         * Returns how many times smaller the sent messages were on the wire.
+         * @return the ratio of message bytes to wire bytes, or 1 if nothing was sent
+         */
+        public double getSentRatio() {
+            long wire = sentWireBytes.sum();
+            return wire == 0 ? 1.0 : (double) sentRawBytes.sum() / wire;
+        }
+
+        /**
+         * Returns the CPU time spent compressing per megabyte of message data compressed or considered for compression.
+         * @return milliseconds per megabyte of sent message data
+         */
+        public double getCompressMsPerMegabyte() {
+            long raw = sentRawBytes.sum();
+            return raw == 0 ? 0.0 : compressNanos.sum() / 1e6 / (raw / 1048576.0);
+        }
+    }
+}
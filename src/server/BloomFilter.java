@@ -0,0 +1,84 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The BloomFilter class answers "is this word possibly in the set?" from a small bit array.
+ * A "no" is always right, so lookups of words that do not exist can skip the disk; a "yes" is wrong for about 1% of absent words.
+ */
+package server;
+
+public class BloomFilter {
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final long[] bits;
+    private final int bitCount;
+    private final int hashCount;
+
+    /**
+     * Constructs an empty filter sized for the given number of words at a 1% false positive rate.
+     * @param expectedWords the number of words that will be added
+     */
+    public BloomFilter(int expectedWords) {
+        int words = Math.max(1, expectedWords);
+        long optimalBits = (long) Math.ceil(-words * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+        this.bitCount = (int) Math.max(64, Math.min(Integer.MAX_VALUE - 63, optimalBits));
+        this.bits = new long[(bitCount + 63) / 64];
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / words * Math.log(2)));
+    }
+
+    /**
+     * Adds a word to the filter.
+     * @param word the word
+     */
+    void add(String word) {
+        long hash = hash(word);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(first + i * second, bitCount);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Checks whether a word may have been added.
+     * @param word the word
+     * @return false if the word was certainly never added
+     */
+    boolean mightContain(String word) {
+        long hash = hash(word);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(first + i * second, bitCount);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes a 64-bit hash of a word, split into the two hashes used for double hashing.
+     * @param word the word
+     * @return the hash
+     */
+    private static long hash(String word) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < word.length(); i++) {
+            hash ^= word.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        // Finalise so that both halves depend on every character
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return hash | 1L << 32;
+    }
+
+    /**
+     * Returns the size of the filter.
+     * @return the number of bits
+     */
+    int getBitCount() {
+        return bitCount;
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The BulkImport class applies the records streamed by one "import" session. Each record is a JSON line of a "word" and its
+ * "meanings" (or a single "meaning"), stored as putWord would store it. Records are collected into large batches, and each
+ * batch is committed as one version under a single hold of the dictionary lock, as a bulk request of the RequestScheduler so
+ * that lookups keep their share of the executors. The dictionary file is saved once at the end, or also every
+ * "checkpointRecords" records, instead of after every word.
+ * The client may have at most CREDIT_WINDOW frames of records unacknowledged; the connection grants more credits as frames
+ * are applied, so a client can never send faster than the server applies.
+ */
+package server;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+final class BulkImport {
+    static final int CREDIT_WINDOW = 16;
+    private static final int DEFAULT_BATCH_RECORDS = 10000;
+    private static final int MAX_BATCH_RECORDS = 100000;
+
+    private final DictionaryHandler dictionary;
+    private final DictionaryServer server;
+    private final RequestScheduler.Client schedulerClient;
+    private final int batchRecords;
+    private final long checkpointRecords;
+    private final JSONParser parser = new JSONParser();
+    private List<Map.Entry<String, List<String>>> batch;
+    private final long started = System.nanoTime();
+    private long lines = 0;
+    private long imported = 0;
+    private long rejected = 0;
+    private long sinceCheckpoint = 0;
+    private int checkpoints = 0;
+    private String firstError = null;
+
+    /**
+     * Starts an import session.
+     * @param command the "import" command, with an optional "batchSize" in records and "checkpointRecords", the number of
+     * records after which the file is saved while the import goes on (default: only at the end)
+     * @param dictionary the dictionary to import into
+     * @param server the server whose scheduler runs the batches and whose followers receive them
+     * @param schedulerClient the connection's scheduler client
+     */
+    BulkImport(JSONObject command, DictionaryHandler dictionary, DictionaryServer server, RequestScheduler.Client schedulerClient) {
+        this.dictionary = dictionary;
+        this.server = server;
+        this.schedulerClient = schedulerClient;
+        Object batchSize = command.get("batchSize");
+        Object checkpoint = command.get("checkpointRecords");
+        this.batchRecords = batchSize instanceof Number ? (int) Math.max(1, Math.min(MAX_BATCH_RECORDS, ((Number) batchSize).longValue())) : DEFAULT_BATCH_RECORDS;
+        this.checkpointRecords = checkpoint instanceof Number ? Math.max(0, ((Number) checkpoint).longValue()) : 0;
+        this.batch = new ArrayList<>(batchRecords);
+    }
+
+    /**
+     * Parses one frame of records and applies every batch it completes. A malformed record is counted and skipped.
+     * @param frame whole JSON lines, one record per line
+     */
+    void accept(String frame) {
+        int start = 0;
+        while (start < frame.length()) {
+            int end = frame.indexOf('\n', start);
+            if (end < 0) {
+                end = frame.length();
+            }
+            String line = frame.substring(start, end).trim();
+            start = end + 1;
+            if (line.isEmpty()) {
+                continue;
+            }
+            lines++;
+            Map.Entry<String, List<String>> record = parse(line);
+            if (record == null) {
+                rejected++;
+                continue;
+            }
+            batch.add(record);
+            if (batch.size() >= batchRecords) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Parses one record.
+     * @param line the record's JSON line
+     * @return the word and its meanings, or null if the record is malformed
+     */
+    private Map.Entry<String, List<String>> parse(String line) {
+        Object parsed;
+        try {
+            parsed = parser.parse(line);
+        } catch (ParseException e) {
+            return reject("line " + lines + " is not JSON");
+        }
+        if (!(parsed instanceof JSONObject)) {
+            return reject("line " + lines + " is not a JSON object");
+        }
+        JSONObject record = (JSONObject) parsed;
+        Object word = record.get("word");
+        Object meanings = record.containsKey("meanings") ? record.get("meanings") : record.get("meaning");
+        if (!(word instanceof String) || ((String) word).isEmpty()) {
+            return reject("line " + lines + " has no \"word\"");
+        }
+        List<String> meaningList = new ArrayList<>();
+        if (meanings instanceof String && !((String) meanings).isEmpty()) {
+            meaningList.add((String) meanings);
+        } else if (meanings instanceof JSONArray) {
+            for (Object meaning : (JSONArray) meanings) {
+                // Empty meanings are not stored, as putWord rejects them and followers would diverge
+                if (meaning != null && !meaning.toString().isEmpty()) {
+                    meaningList.add(meaning.toString());
+                }
+            }
+        }
+        if (meaningList.isEmpty()) {
+            return reject("line " + lines + " has no \"meanings\"");
+        }
+        return new AbstractMap.SimpleImmutableEntry<>((String) word, meaningList);
+    }
+
+    private Map.Entry<String, List<String>> reject(String error) {
+        if (firstError == null) {
+            firstError = error;
+        }
+        return null;
+    }
+
+    /**
+     * Commits the collected batch as one bulk request, waiting out any throttling, and saves a checkpoint if one is due.
+     */
+    private void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, List<String>>> applying = batch;
+        batch = new ArrayList<>(batchRecords);
+        while (true) {
+            JSONObject throttled = server.getRequestScheduler().execute(schedulerClient, RequestScheduler.RequestClass.BULK, () -> {
+                synchronized (dictionary.getEngine()) {
+                    dictionary.getEngine().importBatch(applying);
+                    ReplicationLog log = server.getReplicationLog();
+                    if (log.getFollowerCount() > 0) {
+                        for (Map.Entry<String, List<String>> record : applying) {
+                            JSONArray meanings = new JSONArray();
+                            meanings.addAll(record.getValue());
+                            JSONObject putWord = new JSONObject();
+                            putWord.put("command", "putWord");
+                            putWord.put("word", record.getKey());
+                            putWord.put("meanings", meanings);
+                            log.append(putWord);
+                        }
+                    }
+                }
+                return null;
+            });
+            if (throttled == null) {
+                break;
+            }
+            try {
+                Thread.sleep(((Number) throttled.get("retryAfterMs")).longValue());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to import a batch", e);
+            }
+        }
+        imported += applying.size();
+        sinceCheckpoint += applying.size();
+        server.getImportStats().records.addAndGet(applying.size());
+        if (checkpointRecords > 0 && sinceCheckpoint >= checkpointRecords) {
+            dictionary.saveDataToFile();
+            sinceCheckpoint = 0;
+            checkpoints++;
+        }
+    }
+
+    /**
+     * Returns the number of records imported so far.
+     * @return the records committed
+     */
+    long getImported() {
+        return imported;
+    }
+
+    /**
+     * Applies the last batch, saves the dictionary file and reports the import.
+     * @return the reply to the end of the stream
+     */
+    JSONObject finish() {
+        flush();
+        if (sinceCheckpoint > 0) {
+            dictionary.saveDataToFile();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        double recordsPerSecond = seconds > 0 ? imported / seconds : 0;
+        server.getImportStats().finished(recordsPerSecond);
+        JSONObject reply = new JSONObject();
+        String output = String.format("SUCCESS: Imported %d record(s) in %.1f s (%.0f records/s).", imported, seconds, recordsPerSecond);
+        if (rejected > 0) {
+            output += " Skipped " + rejected + " malformed record(s); the first: " + firstError + ".";
+        }
+        reply.put("output", output);
+        reply.put("imported", imported);
+        reply.put("rejected", rejected);
+        reply.put("checkpoints", checkpoints);
+        reply.put("recordsPerSecond", recordsPerSecond);
+        return reply;
+    }
+
+    /**
+     * The import statistics of the server, across all sessions.
+     */
+    static final class Stats {
+        private final AtomicLong sessions = new AtomicLong();
+        private final AtomicLong records = new AtomicLong();
+        private volatile double lastRecordsPerSecond = 0;
+
+        private void finished(double recordsPerSecond) {
+            sessions.incrementAndGet();
+            lastRecordsPerSecond = recordsPerSecond;
+        }
+
+        /**
+         * Adds the import statistics to the server metrics.
+         * @param metrics the metrics to add to
+         */
+        void collect(JSONObject metrics) {
+            metrics.put("import.sessions", sessions.get());
+            metrics.put("import.records", records.get());
+            metrics.put("import.lastRecordsPerSecond", lastRecordsPerSecond);
+        }
+    }
+}
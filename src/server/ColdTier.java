@@ -0,0 +1,352 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The ColdTier class keeps the dictionary's words and meanings in an on-disk file sorted by word, so that the long tail
+ * of rarely used words does not have to fit in memory. Only every BLOCK_SIZE-th word is indexed in memory; a lookup reads
+ * one block of the file. A Bloom filter answers most lookups of words that do not exist without reading the disk, and a
+ * bounded hot tier keeps the most recently used words in memory, evicting the least recently used.
+ * The file never changes once built; changed words are held above it by the VersionedStore.
+ */
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONObject;
+
+public class ColdTier implements Closeable {
+    private static final int BLOCK_SIZE = 32;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int wordCount;
+    // First word and file offset of every block; blockOffsets has one extra entry for the end of the file
+    private final String[] blockFirstWords;
+    private final long[] blockOffsets;
+    private final BloomFilter bloomFilter;
+    private final int hotTierCapacity;
+    // Guarded by itself; in access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<String, List<String>> hotTier;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hotTierHits = new LongAdder();
+    private final LongAdder bloomNegatives = new LongAdder();
+    private final LongAdder diskReads = new LongAdder();
+    private final LongAdder bloomFalsePositives = new LongAdder();
+
+    private ColdTier(Path file, int wordCount, String[] blockFirstWords, long[] blockOffsets, BloomFilter bloomFilter, int hotTierCapacity) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.wordCount = wordCount;
+        this.blockFirstWords = blockFirstWords;
+        this.blockOffsets = blockOffsets;
+        this.bloomFilter = bloomFilter;
+        this.hotTierCapacity = hotTierCapacity;
+        this.hotTier = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                return size() > ColdTier.this.hotTierCapacity;
+            }
+        };
+    }
+
+    /**
+     * Looks up a word, trying the hot tier, then the Bloom filter, then one block of the file.
+     * @param word the word
+     * @return an unmodifiable list of meanings, or null if the word is not in the file
+     */
+    List<String> get(String word) {
+        lookups.increment();
+        synchronized (hotTier) {
+            List<String> meanings = hotTier.get(word);
+            if (meanings != null) {
+                hotTierHits.increment();
+                return meanings;
+            }
+        }
+        if (!bloomFilter.mightContain(word)) {
+            bloomNegatives.increment();
+            return null;
+        }
+        int block = Arrays.binarySearch(blockFirstWords, word);
+        if (block < 0) {
+            block = -block - 2;
+        }
+        List<String> meanings = block < 0 ? null : findInBlock(block, word);
+        if (meanings == null) {
+            bloomFalsePositives.increment();
+            return null;
+        }
+        synchronized (hotTier) {
+            hotTier.put(word, meanings);
+        }
+        return meanings;
+    }
+
+    /**
+     * Reads one block and looks for a word in it.
+     * @param block the block index
+     * @param word the word
+     * @return the word's meanings, or null if the block does not contain it
+     */
+    private List<String> findInBlock(int block, String word) {
+        diskReads.increment();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(readBlock(block)))) {
+            while (in.available() > 0) {
+                String candidate = in.readUTF();
+                List<String> meanings = readMeanings(in);
+                int order = candidate.compareTo(word);
+                if (order == 0) {
+                    return meanings;
+                } else if (order > 0) {
+                    return null;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read " + file, e);
+        }
+    }
+
+    private byte[] readBlock(int block) throws IOException {
+        long start = blockOffsets[block];
+        ByteBuffer buffer = ByteBuffer.allocate((int) (blockOffsets[block + 1] - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.array();
+    }
+
+    private static List<String> readMeanings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> meanings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            meanings.add(in.readUTF());
+        }
+        return Collections.unmodifiableList(meanings);
+    }
+
+    /**
+     * Iterates over the words of the file in sorted order, reading it sequentially. The hot tier is bypassed, so a scan
+     * does not evict the words that lookups keep there.
+     * @param after the word to start after, or null to start at the first word
+     * @return the words and their meanings
+     */
+    Iterator<Map.Entry<String, List<String>>> iterator(String after) {
+        int firstBlock = 0;
+        if (after != null) {
+            int block = Arrays.binarySearch(blockFirstWords, after);
+            firstBlock = Math.max(0, block < 0 ? -block - 2 : block);
+        }
+        int startBlock = firstBlock;
+        return new Iterator<Map.Entry<String, List<String>>>() {
+            private int block = startBlock;
+            private DataInputStream in;
+            private Map.Entry<String, List<String>> next = advance();
+
+            private Map.Entry<String, List<String>> advance() {
+                try {
+                    while (true) {
+                        if (in == null || in.available() == 0) {
+                            if (block >= blockFirstWords.length) {
+                                return null;
+                            }
+                            in = new DataInputStream(new ByteArrayInputStream(readBlock(block++)));
+                        }
+                        String word = in.readUTF();
+                        List<String> meanings = readMeanings(in);
+                        if (after == null || word.compareTo(after) > 0) {
+                            return new AbstractMap.SimpleImmutableEntry<>(word, meanings);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to read " + file, e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, List<String>> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, List<String>> current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    /**
+     * Returns the path of the file.
+     * @return the file
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the first word of every block of the file, in sorted order. The array must not be modified.
+     * @return the first words
+     */
+    String[] getBlockFirstWords() {
+        return blockFirstWords;
+    }
+
+    /**
+     * Returns the number of words in the file.
+     * @return the word count
+     */
+    int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Adds the tier statistics to the server metrics.
+     * @param metrics the metrics to add to
+     */
+    void collect(JSONObject metrics) {
+        long lookupCount = lookups.sum();
+        long hits = hotTierHits.sum();
+        synchronized (hotTier) {
+            metrics.put("tier.hot.size", hotTier.size());
+        }
+        metrics.put("tier.hot.capacity", hotTierCapacity);
+        metrics.put("tier.cold.words", wordCount);
+        metrics.put("tier.cold.lookups", lookupCount);
+        metrics.put("tier.hot.hits", hits);
+        metrics.put("tier.hot.hitRate", lookupCount == 0 ? 0.0 : (double) hits / lookupCount);
+        metrics.put("tier.bloom.negatives", bloomNegatives.sum());
+        metrics.put("tier.bloom.falsePositives", bloomFalsePositives.sum());
+        metrics.put("tier.cold.diskReads", diskReads.sum());
+        metrics.put("tier.cold.diskReadsPerLookup", lookupCount == 0 ? 0.0 : (double) diskReads.sum() / lookupCount);
+    }
+
+    /**
+     * Closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Builds a cold tier file from words added in any order. Words are first appended to a scratch file with only their
+     * offsets kept in memory, then copied to the final file in sorted order.
+     */
+    static class Builder {
+        private final Path file;
+        private final Path scratch;
+        private final DataOutputStream out;
+        private final TreeMap<String, Long> offsets = new TreeMap<>();
+        private long position = 0;
+
+        /**
+         * Starts building a cold tier file.
+         * @param file the file to build
+         * @throws IOException if the scratch file cannot be created
+         */
+        Builder(Path file) throws IOException {
+            this.file = file;
+            this.scratch = file.resolveSibling(file.getFileName() + ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(scratch)));
+        }
+
+        /**
+         * Adds a word. A word added twice keeps the meanings added last.
+         * @param word the word
+         * @param meanings its meanings
+         * @throws IOException if the scratch file cannot be written
+         */
+        void add(String word, List<String> meanings) throws IOException {
+            offsets.put(word, position);
+            position += writeEntry(out, word, meanings);
+        }
+
+        /**
+         * Writes the sorted file, its block index and Bloom filter, and deletes the scratch file.
+         * @param hotTierCapacity the number of words the hot tier keeps in memory
+         * @return the cold tier
+         * @throws IOException if the files cannot be read or written
+         */
+        ColdTier build(int hotTierCapacity) throws IOException {
+            out.close();
+            int blocks = (offsets.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            String[] firstWords = new String[blocks];
+            long[] blockOffsets = new long[blocks + 1];
+            BloomFilter bloomFilter = new BloomFilter(offsets.size());
+            try (RandomAccessFile source = new RandomAccessFile(scratch.toFile(), "r");
+                 DataOutputStream sorted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                int index = 0;
+                long sortedPosition = 0;
+                for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                    if (index % BLOCK_SIZE == 0) {
+                        firstWords[index / BLOCK_SIZE] = entry.getKey();
+                        blockOffsets[index / BLOCK_SIZE] = sortedPosition;
+                    }
+                    source.seek(entry.getValue());
+                    String word = source.readUTF();
+                    List<String> meanings = new ArrayList<>();
+                    int count = source.readInt();
+                    for (int i = 0; i < count; i++) {
+                        meanings.add(source.readUTF());
+                    }
+                    sortedPosition += writeEntry(sorted, word, meanings);
+                    bloomFilter.add(word);
+                    index++;
+                }
+                blockOffsets[blocks] = sortedPosition;
+            } finally {
+                Files.deleteIfExists(scratch);
+            }
+            return new ColdTier(file, offsets.size(), firstWords, blockOffsets, bloomFilter, hotTierCapacity);
+        }
+
+        /**
+         * Writes one word and its meanings.
+         * @param out the file to write to
+         * @param word the word
+         * @param meanings its meanings
+         * @return the number of bytes written
+         * @throws IOException if the file cannot be written
+         */
+        private static long writeEntry(DataOutputStream out, String word, List<String> meanings) throws IOException {
+            // size() wraps around beyond 2 GB, but the difference for a single entry is still exact
+            int before = out.size();
+            out.writeUTF(word);
+            out.writeInt(meanings.size());
+            for (String meaning : meanings) {
+                out.writeUTF(meaning);
+            }
+            return out.size() - before;
+        }
+    }
+}
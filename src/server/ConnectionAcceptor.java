@@ -0,0 +1,298 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The ConnectionAcceptor class takes new connections off the listening socket as fast as they arrive, so that a reconnect
+ * storm drains the kernel's accept queue instead of overflowing it. Acceptor threads do nothing but accept and hand the
+ * socket to a queue; setup threads then register each connection, log it and queue it for a worker thread.
+ * With several acceptors, each gets its own listening socket bound with SO_REUSEPORT where the platform supports it, so the
+ * kernel spreads incoming connections across them; otherwise they take turns on one listening socket.
+ * The accept rate is counted per second here, and on Linux the depth of the kernel accept queue and the host's listen overflow and
+ * drop counters are read from /proc for the metrics.
+ */
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.json.simple.JSONObject;
+
+final class ConnectionAcceptor {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final int port;
+    private final int backlog;
+    private final boolean reusePort;
+    private final List<ServerSocketChannel> channels = new ArrayList<>();
+    private final List<Thread> acceptors = new ArrayList<>();
+    // Accepted sockets waiting for a setup thread; unbounded, as the connection limit is enforced by the setup itself
+    private final BlockingQueue<SocketChannel> handoff = new LinkedBlockingQueue<>();
+    private final Consumer<Socket> setup;
+    private final int setupThreads;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder acceptFailures = new LongAdder();
+    // Host-wide listen queue counters when the acceptor started, so the metrics report what happened since
+    private final long[] listenCountersAtStart;
+    // Connections accepted in the current second, the last complete one and the busiest one so far
+    private final Object rateLock = new Object();
+    private long currentSecond = System.nanoTime() / NANOS_PER_SECOND;
+    private long currentSecondCount = 0;
+    private long lastSecondCount = 0;
+    private long peakSecondCount = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Binds the listening sockets.
+     * @param port the port to listen on
+     * @param acceptorCount the number of acceptor threads
+     * @param backlog the length of each listening socket's accept queue, which the kernel may cap
+     * @param setupThreads the number of threads setting up accepted connections
+     * @param setup sets up one accepted connection; called on a setup thread
+     * @throws IOException if the port cannot be bound
+     */
+    ConnectionAcceptor(int port, int acceptorCount, int backlog, int setupThreads, Consumer<Socket> setup) throws IOException {
+        this.port = port;
+        this.backlog = backlog;
+        this.setup = setup;
+        this.setupThreads = Math.max(1, setupThreads);
+        int count = Math.max(1, acceptorCount);
+        this.reusePort = count > 1 && supportsReusePort();
+        try {
+            for (int i = 0; i < (reusePort ? count : 1); i++) {
+                // Opened as a channel so that accepted sockets have one too, which "download" sends the dictionary file through
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                channels.add(channel);
+                if (reusePort) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                channel.bind(new InetSocketAddress(port), backlog);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        for (int i = 0; i < count; i++) {
+            ServerSocketChannel channel = channels.get(reusePort ? i : 0);
+            acceptors.add(new Thread(() -> acceptLoop(channel), "acceptor-" + i));
+        }
+        listenCountersAtStart = readListenCounters();
+    }
+
+    private static boolean supportsReusePort() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts the setup threads and the acceptors, and runs the first acceptor on the calling thread until the acceptor is closed.
+     */
+    void run() {
+        for (int i = 0; i < setupThreads; i++) {
+            Thread setupThread = new Thread(this::setupLoop, "connection-setup-" + i);
+            setupThread.setDaemon(true);
+            setupThread.start();
+        }
+        for (int i = 1; i < acceptors.size(); i++) {
+            acceptors.get(i).start();
+        }
+        acceptLoop(channels.get(0));
+    }
+
+    /**
+     * Accepts connections and hands them off until the listening socket is closed.
+     * @param channel the listening socket
+     */
+    private void acceptLoop(ServerSocketChannel channel) {
+        while (!closed) {
+            try {
+                SocketChannel client = channel.accept();
+                handoff.add(client);
+                countAccept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // E.g. out of file descriptors; the connection stays in the kernel queue for the next attempt
+                acceptFailures.increment();
+                if (!closed) {
+                    DictionaryServerGUI.logToOutputPane("Accept failed: " + e.getMessage());
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets up handed off connections until the server stops.
+     */
+    private void setupLoop() {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = handoff.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                setup.accept(client.socket());
+            } catch (RuntimeException e) {
+                DictionaryServerGUI.logToOutputPane("Unable to set up a connection: " + e);
+                try {
+                    client.close();
+                } catch (IOException closeFailure) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts an accepted connection, both in total and in the current second.
+     */
+    private void countAccept() {
+        accepted.increment();
+        synchronized (rateLock) {
+            rollSecond(System.nanoTime());
+            currentSecondCount++;
+        }
+    }
+
+    /**
+     * Moves the per-second count on to the second the given time falls in. Callers hold the rate lock.
+     * @param now the current System.nanoTime()
+     */
+    private void rollSecond(long now) {
+        long second = now / NANOS_PER_SECOND;
+        if (second != currentSecond) {
+            // Seconds in between without a connection count as 0
+            lastSecondCount = second == currentSecond + 1 ? currentSecondCount : 0;
+            peakSecondCount = Math.max(peakSecondCount, currentSecondCount);
+            currentSecond = second;
+            currentSecondCount = 0;
+        }
+    }
+
+    /**
+     * Returns whether each acceptor has its own listening socket bound with SO_REUSEPORT.
+     * @return true if the kernel spreads connections across the acceptors
+     */
+    boolean usesReusePort() {
+        return reusePort;
+    }
+
+    /**
+     * Closes the listening sockets, which stops the acceptors. Connections still in the kernel accept queue are reset.
+     */
+    void close() {
+        closed = true;
+        for (ServerSocketChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Adds the accept statistics to the server metrics.
+     * @param metrics the metrics to add to
+     */
+    void collect(JSONObject metrics) {
+        metrics.put("accept.acceptors", acceptors.size());
+        metrics.put("accept.listeningSockets", channels.size());
+        metrics.put("accept.reusePort", reusePort);
+        metrics.put("accept.backlog", backlog);
+        metrics.put("accept.accepted", accepted.sum());
+        metrics.put("accept.failures", acceptFailures.sum());
+        synchronized (rateLock) {
+            rollSecond(System.nanoTime());
+            metrics.put("accept.lastSecond", lastSecondCount);
+            metrics.put("accept.peakPerSecond", Math.max(peakSecondCount, currentSecondCount));
+        }
+        metrics.put("accept.awaitingSetup", handoff.size());
+        long queued = readAcceptQueueLength();
+        if (queued >= 0) {
+            metrics.put("accept.kernelQueued", queued);
+        }
+        long[] counters = readListenCounters();
+        if (counters != null && listenCountersAtStart != null) {
+            // Counted by the kernel for every listening socket on the host, not just this server's
+            metrics.put("accept.hostListenOverflows", counters[0] - listenCountersAtStart[0]);
+            metrics.put("accept.hostListenDrops", counters[1] - listenCountersAtStart[1]);
+        }
+    }
+
+    /**
+     * Reads the number of connections waiting in the kernel accept queues of this server's listening sockets.
+     * @return the number of connections, or -1 if the platform does not expose it
+     */
+    private long readAcceptQueueLength() {
+        long total = 0;
+        boolean found = false;
+        String portSuffix = String.format(":%04X", port);
+        for (String table : new String[] {"/proc/net/tcp", "/proc/net/tcp6"}) {
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(Paths.get(table));
+            } catch (IOException e) {
+                continue;
+            }
+            for (int i = 1; i < lines.size(); i++) {
+                // sl local_address rem_address st tx_queue:rx_queue ...; for a listening socket, rx_queue is its accept queue
+                String[] fields = lines.get(i).trim().split("\\s+");
+                if (fields.length > 4 && "0A".equals(fields[3]) && fields[1].endsWith(portSuffix)) {
+                    String queues = fields[4];
+                    total += Long.parseLong(queues.substring(queues.indexOf(':') + 1), 16);
+                    found = true;
+                }
+            }
+        }
+        return found ? total : -1;
+    }
+
+    /**
+     * Reads the host's counts of connections dropped because an accept queue was full.
+     * @return ListenOverflows and ListenDrops, or null if the platform does not expose them
+     */
+    private static long[] readListenCounters() {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get("/proc/net/netstat"));
+        } catch (IOException e) {
+            return null;
+        }
+        // A "TcpExt:" line of counter names is followed by a "TcpExt:" line of their values
+        for (int i = 0; i + 1 < lines.size(); i++) {
+            if (lines.get(i).startsWith("TcpExt:") && lines.get(i + 1).startsWith("TcpExt:")) {
+                String[] names = lines.get(i).split("\\s+");
+                String[] values = lines.get(i + 1).split("\\s+");
+                long[] counters = {-1, -1};
+                for (int j = 1; j < names.length && j < values.length; j++) {
+                    if ("ListenOverflows".equals(names[j])) {
+                        counters[0] = Long.parseLong(values[j]);
+                    } else if ("ListenDrops".equals(names[j])) {
+                        counters[1] = Long.parseLong(values[j]);
+                    }
+                }
+                return counters[0] < 0 || counters[1] < 0 ? null : counters;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The ConnectionRegistry class tracks every open client connection by its connection id.
+ * Entries are removed when a client disconnects, the number of open connections can be capped,
+ * and connections that stay idle longer than the configured timeout are closed so they stop pinning worker threads.
+ */
+package server;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConnectionRegistry {
+
+    private final ConcurrentHashMap<Integer, Connection> connections = new ConcurrentHashMap<>();
+    // Slots reserved by register() before the entry is added, so concurrent setup threads cannot exceed the limit
+    private final AtomicInteger reservedSlots = new AtomicInteger();
+    private final int maxConnections;
+    private final long idleTimeoutMs;
+    private final AtomicLong rejectedConnections = new AtomicLong();
+    private final AtomicLong reapedConnections = new AtomicLong();
+    private final AtomicLong abandonedConnections = new AtomicLong();
+
+    /**
+     * Constructs a ConnectionRegistry and starts the idle reaper if an idle timeout is set.
+     * @param maxConnections the maximum number of open connections, or 0 for no limit
+     * @param idleTimeoutMs how long an admitted connection may go without a request before it is closed, or 0 for no limit
+     */
+    public ConnectionRegistry(int maxConnections, long idleTimeoutMs) {
+        this.maxConnections = maxConnections;
+        this.idleTimeoutMs = idleTimeoutMs;
+        if (idleTimeoutMs > 0) {
+            Thread reaper = new Thread(this::reapIdleConnections, "idle-connection-reaper");
+            reaper.setDaemon(true);
+            reaper.start();
+        }
+    }
+
+    /**
+     * Registers a newly accepted connection unless the server is already at its connection limit.
+     * @param id the connection id
+     * @param socket the connection's socket
+     * @return the registry entry, or null if the connection limit has been reached
+     */
+    Connection register(int id, Socket socket) {
+        while (true) {
+            int reserved = reservedSlots.get();
+            if (maxConnections > 0 && reserved >= maxConnections) {
+                rejectedConnections.incrementAndGet();
+                return null;
+            }
+            if (reservedSlots.compareAndSet(reserved, reserved + 1)) {
+                break;
+            }
+        }
+        Connection connection = new Connection(id, socket);
+        connections.put(id, connection);
+        return connection;
+    }
+
+    /**
+     * Removes a connection from the registry and frees its slot. Safe to call more than once.
+     * @param id the connection id
+     */
+    void remove(int id) {
+        if (connections.remove(id) != null) {
+            reservedSlots.decrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a connection whose client disconnected while it waited for a worker thread.
+     */
+    void recordAbandoned() {
+        abandonedConnections.incrementAndGet();
+    }
+
+    /**
+     * Closes every registered connection, used when the server stops.
+     */
+    void closeAll() {
+        for (Connection connection : connections.values()) {
+            connection.close();
+            remove(connection.id);
+        }
+    }
+
+    /**
+     * Periodically closes admitted connections that have been idle for longer than the idle timeout.
+     * Closing the socket makes the connection's handler fail its read, remove itself and free its worker.
+     * A connection with a request in flight is never idle, however long the request takes.
+     */
+    private void reapIdleConnections() {
+        while (true) {
+            try {
+                Thread.sleep(Math.max(100, Math.min(1000, idleTimeoutMs / 2)));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (Connection connection : connections.values()) {
+                if (connection.active && !connection.busy && now - connection.lastActivity > idleTimeoutMs) {
+                    DictionaryServerGUI.logToOutputPane("Client " + connection.id + " closed after " + idleTimeoutMs + " ms without a request.");
+                    reapedConnections.incrementAndGet();
+                    connection.close();
+                    remove(connection.id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the registered connections.
+     * @return the connections
+     */
+    Collection<Connection> getConnections() {
+        return new ArrayList<>(connections.values());
+    }
+
+    /**
+     * Returns the number of open connections.
+     * @return the connection count
+     */
+    int size() {
+        return connections.size();
+    }
+
+    /**
+     * Returns the maximum number of open connections.
+     * @return the limit, or 0 if there is none
+     */
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Returns how many connections were refused because of the connection limit.
+     * @return the rejected connection count
+     */
+    long getRejectedConnections() {
+        return rejectedConnections.get();
+    }
+
+    /**
+     * Returns how many connections were closed for being idle.
+     * @return the reaped connection count
+     */
+    long getReapedConnections() {
+        return reapedConnections.get();
+    }
+
+    /**
+     * Returns how many connections were dropped because their client left before a worker thread picked them up.
+     * @return the abandoned connection count
+     */
+    long getAbandonedConnections() {
+        return abandonedConnections.get();
+    }
+
+    /**
+     * Formats one line of statistics per open connection for the "connections" command.
+     * @return the connection statistics as text
+     */
+    String report() {
+        List<Connection> sorted = new ArrayList<>(connections.values());
+        sorted.sort((a, b) -> Integer.compare(a.id, b.id));
+        long now = System.currentTimeMillis();
+        StringBuilder result = new StringBuilder("Open connections: " + sorted.size() + "\n");
+        for (Connection connection : sorted) {
+            result.append("Client ").append(connection.id)
+                  .append(" ").append(connection.socket.getRemoteSocketAddress())
+                  .append(connection.busy ? " busy" : connection.active ? " active" : " queued")
+                  .append(", requests ").append(connection.requests.get())
+                  .append(", bytes in ").append(connection.bytesIn.get())
+                  .append(", bytes out ").append(connection.bytesOut.get())
+                  .append(", idle ").append(now - connection.lastActivity).append(" ms\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * The registry entry of one connection, with its traffic statistics.
+     */
+    static class Connection {
+        final int id;
+        final Socket socket;
+        final long connectedAt = System.currentTimeMillis();
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+        final AtomicLong requests = new AtomicLong();
+        volatile long lastActivity = connectedAt;
+        // Set once a worker thread has admitted the connection; queued connections are never reaped as idle
+        volatile boolean active = false;
+        // Set from the moment a request is read until its reply has been written
+        volatile boolean busy = false;
+
+        Connection(int id, Socket socket) {
+            this.id = id;
+            this.socket = socket;
+        }
+
+        /**
+         * Records a request read from the client and marks the connection busy until it is answered.
+         */
+        void recordRequest() {
+            requests.incrementAndGet();
+            lastActivity = System.currentTimeMillis();
+            busy = true;
+        }
+
+        /**
+         * Records that the request in flight has been answered, so the idle timeout counts from now.
+         */
+        void recordReply() {
+            lastActivity = System.currentTimeMillis();
+            busy = false;
+        }
+
+        /**
+         * Wraps the socket's input stream so that bytes read are counted.
+         * @param in the socket's input stream
+         * @return the counting stream
+         */
+        InputStream countingInput(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int value = super.read();
+                    if (value >= 0) {
+                        bytesIn.incrementAndGet();
+                    }
+                    return value;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int count = super.read(buffer, offset, length);
+                    if (count > 0) {
+                        bytesIn.addAndGet(count);
+                    }
+                    return count;
+                }
+            };
+        }
+
+        /**
+         * Wraps the socket's output stream so that bytes written are counted.
+         * @param out the socket's output stream
+         * @return the counting stream
+         */
+        OutputStream countingOutput(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int value) throws IOException {
+                    out.write(value);
+                    bytesOut.incrementAndGet();
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    out.write(buffer, offset, length);
+                    bytesOut.addAndGet(length);
+                }
+            };
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,466 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The DictionaryAnalytics class computes aggregate statistics of the whole dictionary for the "analyze" command: the number
+ * of words and meanings, how many words have how many meanings, the longest entries and the meanings shared by several words.
+ * The dictionary is read at one pinned version, so the figures describe a single point in time while writes go on, and it is
+ * split into sorted ranges that a dedicated fork-join pool walks in parallel, merging the figures of the ranges as they join.
+ * Only one analysis runs at a time, the pool has half as many threads as the machine has cores by default, and its threads
+ * pause while read and write requests wait for the RequestScheduler, so lookups are not starved by an analysis.
+ */
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+final class DictionaryAnalytics {
+    static final int DEFAULT_LIMIT = 10;
+    // Keeps the report within one message even for long words and meanings in a three-byte script
+    private static final int MAX_LIMIT = 50;
+    private static final int MAX_REPORTED_CHARS = 100;
+    // Ranges per pool thread, so that threads which finish early can take over the rest
+    private static final int RANGES_PER_THREAD = 16;
+    // Words walked between progress updates and checks for queued foreground requests
+    private static final int CHUNK_WORDS = 512;
+    // The longest a range pauses for foreground requests at a time, so that an analysis still finishes on a busy server
+    private static final long MAX_PAUSE_MS = 50;
+    private static final String[] HISTOGRAM_LABELS = { "1", "2", "3", "4", "5", "6-10", "11-20", "21-50", "51-100", "101-1000", "1001+" };
+    private static final int[] HISTOGRAM_LIMITS = { 1, 2, 3, 4, 5, 10, 20, 50, 100, 1000, Integer.MAX_VALUE };
+
+    private final DictionaryHandler dictionary;
+    private final RequestScheduler scheduler;
+    private final int threads;
+    private final ForkJoinPool pool;
+    // Held by the analysis that is running
+    private final Semaphore running = new Semaphore(1);
+    private final AtomicLong analyses = new AtomicLong();
+    private final AtomicLong pauses = new AtomicLong();
+    private volatile double lastElapsedMs = 0;
+
+    /**
+     * Constructs a DictionaryAnalytics and its fork-join pool.
+     * @param threads the number of pool threads
+     * @param dictionary the dictionary to analyse
+     * @param scheduler the scheduler whose queued requests the analysis gives way to
+     */
+    DictionaryAnalytics(int threads, DictionaryHandler dictionary, RequestScheduler scheduler) {
+        this.dictionary = dictionary;
+        this.scheduler = scheduler;
+        this.threads = Math.max(1, threads);
+        this.pool = new ForkJoinPool(this.threads, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("analytics-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Starts analysing the dictionary on the pool.
+     * @param command the "analyze" command, with an optional "limit" on the length of the top lists and a "version" to
+     * analyse an open snapshot instead of the current version
+     * @param reply filled in with the error if the analysis cannot start
+     * @return the running analysis, or null if another analysis is running or the version is not readable
+     */
+    Analysis start(JSONObject command, JSONObject reply) {
+        if (!running.tryAcquire()) {
+            reply.put("output", "ERROR: An analysis is already running. Please try again once it has finished.");
+            return null;
+        }
+        Object limitValue = command.get("limit");
+        int limit = limitValue instanceof Number ? (int) Math.max(1, Math.min(MAX_LIMIT, ((Number) limitValue).longValue())) : DEFAULT_LIMIT;
+        Object versionValue = command.get("version");
+        long version = versionValue instanceof Number ? ((Number) versionValue).longValue() : -1;
+        VersionedStore store = dictionary.getEngine().acquireStore();
+        if (version < 0) {
+            version = store.pin();
+        } else if (!store.pin(version)) {
+            store.release();
+            running.release();
+            reply.put("output", dictionary.versionUnavailable(version));
+            return null;
+        }
+        analyses.incrementAndGet();
+        return new Analysis(store, version, limit);
+    }
+
+    /**
+     * Adds the analysis statistics to the server metrics.
+     * @param metrics the metrics to add to
+     */
+    void collect(JSONObject metrics) {
+        metrics.put("analytics.threads", threads);
+        metrics.put("analytics.runs", analyses.get());
+        metrics.put("analytics.running", running.availablePermits() == 0);
+        metrics.put("analytics.pausesForRequests", pauses.get());
+        metrics.put("analytics.lastElapsedMs", lastElapsedMs);
+    }
+
+    /**
+     * Waits while read and write requests are queued, for at most MAX_PAUSE_MS.
+     */
+    private void giveWayToRequests() {
+        long paused = 0;
+        while (scheduler.getForegroundQueueLength() > 0 && paused < MAX_PAUSE_MS) {
+            if (paused == 0) {
+                pauses.incrementAndGet();
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            paused++;
+        }
+    }
+
+    /**
+     * Returns the bucket of the meaning count histogram that a word falls into.
+     * @param meaningCount the number of meanings of the word
+     * @return the bucket index
+     */
+    private static int bucket(int meaningCount) {
+        int bucket = 0;
+        while (meaningCount > HISTOGRAM_LIMITS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * Shortens a word or meaning for the report.
+     * @param text the text
+     * @return the text, cut to MAX_REPORTED_CHARS characters followed by "..." if it is longer
+     */
+    private static String shorten(String text) {
+        if (text.length() <= MAX_REPORTED_CHARS) {
+            return text;
+        }
+        int end = Character.isHighSurrogate(text.charAt(MAX_REPORTED_CHARS - 1)) ? MAX_REPORTED_CHARS - 1 : MAX_REPORTED_CHARS;
+        return text.substring(0, end) + "...";
+    }
+
+    /**
+     * One analysis in progress. It holds the pin on its version until the last range has been walked.
+     */
+    final class Analysis {
+        private final VersionedStore store;
+        private final long version;
+        private final int limit;
+        // Range i holds the words after point i - 1 up to and including point i
+        private final List<String> points;
+        private final long started = System.nanoTime();
+        private final AtomicLong wordsScanned = new AtomicLong();
+        private final AtomicLong meaningsScanned = new AtomicLong();
+        private final AtomicInteger rangesDone = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private final ForkJoinTask<Figures> task;
+
+        private Analysis(VersionedStore store, long version, int limit) {
+            this.store = store;
+            this.version = version;
+            this.limit = limit;
+            this.points = store.splitPoints(threads * RANGES_PER_THREAD);
+            this.task = pool.submit(() -> {
+                try {
+                    return new RangeTask(0, points.size() + 1).invoke();
+                } finally {
+                    store.unpin(version);
+                    store.release();
+                    lastElapsedMs = (System.nanoTime() - started) / 1e6;
+                    running.release();
+                }
+            });
+        }
+
+        /**
+         * Waits for the analysis to finish.
+         * @param timeoutMs the longest to wait
+         * @return the report, or null if the analysis is still running
+         */
+        JSONObject await(long timeoutMs) {
+            Figures figures;
+            try {
+                figures = task.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for an analysis", e);
+            } catch (ExecutionException e) {
+                JSONObject reply = new JSONObject();
+                reply.put("output", "ERROR: Unable to analyse the dictionary: " + e.getCause());
+                return reply;
+            }
+            return report(figures);
+        }
+
+        /**
+         * Returns the progress so far, as a message to send while the analysis runs.
+         * @return the message with "progress" from 0 to 1 and the words and meanings walked so far
+         */
+        JSONObject progress() {
+            JSONObject message = new JSONObject();
+            message.put("progress", (double) rangesDone.get() / (points.size() + 1));
+            message.put("wordsScanned", wordsScanned.get());
+            message.put("meaningsScanned", meaningsScanned.get());
+            message.put("version", version);
+            return message;
+        }
+
+        /**
+         * Stops walking the dictionary, e.g. because the client has gone. Has no effect once the analysis has finished.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Builds the reply from the merged figures of every range.
+         * @param figures the figures of the whole dictionary
+         * @return the reply
+         */
+        private JSONObject report(Figures figures) {
+            double elapsedMs = (System.nanoTime() - started) / 1e6;
+            JSONObject reply = new JSONObject();
+            StringBuilder output = new StringBuilder(String.format("SUCCESS: Analysed %d word(s) with %d meaning(s) at version %d in %.1f ms.",
+                    figures.words, figures.meanings, version, elapsedMs));
+
+            JSONObject histogram = new JSONObject();
+            output.append("\nMeanings per word:");
+            for (int i = 0; i < HISTOGRAM_LABELS.length; i++) {
+                histogram.put(HISTOGRAM_LABELS[i], figures.histogram[i]);
+                if (figures.histogram[i] > 0) {
+                    output.append(' ').append(HISTOGRAM_LABELS[i]).append(": ").append(figures.histogram[i]).append(';');
+                }
+            }
+
+            List<Entry> longest = new ArrayList<>(figures.longest);
+            longest.sort(Collections.reverseOrder(Entry.ORDER));
+            JSONArray longestEntries = new JSONArray();
+            output.append("\nLongest entries:");
+            for (Entry entry : longest) {
+                JSONObject item = new JSONObject();
+                item.put("word", shorten(entry.word));
+                item.put("meaningCount", entry.meaningCount);
+                item.put("characters", entry.characters);
+                longestEntries.add(item);
+                if (longestEntries.size() <= 5) {
+                    output.append(' ').append(shorten(entry.word)).append(" (").append(entry.characters).append(" characters);");
+                }
+            }
+
+            PriorityQueue<Map.Entry<String, Integer>> mostShared = new PriorityQueue<>(Map.Entry.comparingByValue());
+            long shared = 0;
+            for (Map.Entry<String, Integer> meaning : figures.meaningWords.entrySet()) {
+                if (meaning.getValue() > 1) {
+                    shared++;
+                    mostShared.add(meaning);
+                    if (mostShared.size() > limit) {
+                        mostShared.poll();
+                    }
+                }
+            }
+            List<Map.Entry<String, Integer>> sharedList = new ArrayList<>(mostShared);
+            sharedList.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+            JSONArray mostSharedMeanings = new JSONArray();
+            output.append("\nMeanings shared by several words: ").append(shared).append(" of ").append(figures.meaningWords.size()).append(" distinct");
+            for (Map.Entry<String, Integer> meaning : sharedList) {
+                JSONObject item = new JSONObject();
+                item.put("meaning", shorten(meaning.getKey()));
+                item.put("words", meaning.getValue());
+                mostSharedMeanings.add(item);
+                if (mostSharedMeanings.size() <= 5) {
+                    output.append(mostSharedMeanings.size() == 1 ? "; most shared: \"" : ", \"").append(shorten(meaning.getKey()))
+                            .append("\" (").append(meaning.getValue()).append(" words)");
+                }
+            }
+
+            reply.put("output", output.toString());
+            reply.put("words", figures.words);
+            reply.put("meanings", figures.meanings);
+            reply.put("characters", figures.characters);
+            reply.put("averageMeaningsPerWord", figures.words == 0 ? 0.0 : (double) figures.meanings / figures.words);
+            reply.put("meaningCountHistogram", histogram);
+            reply.put("longestEntries", longestEntries);
+            reply.put("distinctMeanings", figures.meaningWords.size());
+            reply.put("sharedMeanings", shared);
+            reply.put("mostSharedMeanings", mostSharedMeanings);
+            reply.put("version", version);
+            reply.put("elapsedMs", elapsedMs);
+            reply.put("ranges", points.size() + 1);
+            return reply;
+        }
+
+        /**
+         * Walks a run of ranges, splitting it in two until each task walks a single range.
+         */
+        private final class RangeTask extends RecursiveTask<Figures> {
+            private static final long serialVersionUID = 1L;
+            private final int from;
+            private final int to;
+
+            /**
+             * @param from the first range
+             * @param to the range after the last one
+             */
+            RangeTask(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected Figures compute() {
+                if (to - from == 1) {
+                    return walk(from);
+                }
+                int middle = (from + to) >>> 1;
+                RangeTask first = new RangeTask(from, middle);
+                first.fork();
+                Figures second = new RangeTask(middle, to).compute();
+                return first.join().merge(second);
+            }
+
+            /**
+             * Collects the figures of one range at the analysis's version.
+             * @param range the range
+             * @return the figures of its words
+             */
+            private Figures walk(int range) {
+                String after = range == 0 ? null : points.get(range - 1);
+                String last = range < points.size() ? points.get(range) : null;
+                Figures figures = new Figures(limit);
+                Iterator<Map.Entry<String, List<String>>> entries = store.entries(after, version);
+                int chunkWords = 0;
+                long chunkMeanings = 0;
+                while (!cancelled && entries.hasNext()) {
+                    Map.Entry<String, List<String>> entry = entries.next();
+                    if (last != null && entry.getKey().compareTo(last) > 0) {
+                        break;
+                    }
+                    figures.add(entry.getKey(), entry.getValue());
+                    chunkMeanings += entry.getValue().size();
+                    if (++chunkWords == CHUNK_WORDS) {
+                        wordsScanned.addAndGet(chunkWords);
+                        meaningsScanned.addAndGet(chunkMeanings);
+                        chunkWords = 0;
+                        chunkMeanings = 0;
+                        giveWayToRequests();
+                    }
+                }
+                wordsScanned.addAndGet(chunkWords);
+                meaningsScanned.addAndGet(chunkMeanings);
+                rangesDone.incrementAndGet();
+                return figures;
+            }
+        }
+    }
+
+    /**
+     * The figures of some of the words, which are merged as the ranges join.
+     */
+    private static final class Figures {
+        private final int limit;
+        private long words = 0;
+        private long meanings = 0;
+        private long characters = 0;
+        private final long[] histogram = new long[HISTOGRAM_LABELS.length];
+        // The longest entries so far, shortest first, at most limit of them
+        private final PriorityQueue<Entry> longest = new PriorityQueue<>(Entry.ORDER);
+        // The number of words each meaning belongs to
+        private HashMap<String, Integer> meaningWords = new HashMap<>();
+
+        Figures(int limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Adds one word.
+         * @param word the word
+         * @param wordMeanings its meanings
+         */
+        void add(String word, List<String> wordMeanings) {
+            long wordCharacters = 0;
+            for (String meaning : wordMeanings) {
+                wordCharacters += meaning.length();
+                meaningWords.merge(meaning, 1, Integer::sum);
+            }
+            words++;
+            meanings += wordMeanings.size();
+            characters += wordCharacters;
+            histogram[bucket(wordMeanings.size())]++;
+            offer(new Entry(word, wordMeanings.size(), wordCharacters));
+        }
+
+        private void offer(Entry entry) {
+            longest.add(entry);
+            if (longest.size() > limit) {
+                longest.poll();
+            }
+        }
+
+        /**
+         * Adds the figures of other words to these.
+         * @param other the figures of words not counted here
+         * @return these figures
+         */
+        Figures merge(Figures other) {
+            words += other.words;
+            meanings += other.meanings;
+            characters += other.characters;
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += other.histogram[i];
+            }
+            for (Entry entry : other.longest) {
+                offer(entry);
+            }
+            // Folds the smaller map into the larger one
+            HashMap<String, Integer> smaller = other.meaningWords;
+            if (smaller.size() > meaningWords.size()) {
+                smaller = meaningWords;
+                meaningWords = other.meaningWords;
+            }
+            for (Map.Entry<String, Integer> meaning : smaller.entrySet()) {
+                meaningWords.merge(meaning.getKey(), meaning.getValue(), Integer::sum);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * A word's size, for the longest entries.
+     */
+    private static final class Entry {
+        // Shortest first; of two entries of the same size, the word that sorts later counts as shorter
+        static final Comparator<Entry> ORDER = Comparator.<Entry>comparingLong(entry -> entry.characters)
+                .thenComparing(entry -> entry.word, Comparator.reverseOrder());
+
+        final String word;
+        final int meaningCount;
+        final long characters;
+
+        Entry(String word, int meaningCount, long characters) {
+            this.word = word;
+            this.meaningCount = meaningCount;
+            this.characters = characters;
+        }
+    }
+}
@@ -0,0 +1,1065 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The DictionaryEngine class is the dictionary itself, without the network: it loads a dictionary file, answers lookups and
+ * applies changes, and returns typed results instead of reply text. A service on the same host can open a dictionary file
+ * in-process, either read-only or as the owner that saves it, and look words up without a socket or JSON round trip;
+ * DictionaryHandler adapts it to the server's JSON commands.
+ * Words are kept in a VersionedStore: writers are serialised on this object's monitor and publish each change as a new
+ * version, while lookups, scans and saves run without the lock against a point-in-time version.
+ * With a hot tier size set, the file is loaded into a ColdTier on disk instead of memory, and only recently used and changed
+ * words are kept in memory.
+ * The file can be reloaded while the engine is in use: it is loaded into a new VersionedStore, which replaces the current one
+ * in a single step once the changes made during the load have been replayed onto it.
+ * All state belongs to the instance, so several engines may be open in one process. Only one engine, in any process, may
+ * open a file as its owner.
+ */
+
+package server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import common.ConsistentHashRing;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public final class DictionaryEngine implements AutoCloseable {
+
+    /**
+     * How an engine uses its dictionary file.
+     */
+    public enum Mode {
+        // Never writes the file, and refuses changes; reload() picks up what the owner has saved since
+        READ_ONLY,
+        // Accepts changes and saves them to the file; at most one engine owns a file at a time
+        OWNER
+    }
+
+    /**
+     * The outcome of a change.
+     */
+    public enum Status {
+        SUCCESS,
+        // The word, or a meaning it needs, is empty or missing
+        MISSING_INPUT,
+        // The word does not exist
+        NOT_FOUND,
+        // The word to add already exists
+        ALREADY_EXISTS,
+        // The word already has the new meaning, ignoring case
+        MEANING_EXISTS,
+        // The meaning to replace is not one of the word's meanings
+        MEANING_NOT_FOUND,
+        // The word has changed since the expected version
+        VERSION_CONFLICT,
+        // The engine was opened read-only
+        READ_ONLY
+    }
+
+    private final String fileName;
+    private final Mode mode;
+    private final int hotTierSize;
+    // Cold tier files are named after this prefix and a store's base version; a read-only engine uses its own, so that it
+    // never replaces the owner's files
+    private final String coldTierPrefix;
+    // Locked by the owner for as long as it is open
+    private final FileChannel ownerLockFile;
+    // Replaced as a whole by a reload; lock-free readers hold on to it with acquireStore()
+    private volatile VersionedStore store;
+    // Serialises writes of the dictionary file and remembers the newest version written, so an older save never overwrites a newer one
+    private final Object saveLock = new Object();
+    private long savedVersion = -1;
+    // CRC-32 of the file as last saved by this engine
+    private long savedChecksum = 0;
+    // Changes committed while a reload loads the file, to be replayed onto the new store; guarded by this object
+    private List<Map.Entry<String, List<String>>> reloadChanges = null;
+
+    /**
+     * Opens a dictionary file with every word kept in memory.
+     * @param fileName the JSON file holding the dictionary
+     * @param mode whether the engine only reads the file or owns it
+     * @return the open engine
+     * @throws IOException if the file cannot be read or is not a dictionary, or another engine already owns it
+     */
+    public static DictionaryEngine open(String fileName, Mode mode) throws IOException {
+        return new DictionaryEngine(fileName, mode, 0);
+    }
+
+    /**
+     * Opens a dictionary file.
+     * @param fileName the JSON file holding the dictionary
+     * @param mode whether the engine only reads the file or owns it
+     * @param hotTierSize the number of loaded words to keep in memory, with the rest read from disk, or 0 to keep every word in memory
+     * @return the open engine
+     * @throws IOException if the file cannot be read or is not a dictionary, or another engine already owns it
+     */
+    public static DictionaryEngine open(String fileName, Mode mode, int hotTierSize) throws IOException {
+        return new DictionaryEngine(fileName, mode, hotTierSize);
+    }
+
+    private DictionaryEngine(String fileName, Mode mode, int hotTierSize) throws IOException {
+        this.fileName = fileName;
+        this.mode = mode;
+        this.hotTierSize = hotTierSize;
+        this.coldTierPrefix = mode == Mode.OWNER ? fileName + ".cold." : fileName + ".cold." + UUID.randomUUID() + ".";
+        if (mode == Mode.OWNER) {
+            ownerLockFile = FileChannel.open(Paths.get(fileName + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = ownerLockFile.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                ownerLockFile.close();
+                throw new IOException("\"" + fileName + "\" is already open by another owner");
+            }
+        } else {
+            ownerLockFile = null;
+        }
+        try {
+            // The file contents form the initial version 0
+            store = loadStore(fileName, 0);
+        } catch (FileNotFoundException e) {
+            releaseOwnerLock();
+            throw new FileNotFoundException("Resource/File not found: " + e.getMessage());
+        } catch (IOException | ParseException e) {
+            releaseOwnerLock();
+            throw new IOException("Error: Unable to read content of file." + "\"" + fileName + "\"", e);
+        }
+    }
+
+    /**
+     * Returns the dictionary file.
+     * @return the file name
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns how the engine uses its file.
+     * @return the mode it was opened in
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the newest version, which every change increments.
+     * @return the current version
+     */
+    public long getCurrentVersion() {
+        return store.getCurrentVersion();
+    }
+
+    /**
+     * Looks up the latest meanings of a word.
+     * @param word the word, matched exactly
+     * @return the result, which is not found if the word does not exist
+     */
+    public Lookup lookup(String word) {
+        Lookup result = new Lookup();
+        lookup(word, -1, false, result);
+        return result;
+    }
+
+    /**
+     * Looks up the meanings of a word, either as they are now or as they were at a version.
+     * @param word the word
+     * @param version the version to read at, which must be pinned with openSnapshot(), or -1 for the latest
+     * @param normalize whether to match the word ignoring case, surrounding spaces and Unicode normalisation form
+     * @return the result
+     */
+    public Lookup lookup(String word, long version, boolean normalize) {
+        Lookup result = new Lookup();
+        lookup(word, version, normalize, result);
+        return result;
+    }
+
+    /**
+     * Looks up the meanings of a word into a result that the caller reuses, so that a lookup allocates nothing.
+     * @param query the word
+     * @param version the version to read at, which must be pinned with openSnapshot(), or -1 for the latest
+     * @param normalize whether to also try the other spellings that fold to the same form as the query
+     * @param result the result to fill in
+     */
+    public void lookup(String query, long version, boolean normalize, Lookup result) {
+        result.entry = null;
+        result.spelling = null;
+        result.versionUnavailable = false;
+        VersionedStore store = acquireStore();
+        try {
+            if (version >= 0 && !store.pin(version)) {
+                result.versionUnavailable = true;
+                return;
+            }
+            try {
+                if (!normalize) {
+                    find(store, query, version, result);
+                } else {
+                    for (String spelling : store.spellingsOf(query)) {
+                        if (find(store, spelling, version, result)) {
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                if (version >= 0) {
+                    store.unpin(version);
+                }
+            }
+        } finally {
+            store.release();
+        }
+    }
+
+    /**
+     * Records a spelling in the result if the word exists under it.
+     * @param store the store to read, acquired and pinned at the version by the caller
+     * @param spelling the spelling to look up
+     * @param version the version to read at, or -1 for the latest
+     * @param result the result to fill in
+     * @return true if the word exists under this spelling
+     */
+    private static boolean find(VersionedStore store, String spelling, long version, Lookup result) {
+        VersionedStore.Version entry = version < 0 ? store.latest(spelling) : store.at(spelling, version);
+        if (entry == null || entry.meanings == null) {
+            return false;
+        }
+        result.entry = entry;
+        result.spelling = spelling;
+        return true;
+    }
+
+    /**
+     * Adds a new word.
+     * @param word the word
+     * @param meanings its meanings
+     * @return SUCCESS with the word's version, MISSING_INPUT if the word or a meaning is empty, ALREADY_EXISTS or READ_ONLY
+     */
+    public synchronized Result addWord(String word, List<String> meanings) {
+        if (mode == Mode.READ_ONLY) {
+            return Result.READ_ONLY_RESULT;
+        }
+        if (isEmpty(word) || isMissing(meanings)) {
+            return Result.MISSING_INPUT_RESULT;
+        }
+        VersionedStore.Version current = store.latest(word);
+        if (current != null && current.meanings != null) {
+            return new Result(Status.ALREADY_EXISTS, current.sequence, current.meanings);
+        }
+        return committed(word, new ArrayList<>(meanings));
+    }
+
+    /**
+     * Stores a word with exactly the given meanings, replacing any meanings it already has.
+     * @param word the word
+     * @param meanings its meanings
+     * @return SUCCESS with the word's version, MISSING_INPUT if the word or a meaning is empty, or READ_ONLY
+     */
+    public synchronized Result putWord(String word, List<String> meanings) {
+        if (mode == Mode.READ_ONLY) {
+            return Result.READ_ONLY_RESULT;
+        }
+        if (isEmpty(word) || isMissing(meanings)) {
+            return Result.MISSING_INPUT_RESULT;
+        }
+        return committed(word, new ArrayList<>(meanings));
+    }
+
+    /**
+     * Removes a word.
+     * @param word the word
+     * @return SUCCESS, or MISSING_INPUT, NOT_FOUND or READ_ONLY
+     */
+    public synchronized Result removeWord(String word) {
+        if (mode == Mode.READ_ONLY) {
+            return Result.READ_ONLY_RESULT;
+        }
+        if (isEmpty(word)) {
+            return Result.MISSING_INPUT_RESULT;
+        }
+        if (store.getLatest(word) == null) {
+            return Result.NOT_FOUND_RESULT;
+        }
+        return committed(word, null);
+    }
+
+    /**
+     * Removes a word only if it is still at the expected version.
+     * @param word the word
+     * @param expectedVersion the word version the caller last read
+     * @return SUCCESS, or MISSING_INPUT, NOT_FOUND, VERSION_CONFLICT with the word's current version, or READ_ONLY
+     */
+    public synchronized Result removeWord(String word, long expectedVersion) {
+        if (mode == Mode.READ_ONLY) {
+            return Result.READ_ONLY_RESULT;
+        }
+        if (isEmpty(word)) {
+            return Result.MISSING_INPUT_RESULT;
+        }
+        Result conflict = checkVersion(word, expectedVersion);
+        return conflict != null ? conflict : committed(word, null);
+    }
+
+    /**
+     * Adds a meaning to an existing word.
+     * @param word the word
+     * @param meaning the new meaning
+     * @return SUCCESS with the word's new version, or MISSING_INPUT, NOT_FOUND, MEANING_EXISTS or READ_ONLY
+     */
+    public synchronized Result addMeaning(String word, String meaning) {
+        return addMeaning(word, meaning, -1);
+    }
+
+    /**
+     * Adds a meaning to a word only if the word is still at the expected version.
+     * @param word the word
+     * @param meaning the new meaning
+     * @param expectedVersion the word version the caller last read, or -1 to add the meaning whatever the version
+     * @return SUCCESS with the word's new version, or MISSING_INPUT, NOT_FOUND, VERSION_CONFLICT with the word's current
+     * version, MEANING_EXISTS or READ_ONLY
+     */
+    public synchronized Result addMeaning(String word, String meaning, long expectedVersion) {
+        if (mode == Mode.READ_ONLY) {
+            return Result.READ_ONLY_RESULT;
+        }
+        if (isEmpty(word) || isEmpty(meaning)) {
+            return Result.MISSING_INPUT_RESULT;
+        }
+        Result conflict = checkVersion(word, expectedVersion);
+        if (conflict != null) {
+            return conflict;
+        }
+        VersionedStore.Version current = store.latest(word);
+        if (containsMeaning(current.meanings, meaning, -1)) {
+            return new Result(Status.MEANING_EXISTS, current.sequence, current.meanings);
+        }
+        // Stored meaning lists are shared with readers, so the change goes into a copy
+        List<String> updated = new ArrayList<>(current.meanings);
+        updated.add(meaning);
+        return committed(word, updated);
+    }
+
+    /**
+     * Replaces one of a word's meanings, found ignoring case and surrounding spaces.
+     * @param word the word
+     * @param existingMeaning the meaning to replace
+     * @param newMeaning the meaning to replace it with
+     * @return SUCCESS with the word's new version, or MISSING_INPUT, NOT_FOUND, MEANING_NOT_FOUND, MEANING_EXISTS or READ_ONLY
+     */
+    public synchronized Result updateMeaning(String word, String existingMeaning, String newMeaning) {
+        if (mode == Mode.READ_ONLY) {
+            return Result.READ_ONLY_RESULT;
+        }
+        if (isEmpty(word) || isEmpty(existingMeaning) || isEmpty(newMeaning)) {
+            return Result.MISSING_INPUT_RESULT;
+        }
+        VersionedStore.Version current = store.latest(word);
+        if (current == null || current.meanings == null) {
+            return Result.NOT_FOUND_RESULT;
+        }
+        int index = -1;
+        String existing = existingMeaning.trim();
+        for (int i = 0; i < current.meanings.size(); i++) {
+            if (existing.equalsIgnoreCase(current.meanings.get(i))) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return new Result(Status.MEANING_NOT_FOUND, current.sequence, current.meanings);
+        }
+        // The meaning being replaced counts too, so a change of case alone is refused
+        if (containsMeaning(current.meanings, newMeaning, -1)) {
+            return new Result(Status.MEANING_EXISTS, current.sequence, current.meanings);
+        }
+        List<String> updated = new ArrayList<>(current.meanings);
+        updated.set(index, newMeaning);
+        return committed(word, updated);
+    }
+
+    /**
+     * Replaces the meaning at an index only if the word is still at the expected version.
+     * @param word the word
+     * @param index the 1-based index of the meaning, in the order lookups return them
+     * @param newMeaning the meaning to replace it with
+     * @param expectedVersion the word version the caller last read
+     * @return SUCCESS with the word's new version, or MISSING_INPUT, NOT_FOUND, VERSION_CONFLICT with the word's current
+     * version, MEANING_NOT_FOUND if there is no such index, MEANING_EXISTS or READ_ONLY
+     */
+    public synchronized Result updateMeaning(String word, int index, String newMeaning, long expectedVersion) {
+        if (mode == Mode.READ_ONLY) {
+            return Result.READ_ONLY_RESULT;
+        }
+        if (isEmpty(word) || isEmpty(newMeaning)) {
+            return Result.MISSING_INPUT_RESULT;
+        }
+        Result conflict = checkVersion(word, expectedVersion);
+        if (conflict != null) {
+            return conflict;
+        }
+        VersionedStore.Version current = store.latest(word);
+        if (index < 1 || index > current.meanings.size()) {
+            return new Result(Status.MEANING_NOT_FOUND, current.sequence, current.meanings);
+        }
+        if (containsMeaning(current.meanings, newMeaning, index - 1)) {
+            return new Result(Status.MEANING_EXISTS, current.sequence, current.meanings);
+        }
+        List<String> updated = new ArrayList<>(current.meanings);
+        updated.set(index - 1, newMeaning);
+        return committed(word, updated);
+    }
+
+    /**
+     * Checks the expected version of a conditional change against the word's current version. Callers hold the lock.
+     * @param word the word to change
+     * @param expectedVersion the expected word version, or -1 to skip the version check
+     * @return NOT_FOUND or VERSION_CONFLICT, or null if the change may go ahead
+     */
+    private Result checkVersion(String word, long expectedVersion) {
+        VersionedStore.Version current = store.latest(word);
+        if (current == null || current.meanings == null) {
+            return Result.NOT_FOUND_RESULT;
+        }
+        if (expectedVersion >= 0 && current.sequence != expectedVersion) {
+            return new Result(Status.VERSION_CONFLICT, current.sequence, current.meanings);
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a meaning is already in a list, ignoring case.
+     * @param meanings the word's meanings
+     * @param meaning the meaning to look for
+     * @param skipIndex an index to ignore, i.e. the meaning being replaced, or -1
+     * @return true if another meaning matches
+     */
+    private static boolean containsMeaning(List<String> meanings, String meaning, int skipIndex) {
+        for (int i = 0; i < meanings.size(); i++) {
+            if (i != skipIndex && meanings.get(i).equalsIgnoreCase(meaning)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEmpty(String text) {
+        return text == null || text.isEmpty();
+    }
+
+    /**
+     * Checks whether a list of meanings is missing, is empty or holds an empty meaning, none of which may be stored.
+     * @param meanings the meanings
+     * @return true if the meanings must be rejected
+     */
+    private static boolean isMissing(List<String> meanings) {
+        if (meanings == null || meanings.isEmpty()) {
+            return true;
+        }
+        for (String meaning : meanings) {
+            if (isEmpty(meaning)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Commits a change and reports it.
+     * @param word the word that changed
+     * @param meanings the word's new meanings, or null if it was removed
+     * @return SUCCESS with the version of the change
+     */
+    private Result committed(String word, List<String> meanings) {
+        return new Result(Status.SUCCESS, commit(word, meanings), meanings);
+    }
+
+    /**
+     * Installs a change to one word as a new version and reclaims the word's versions no reader needs any more.
+     * Callers hold the lock.
+     * @param word the word that changed
+     * @param meanings the word's new meanings, or null if it was removed
+     * @return the new version
+     */
+    private long commit(String word, List<String> meanings) {
+        long version = store.getCurrentVersion() + 1;
+        store.put(word, meanings, version);
+        store.publish(version);
+        store.reclaim(word);
+        if (reloadChanges != null) {
+            reloadChanges.add(new AbstractMap.SimpleImmutableEntry<>(word, meanings));
+        }
+        return version;
+    }
+
+    /**
+     * Stores a batch of imported words as one new version, so that readers see either all of the batch or none of it.
+     * Callers must hold the lock.
+     * @param words the words and their meanings, each replacing any meanings the word had
+     */
+    void importBatch(List<Map.Entry<String, List<String>>> words) {
+        long version = store.getCurrentVersion() + 1;
+        for (Map.Entry<String, List<String>> word : words) {
+            store.put(word.getKey(), word.getValue(), version);
+        }
+        store.publish(version);
+        for (Map.Entry<String, List<String>> word : words) {
+            store.reclaim(word.getKey());
+        }
+        if (reloadChanges != null) {
+            reloadChanges.addAll(words);
+        }
+    }
+
+    /**
+     * Removes a word only if its meanings still match the given list, so a word changed during a move is not lost.
+     * @param word the word to remove
+     * @param expectedMeanings the meanings the word had when it was copied
+     * @return true if the word was removed
+     */
+    synchronized boolean removeIfUnchanged(String word, List<String> expectedMeanings) {
+        if (expectedMeanings.equals(store.getLatest(word))) {
+            commit(word, null);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Pins the current version, for a caller that wants several lookups to see the same state of the dictionary.
+     * @return the pinned version, which stays readable until it is released
+     */
+    public long openSnapshot() {
+        return store.pin();
+    }
+
+    /**
+     * Releases a version pinned with openSnapshot() and reclaims the versions that only it was keeping alive.
+     * @param version the pinned version
+     */
+    public synchronized void releaseSnapshot(long version) {
+        store.unpin(version);
+        store.reclaim();
+    }
+
+    /**
+     * Takes a copy of the whole dictionary, used to bootstrap replication followers.
+     * Callers must hold the lock so the copy matches a single point in the mutation log.
+     * Meaning lists are never changed once stored, so they are shared rather than copied.
+     * @return a copy of the word to meanings map
+     */
+    Map<String, List<String>> snapshot() {
+        Map<String, List<String>> copy = new HashMap<>();
+        Iterator<Map.Entry<String, List<String>>> entries = store.entries(null, store.getCurrentVersion());
+        while (entries.hasNext()) {
+            Map.Entry<String, List<String>> entry = entries.next();
+            copy.put(entry.getKey(), entry.getValue());
+        }
+        return copy;
+    }
+
+    /**
+     * Replaces the dictionary contents, used by a follower once it has received the leader's snapshot.
+     * @param contents the new word to meanings map
+     */
+    synchronized void replaceContents(Map<String, List<String>> contents) {
+        // All changes go into a single version, so readers see either the old or the new contents
+        long version = store.getCurrentVersion() + 1;
+        Iterator<Map.Entry<String, List<String>>> entries = store.entries(null, store.getCurrentVersion());
+        while (entries.hasNext()) {
+            String word = entries.next().getKey();
+            if (!contents.containsKey(word)) {
+                store.put(word, null, version);
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : contents.entrySet()) {
+            store.put(entry.getKey(), new ArrayList<>(entry.getValue()), version);
+        }
+        store.publish(version);
+        store.reclaim();
+    }
+
+    /**
+     * Copies the words that the given hash ring assigns to other nodes.
+     * @param ring the hash ring describing the new shard layout
+     * @param self this node's address on the ring
+     * @return the words to move, with a copy of their meanings
+     */
+    Map<String, List<String>> wordsNotOwnedBy(ConsistentHashRing ring, String self) {
+        Map<String, List<String>> moving = new HashMap<>();
+        VersionedStore store = acquireStore();
+        long version = store.pin();
+        try {
+            Iterator<Map.Entry<String, List<String>>> entries = store.entries(null, version);
+            while (entries.hasNext()) {
+                Map.Entry<String, List<String>> entry = entries.next();
+                if (!ring.getOwner(entry.getKey()).equals(self)) {
+                    moving.put(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            store.unpin(version);
+            store.release();
+        }
+        return moving;
+    }
+
+    /**
+     * Registers a lock-free reader with the current store. A reload may replace the store at any time, but a store is not
+     * closed until every reader that acquired it has released it.
+     * @return the current store, to be released with VersionedStore.release() once the reader is done
+     */
+    VersionedStore acquireStore() {
+        while (true) {
+            VersionedStore current = store;
+            current.retain();
+            if (current == store) {
+                return current;
+            }
+            // Replaced in between, and possibly already closed
+            current.release();
+        }
+    }
+
+    /**
+     * Returns the current store without registering as a reader, for reading its statistics.
+     * @return the current store
+     */
+    VersionedStore getStore() {
+        return store;
+    }
+
+    /**
+     * Reloads the dictionary from its file, keeping the changes committed while the file loads.
+     * A read-only engine picks up what the owner has saved since it was opened or last reloaded.
+     * @return the number of changes committed during the load and replayed onto the reloaded contents
+     * @throws IOException if the file cannot be read or is not a dictionary, in which case the current contents are kept
+     */
+    public int reload() throws IOException {
+        long baseVersion = beginReload();
+        VersionedStore loaded;
+        try {
+            loaded = loadStore(fileName, baseVersion);
+        } catch (IOException | UncheckedIOException | ParseException e) {
+            abortReload();
+            throw new IOException("Unable to reload \"" + fileName + "\": " + e.getMessage(), e);
+        }
+        return swapStore(loaded);
+    }
+
+    /**
+     * Loads a dictionary file into a new store, leaving the store in use untouched.
+     * The file is parsed as a stream, one word at a time, into either memory or a cold tier file named after the base version,
+     * so that a reload never overwrites the cold tier file of the store it replaces.
+     * @param sourceFile the JSON file to load
+     * @param baseVersion the version the loaded words get
+     * @return the loaded store
+     * @throws IOException if the file cannot be read or the cold tier file cannot be written
+     * @throws ParseException if the file is not a valid dictionary
+     */
+    VersionedStore loadStore(String sourceFile, long baseVersion) throws IOException, ParseException {
+        VersionedStore loaded = new VersionedStore(baseVersion);
+        // JSONParser is not thread-safe, and a reload runs beside the request threads
+        JSONParser fileParser = new JSONParser();
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(sourceFile, StandardCharsets.UTF_8))) {
+            if (hotTierSize > 0) {
+                ColdTier.Builder builder = new ColdTier.Builder(Paths.get(coldTierPrefix + baseVersion));
+                fileParser.parse(bufferedReader, new DictionaryLoader((word, meanings) -> {
+                    builder.add(word, meanings);
+                    loaded.indexSpelling(word);
+                }));
+                loaded.attachColdTier(builder.build(hotTierSize));
+            } else {
+                fileParser.parse(bufferedReader, new DictionaryLoader((word, meanings) -> loaded.put(word, meanings, baseVersion)));
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Copies the dictionary file while no save is writing it, so that a reload can read it while later saves replace it.
+     * @return the copy, which the caller deletes
+     * @throws IOException if the file cannot be copied
+     */
+    Path copyDataFile() throws IOException {
+        synchronized (saveLock) {
+            Path copy = Paths.get(fileName + ".reload");
+            return Files.copy(Paths.get(fileName), copy, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Starts recording the changes committed from now on, for a reload to replay onto the store it loads.
+     * @return the base version for the loaded store, newer than every version readers have seen so far
+     */
+    synchronized long beginReload() {
+        reloadChanges = new ArrayList<>();
+        return store.getCurrentVersion() + 1;
+    }
+
+    /**
+     * Stops recording changes after a reload failed.
+     */
+    synchronized void abortReload() {
+        reloadChanges = null;
+    }
+
+    /**
+     * Replays the changes committed during a reload onto the loaded store and makes it the current store.
+     * Readers that acquired the old store finish on it; it is closed once the last of them releases it.
+     * @param loaded the store returned by loadStore() with the version from beginReload()
+     * @return the number of changes replayed
+     */
+    synchronized int swapStore(VersionedStore loaded) {
+        VersionedStore old = store;
+        // Replayed changes are numbered after every version the old store handed out, so no word version a client holds
+        // names a different state of the word in the new store, and a compare-and-set against it fails
+        loaded.publish(Math.max(loaded.getCurrentVersion(), old.getCurrentVersion()));
+        for (Map.Entry<String, List<String>> change : reloadChanges) {
+            long version = loaded.getCurrentVersion() + 1;
+            loaded.put(change.getKey(), change.getValue(), version);
+            loaded.publish(version);
+        }
+        // With nothing pinned, this makes the current version the oldest readable one, so snapshots of the old store fail
+        // cleanly instead of reading the new contents
+        loaded.reclaim();
+        int replayed = reloadChanges.size();
+        reloadChanges = null;
+        store = loaded;
+        old.retire();
+        return replayed;
+    }
+
+    /**
+     * Saves the current dictionary to the file. A read-only engine never writes the file, so this does nothing for it.
+     * Pins the current version and writes it out word by word without holding the lock, so writers carry on while the
+     * file is written. Saves of an older version than the one already on disk are skipped.
+     * @throws IOException if the file cannot be written, in which case the file keeps its previous contents
+     */
+    public void save() throws IOException {
+        if (mode == Mode.READ_ONLY) {
+            return;
+        }
+        VersionedStore store = acquireStore();
+        long version = store.pin();
+        try {
+            synchronized (saveLock) {
+                if (version <= savedVersion) {
+                    return;
+                }
+                // Write the dictionary to a temporary file as one JSON object, without building it in memory, and move it over
+                // the old file so that a download, copy or read-only engine in progress keeps reading the complete old file
+                Path target = Paths.get(fileName);
+                Path temporary = Paths.get(fileName + ".saving");
+                CRC32 checksum = new CRC32();
+                try {
+                    // The writer is closed, and the file complete, before it replaces the old one
+                    try (Writer fileWriter = new BufferedWriter(new OutputStreamWriter(
+                            new CheckedOutputStream(Files.newOutputStream(temporary), checksum), StandardCharsets.UTF_8))) {
+                        fileWriter.write('{');
+                        Iterator<Map.Entry<String, List<String>>> entries = store.entries(null, version);
+                        while (entries.hasNext()) {
+                            Map.Entry<String, List<String>> entry = entries.next();
+                            fileWriter.write(JSONValue.toJSONString(entry.getKey()));
+                            fileWriter.write(':');
+                            fileWriter.write(JSONArray.toJSONString(entry.getValue()));
+                            if (entries.hasNext()) {
+                                fileWriter.write(',');
+                            }
+                        }
+                        fileWriter.write('}');
+                    }
+                    Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    savedVersion = version;
+                    savedChecksum = checksum.getValue();
+                } catch (IOException | UncheckedIOException e) {
+                    try {
+                        Files.deleteIfExists(temporary);
+                    } catch (IOException deleteFailure) {
+                    }
+                    throw e instanceof UncheckedIOException ? ((UncheckedIOException) e).getCause() : (IOException) e;
+                }
+            }
+        } finally {
+            store.unpin(version);
+            store.release();
+        }
+    }
+
+    /**
+     * Opens the dictionary file as last saved, for sending to a client. A save made while the file is being sent replaces
+     * the file rather than rewriting it, so the channel returned keeps reading the complete file it opened.
+     * The file is saved first if this engine has not saved it yet, as its checksum is only known for files it wrote.
+     * @return the open file with the version and checksum of its contents
+     * @throws IOException if the file cannot be saved or opened
+     */
+    SavedFile openSavedFile() throws IOException {
+        if (savedVersion < 0) {
+            save();
+        }
+        synchronized (saveLock) {
+            if (savedVersion < 0) {
+                throw new IOException("The dictionary file could not be saved");
+            }
+            FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+            return new SavedFile(channel, savedVersion, savedChecksum);
+        }
+    }
+
+    /**
+     * Saves the dictionary if this engine owns it, and releases its memory, cold tier file and ownership of the file.
+     * Lookups still running finish first; the engine must not be used afterwards.
+     * @throws IOException if the final save fails, in which case ownership is released all the same
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            save();
+        } finally {
+            store.retire();
+            releaseOwnerLock();
+        }
+    }
+
+    private void releaseOwnerLock() throws IOException {
+        if (ownerLockFile != null) {
+            ownerLockFile.close();
+        }
+    }
+
+    /**
+     * The result of a lookup. A caller may keep one and pass it to lookup() again, which is how the LegacyCodec fast path
+     * answers every request of a connection with the same one.
+     */
+    public static final class Lookup {
+        // The version found, or null if the word does not exist at the version read
+        VersionedStore.Version entry;
+        // The spelling found, which differs from the query only for a normalised lookup
+        String spelling;
+        // Set if the requested version is no longer readable
+        boolean versionUnavailable;
+
+        /**
+         * Returns whether the word exists at the version read.
+         * @return true if the word was found
+         */
+        public boolean isFound() {
+            return entry != null;
+        }
+
+        /**
+         * Returns the spelling under which the word was found, which differs from the query only for a normalised lookup.
+         * @return the stored spelling, or null if the word was not found
+         */
+        public String getWord() {
+            return spelling;
+        }
+
+        /**
+         * Returns the meanings of the word. The list is shared with other readers and must not be changed.
+         * @return the meanings, or an empty list if the word was not found
+         */
+        public List<String> getMeanings() {
+            return entry == null ? Collections.emptyList() : entry.meanings;
+        }
+
+        /**
+         * Returns the version at which the word last changed, to pass to a conditional change.
+         * @return the word version, or -1 if the word was not found
+         */
+        public long getWordVersion() {
+            return entry == null ? -1 : entry.sequence;
+        }
+
+        /**
+         * Returns whether the requested version is no longer readable, as it was not pinned with openSnapshot().
+         * @return true if nothing could be read
+         */
+        public boolean isVersionUnavailable() {
+            return versionUnavailable;
+        }
+    }
+
+    /**
+     * The result of a change.
+     */
+    public static final class Result {
+        private static final Result READ_ONLY_RESULT = new Result(Status.READ_ONLY, -1, null);
+        private static final Result MISSING_INPUT_RESULT = new Result(Status.MISSING_INPUT, -1, null);
+        private static final Result NOT_FOUND_RESULT = new Result(Status.NOT_FOUND, -1, null);
+
+        private final Status status;
+        private final long wordVersion;
+        private final List<String> meanings;
+
+        private Result(Status status, long wordVersion, List<String> meanings) {
+            this.status = status;
+            this.wordVersion = wordVersion;
+            this.meanings = meanings;
+        }
+
+        /**
+         * Returns the outcome.
+         * @return the status
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns whether the change was made.
+         * @return true for SUCCESS
+         */
+        public boolean isSuccess() {
+            return status == Status.SUCCESS;
+        }
+
+        /**
+         * Returns the word's version: the new one after a change, or the current one if the word exists and was not changed.
+         * @return the word version, or -1 if there is none
+         */
+        public long getWordVersion() {
+            return wordVersion;
+        }
+
+        /**
+         * Returns the word's meanings: the new ones after a change, or the current ones if the word exists and was not changed.
+         * The list is shared with readers and must not be changed.
+         * @return the meanings, or an empty list if the word does not exist or was removed
+         */
+        public List<String> getMeanings() {
+            return meanings == null ? Collections.emptyList() : meanings;
+        }
+    }
+
+    /**
+     * The dictionary file as last saved, open for reading.
+     */
+    static final class SavedFile implements AutoCloseable {
+        final FileChannel channel;
+        final long version;
+        final long checksum;
+
+        SavedFile(FileChannel channel, long version, long checksum) {
+            this.channel = channel;
+            this.version = version;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Receives the words of the dictionary file as it is parsed.
+     */
+    private interface EntrySink {
+        void accept(String word, List<String> meanings) throws IOException;
+    }
+
+    /**
+     * Streams the dictionary file, an object of word to array of meanings, to an EntrySink one word at a time,
+     * so the whole file never has to be held in memory.
+     */
+    private static class DictionaryLoader implements ContentHandler {
+        private final EntrySink sink;
+        private int depth = 0;
+        private String word;
+        private List<String> meanings;
+
+        DictionaryLoader(EntrySink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void startJSON() {
+        }
+
+        @Override
+        public void endJSON() {
+        }
+
+        @Override
+        public boolean startObject() {
+            depth++;
+            return true;
+        }
+
+        @Override
+        public boolean endObject() {
+            depth--;
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            if (depth == 1) {
+                word = key;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry() {
+            return true;
+        }
+
+        @Override
+        public boolean startArray() {
+            if (depth == 1) {
+                meanings = new ArrayList<>();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endArray() throws IOException {
+            if (depth == 1 && meanings != null) {
+                sink.accept(word, meanings);
+                meanings = null;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            if (meanings != null && value != null) {
+                meanings.add(value.toString().trim()); // Ensure that the elements are converted to strings with whitespaces trimmed
+            }
+            return true;
+        }
+    }
+}
@@ -1,158 +1,268 @@
 /**
  * Name: Anna Gan, Student ID: 1579818
- * The DictionaryHandler class manages a dictionary of words and their meanings, stored as a JSON file. 
- * It provides thread-safe methods to add, remove, update, and retrieve meanings, ensuring data persistence by loading from and saving to a JSON file.
+ * The DictionaryHandler class adapts a DictionaryEngine to the server's JSON commands: it reads each command's fields, calls
+ * the engine and turns the typed result into the "SUCCESS:" or "ERROR:" reply the clients display.
+ * Changes are serialised on the engine's monitor, which the server also holds while it appends a change to the replication
+ * log, so that followers apply changes in the order they were committed.
  */
 
 package server;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Base64;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import org.json.simple.JSONValue;
 
 public class DictionaryHandler{
-	
-    public static HashMap<String, List<String>> dict = new HashMap<>();
-    public static String fileName;
-    public static JSONParser parser = new JSONParser();
+
+    // Keeps each scan reply well inside the 65535 byte limit of writeUTF
+    private static final int SCAN_REPLY_BUDGET = 60000;
+    private static final int DEFAULT_SCAN_LIMIT = 100;
+    private static final int MAX_SCAN_LIMIT = 1000;
+    static final int MAX_MESSAGE_BYTES = 65535;
+    // JSON escaping writes a char as at most 6 bytes, a backslash, u and four hex digits, so a reply whose text is short enough fits without measuring
+    private static final int MAX_ESCAPED_CHAR_BYTES = 6;
+    // Room in a getMeaning reply for everything but its text
+    private static final int REPLY_OVERHEAD_BYTES = 200;
+    static final String WORD_NOT_FOUND_PREFIX = "ERROR: Word not found. The word \"";
+    static final String WORD_NOT_FOUND_SUFFIX = "\" does not exists/has been removed from the dictionary";
+    static final String NO_WORD_ENTERED = "ERROR: No word entered! Please enter a word to update meaning.";
+    private static final String MISSING_EXPECTED_VERSION = "ERROR: Missing expectedVersion. Use the wordVersion returned by getMeaning.";
+    private final DictionaryEngine engine;
 
     /**
-     * Constructor for DictionaryHandler.
+     * Constructor for DictionaryHandler, opening the dictionary file as its owner.
      * @param fileName The name of the file from which to load the dictionary data.
+     * @param hotTierSize The number of loaded words to keep in memory, with the rest read from disk, or 0 to keep every word in memory.
+     * @throws IOException If the file cannot be loaded or is already owned by another server.
      */
-    public DictionaryHandler (String fileName) {
-        this.fileName = fileName;
-    	loadDataFromFile();
+    public DictionaryHandler (String fileName, int hotTierSize) throws IOException {
+        this(DictionaryEngine.open(fileName, DictionaryEngine.Mode.OWNER, hotTierSize));
     }
-    
+
     /**
-     * Loads the dictionary data from the specified JSON file.
-     * Data is read and parsed into the in-memory dictionary.
+     * Constructor for DictionaryHandler.
+     * @param engine The engine holding the dictionary.
      */
-    private void loadDataFromFile() {
-        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName))) {
-            // Parse the JSON file into a JSONObject
-            JSONObject jsonObject = (JSONObject) parser.parse(bufferedReader);
-
-            // Convert JSONObject to HashMap
-            for (Object key : jsonObject.keySet()) {
-                String keyStr = (String) key;
-                Object value = jsonObject.get(keyStr);
-                JSONArray jsonArray = (JSONArray) value;
-                List<String> list = new ArrayList<>();
-
-                for (Object obj : jsonArray) {
-                    list.add(obj.toString().trim()); // Ensure that the elements are converted to strings with whitespaces trimmed
-                }
-                dict.put(keyStr, list);
-            }
+    public DictionaryHandler (DictionaryEngine engine) {
+        this.engine = engine;
+    }
 
-        } catch (FileNotFoundException e) {
-            System.err.println("Resource/File not found: " + e.getMessage());
-            System.exit(1);
-		} catch (IOException | ParseException e) {
-			System.err.println("Error: Unable to read content of file." + "\""+ fileName +"\"");
-            System.exit(1);
-		} 
+    /**
+     * Returns the engine holding the dictionary, whose monitor serialises changes.
+     * @return The engine.
+     */
+    DictionaryEngine getEngine() {
+        return engine;
     }
-    
+
     /**
-     * Saves the current dictionary data to the specified JSON file.
-     * Converts the HashMap to a JSONObject and writes it to the file.
+     * Saves the dictionary to its file, logging rather than failing if it cannot be written, as the change is kept in memory either way.
      */
-    static void saveDataToFile() {
-        JSONObject jsonObject = new JSONObject();
-        
-        for (Map.Entry<String, List<String>> entry : dict.entrySet()) {
-            String key = entry.getKey();
-            List<String> list = entry.getValue();
-            
-            JSONArray jsonArray = new JSONArray();
-            for (String item : list) {
-                jsonArray.add(item); 
-            }
-            
-            jsonObject.put(key, jsonArray);
-        }
-        
-        // Write the JSONObject to a file
-        try (FileWriter fileWriter = new FileWriter(fileName)) {
-            fileWriter.write(jsonObject.toString()); 
+    void saveDataToFile() {
+        try {
+            engine.save();
         } catch (IOException e) {
-           System.out.println("Unable to save changes to file");
+            System.out.println("Unable to save changes to file");
         }
     }
 
-    
+    /**
+     * Reads the optional "version" field of a read request.
+     * @param command the command JSON object
+     * @return the requested version, or -1 to read the latest version
+     */
+    private static long requestedVersion(JSONObject command) {
+        Object version = command.get("version");
+        return version instanceof Number ? ((Number) version).longValue() : -1;
+    }
+
+    /**
+     * Reads a text field of a request. A value of another type is treated as missing, so it gets the usual error reply.
+     * @param command the command JSON object
+     * @param key the field name
+     * @return the text, or null if the field is absent or not a string
+     */
+    static String textField(JSONObject command, String key) {
+        Object value = command.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * Builds the error returned when a read asks for a version that is not readable.
+     * @param version the requested version
+     * @return the error message
+     */
+    String versionUnavailable(long version) {
+        return "ERROR: Version " + version + " is no longer available. Open a snapshot to keep a version readable (current version is "
+                + engine.getCurrentVersion() + ").";
+    }
+
     /**
      * Retrieves the meaning(s) of a given word from the dictionary.
+     * Runs without the dictionary lock; an optional "version" reads the word as it was at that version.
+     * With "normalize" set, the word is matched ignoring case, surrounding spaces and Unicode normalisation form, and
+     * the reply's "word" gives the spelling that matched.
+     * "countOnly", "offset", "limit" and "format" ask for part of the meanings instead, as projectMeanings describes.
      * @param command The command JSON object containing the word to look up.
-     * @return A string containing the meaning(s) or an error message.
+     * @return The reply with the meaning(s) as text in "output", plus the word's "wordVersion" if it was found.
      */
-    synchronized String getMeaning(JSONObject command) {
-        String clientQuery = (String) command.get("word");
-        if (clientQuery.isEmpty()) {
-        	return  "ERROR: No word entered! Please enter a word to update meaning.";
+    JSONObject getMeaning(JSONObject command) {
+        JSONObject reply = new JSONObject();
+        String clientQuery = textField(command, "word");
+        if (clientQuery == null || clientQuery.isEmpty()) {
+        	reply.put("output", NO_WORD_ENTERED);
+        	return reply;
         } 
+        long version = requestedVersion(command);
+        boolean normalize = Boolean.TRUE.equals(command.get("normalize"));
+        DictionaryEngine.Lookup result = new DictionaryEngine.Lookup();
+        engine.lookup(clientQuery, version, normalize, result);
+        if (result.versionUnavailable) {
+            reply.put("output", versionUnavailable(version));
+        }
+        else if (result.entry != null) {
+        	if (normalize) {
+        		reply.put("word", result.spelling);
+        	}
+        	if (isProjected(command)) {
+        		projectMeanings(command, result.spelling, result.entry.meanings, reply);
+        		reply.put("wordVersion", result.entry.sequence);
+        		return reply;
+        	}
+        	StringBuilder output = new StringBuilder("Meaning(s):\n");
+        	int i = 1;
+        	for (Object meaning : result.entry.meanings) {
+        		output.append(i).append(". ").append(meaning.toString().trim()).append("\n");
+        		i++;   
+        	}
+        	reply.put("output", output.toString());
+        	reply.put("wordVersion", result.entry.sequence);
+        	long worstCaseBytes = (long) (output.length() + result.spelling.length()) * MAX_ESCAPED_CHAR_BYTES + REPLY_OVERHEAD_BYTES;
+        	if (worstCaseBytes > MAX_MESSAGE_BYTES && utfLength(reply.toJSONString()) > MAX_MESSAGE_BYTES) {
+        		// Rather than failing the connection with a reply writeUTF cannot send, send the first meanings and "nextOffset"
+        		projectMeanings(command, result.spelling, result.entry.meanings, reply);
+        	}
+        }
         else {
-            if (dict.get(clientQuery) != null) {
-		        List<String> queryMeanings = dict.get(clientQuery);
-            	StringBuilder result = new StringBuilder("Meaning(s):\n");
-            	int i = 1;
-            	for (Object meaning : queryMeanings) {
-            		result.append(i).append(". ").append(meaning.toString().trim()).append("\n");
-            		i++;   
-            	}
-            	return result.toString();
-            }
-            else {
-            	return "ERROR: Word not found. The word "  + "\""+ clientQuery +"\"" + " does not exists/has been removed from the dictionary";
+        	reply.put("output", WORD_NOT_FOUND_PREFIX + clientQuery + WORD_NOT_FOUND_SUFFIX);
+        }
+        return reply;
+    }
+
+    /**
+     * Checks whether a getMeaning request asks for part of the meanings.
+     * @param command The command JSON object.
+     * @return True if it has "countOnly", "offset", "limit" or "format".
+     */
+    private static boolean isProjected(JSONObject command) {
+        return command.containsKey("countOnly") || command.containsKey("offset") || command.containsKey("limit") || command.containsKey("format");
+    }
+
+    /**
+     * Fills in the reply to a getMeaning request for part of a word's meanings, for words with more meanings than a client
+     * shows or one message can carry. "countOnly" returns just their number. Otherwise the reply has the meanings from
+     * "offset" (default 0), at most "limit" of them, numbered in "output" as in a full reply, or with "format": "array" in
+     * "meanings" only. Only the meanings in the range are read, and the range ends early if the reply would not fit in one
+     * message. "meaningCount" gives the number of meanings, and "nextOffset", absent at the end, where the next range starts.
+     * A meaning too large for a message of its own is reported as an error, with "nextOffset" pointing past it.
+     * @param command The command JSON object.
+     * @param word The spelling of the word found.
+     * @param meanings All the word's meanings, which are not copied.
+     * @param reply The reply to fill in.
+     */
+    private static void projectMeanings(JSONObject command, String word, List<String> meanings, JSONObject reply) {
+        int count = meanings.size();
+        reply.put("meaningCount", count);
+        if (Boolean.TRUE.equals(command.get("countOnly"))) {
+            reply.put("output", "The word \"" + word + "\" has " + count + " meaning(s).");
+            return;
+        }
+        Object offsetValue = command.get("offset");
+        Object limitValue = command.get("limit");
+        int offset = offsetValue instanceof Number ? (int) Math.max(0, Math.min(count, ((Number) offsetValue).longValue())) : 0;
+        long limit = limitValue instanceof Number ? Math.max(1, ((Number) limitValue).longValue()) : count;
+        int end = (int) Math.min(count, offset + limit);
+        boolean text = !"array".equals(command.get("format"));
+
+        JSONArray range = new JSONArray();
+        StringBuilder lines = new StringBuilder();
+        // Room for the reply's other fields and the heading, which with "word" may both hold the word
+        int replyBytes = REPLY_OVERHEAD_BYTES + 2 * utfLength(JSONValue.escape(word));
+        int next = offset;
+        while (next < end) {
+            String meaning = meanings.get(next);
+            // A meaning goes either into the numbered text or into the array, never both
+            String line = text ? (next + 1) + ". " + meaning.trim() + "\n" : "";
+            int itemBytes = text ? utfLength(JSONValue.escape(line)) : utfLength(JSONValue.escape(meaning)) + 3;
+            // The first meaning may use the whole message, so that one long meaning is still sent
+            if (replyBytes + itemBytes > (range.isEmpty() ? MAX_MESSAGE_BYTES : SCAN_REPLY_BUDGET)) {
+                break;
             }
+            replyBytes += itemBytes;
+            range.add(meaning);
+            lines.append(line);
+            next++;
+        }
+        boolean tooLarge = range.isEmpty() && next < end;
+        if (tooLarge) {
+            // Lets a client paging through the meanings step over the one it cannot have
+            next++;
         }
+        if (!text) {
+            reply.put("meanings", range);
+        }
+        reply.put("offset", offset);
+        if (next < count) {
+            reply.put("nextOffset", next);
+        }
+
+        String heading;
+        if (tooLarge) {
+            heading = "ERROR: Meaning " + next + " of the word \"" + word + "\" is too large to send in one reply.";
+        } else if (range.isEmpty()) {
+            heading = "The word \"" + word + "\" has " + count + " meaning(s), none from " + (offset + 1) + ".";
+        } else if (offset == 0 && next == count) {
+            heading = text ? "Meaning(s):\n" : "Meaning(s) 1-" + count + " of " + count + ".";
+        } else {
+            heading = "Meaning(s) " + (offset + 1) + "-" + next + " of " + count + (text ? ":\n" : ".");
+        }
+        reply.put("output", text ? heading + lines : heading);
     }
-    
+
     /**
      * Adds a new word and its meaning(s) to the dictionary.
      * @param command The command JSON object containing the word and meaning(s) to add.
      * @return A success or error message.
      */
-    synchronized String addNewWord(JSONObject command) {
-    	String newWord = (String) command.get("word");
-		String meaningString = (String) command.get("meaning");
-
-        if (newWord.isEmpty() || meaningString.isEmpty()) {
-        	return "ERROR: Missing word or meaning input(s) ! Separate multiple meanings using commas for example 'meaning_1, meaning_2' ";
-        } 
-        else {
-        	if (dict.get(newWord) == null) {
-                String[] meanings = meaningString.split(",");
-        		List<String> meaningList = new ArrayList<>();
-        		for (Object element : meanings) {
-        			if (element instanceof String) {
-        				meaningList.add((String) element);
-        			}
-        		}
-        		dict.put(newWord, meaningList);
-
-        		return "SUCCESS: New word has been added. Query word to view meanings."; 
-        		 
-        	}
-        	else {
-            	return "ERROR: The word "  + "\""+ newWord +"\"" + " already exists in the dictionary";
-        	}
+    String addNewWord(JSONObject command) {
+        String newWord = textField(command, "word");
+        String meaningString = textField(command, "meaning");
+        List<String> meanings = new ArrayList<>();
+        // "".split(",") gives one empty meaning, so an empty input leaves the list empty for the engine to reject
+        if (meaningString != null && !meaningString.isEmpty()) {
+            for (String meaning : meaningString.split(",")) {
+                meanings.add(meaning);
+            }
+        }
+        DictionaryEngine.Result result = engine.addWord(newWord, meanings);
+        switch (result.getStatus()) {
+            case SUCCESS:
+                return "SUCCESS: New word has been added. Query word to view meanings.";
+            case ALREADY_EXISTS:
+                return "ERROR: The word "  + "\""+ newWord +"\"" + " already exists in the dictionary";
+            case MISSING_INPUT:
+                return "ERROR: Missing word or meaning input(s) ! Separate multiple meanings using commas for example 'meaning_1, meaning_2' ";
+            default:
+                return failure(result, newWord);
         }
-    	
     }
 
     /**
@@ -160,65 +270,42 @@ public class DictionaryHandler{
      * @param command The command JSON object containing the word to remove.
      * @return A success or error message.
      */
-    synchronized String removeWord(JSONObject command) {
-        	String word = (String) command.get("word");
-            
-            if (word.isEmpty()) {
+    String removeWord(JSONObject command) {
+        String word = textField(command, "word");
+        DictionaryEngine.Result result = engine.removeWord(word);
+        switch (result.getStatus()) {
+            case SUCCESS:
+                return "SUCCESS: \"" + word + "\"" + " has been removed from the dictionary.";
+            case MISSING_INPUT:
                 return "ERROR: No word entered!  Please enter a word to remove.";
-            } else {
-                if (dict.get(word) != null) {
-	                dict.remove(word);
-	                return "SUCCESS: \"" + word + "\"" + " has been removed from the dictionary.";
-                } else {
-                    return "ERROR: Word not found. The word "  + "\""+ word +"\"" + " does not exists/has been removed from in the dictionary";
-                }
-            }
-     
+            case NOT_FOUND:
+                return "ERROR: Word not found. The word "  + "\""+ word +"\"" + " does not exists/has been removed from in the dictionary";
+            default:
+                return failure(result, word);
+        }
     }
-    
+
     /**
      * Adds a new meaning to an existing word in the dictionary.
      * @param command The command JSON object containing the word and new meaning to add.
      * @return A success or error message.
      */
-    synchronized String addNewMeaning(JSONObject command) {
-            String existingWord = (String) command.get("word");
-            String newMeaning = (String) command.get("newMeaning");
-            
-            if (existingWord.isEmpty()||newMeaning.isEmpty()) {
+    String addNewMeaning(JSONObject command) {
+        String existingWord = textField(command, "word");
+        String newMeaning = textField(command, "newMeaning");
+        DictionaryEngine.Result result = engine.addMeaning(existingWord, newMeaning);
+        switch (result.getStatus()) {
+            case SUCCESS:
+                return "SUCCESS: New meaning has been added for the word " + "\"" + existingWord + "\"";
+            case MISSING_INPUT:
                 return "ERROR: Missing word or meaning !";
-            }
-
-            else {
-                if (dict.get(existingWord) != null) {
-                	if (newMeaning.isEmpty()){
-	                    return "ERROR: No new meaning(s) entered! Please add meaning(s) for the word " + "\""+ existingWord +"\"";
-                	}
-                	else {
-                		//Iterate through the list of existing meaning to see if there is duplicate meaning
-		                List<String> existingMeaning = dict.get(existingWord);
-		                boolean matching = false;
-		                for (String eachMeaning : existingMeaning) {
-		                    if (eachMeaning.toLowerCase().equals(newMeaning.toLowerCase())) {
-		                    	matching = true;
-		                    }
-		                }
-		                if (!matching) {
-		                	existingMeaning.add(newMeaning);                                
-			                return "SUCCESS: New meaning has been added for the word " + "\"" + existingWord + "\"";
-
-		                }
-		                else {
-			                return "ERROR: New meaning \"" + newMeaning + "\" already exists for word " + "\"" + existingWord + "\"";
-		                }
-		              
-                	}
-                } else {
-                    return "ERROR: The word "  + "\""+ existingWord +"\"" + " does not exists/has been removed from the dictionary. Choose \"Add new word\" to add word to dictionary.";
-                }
-            }
-    	
-
+            case NOT_FOUND:
+                return "ERROR: The word "  + "\""+ existingWord +"\"" + " does not exists/has been removed from the dictionary. Choose \"Add new word\" to add word to dictionary.";
+            case MEANING_EXISTS:
+                return "ERROR: New meaning \"" + newMeaning + "\" already exists for word " + "\"" + existingWord + "\"";
+            default:
+                return failure(result, existingWord);
+        }
     }
 
     /**
@@ -227,55 +314,311 @@ public class DictionaryHandler{
      * @return A success or error message.
      */
     String updateMeaning(JSONObject command) {
-            String wordToUpdate = (String) command.get("word");
-            String existingMeaning = (String) command.get("existingMeaning");
-            String updateMeaning = (String) command.get("newMeaning");
-            int existingMeaningIndex = 0;
-            boolean existingMeaningMatch = false;
-            boolean uniqueNewMeaning = true;
-            
-            if (wordToUpdate.isEmpty() || existingMeaning.isEmpty() || updateMeaning.isEmpty()) {
-            	return  "ERROR: Missing word / existing meaning / new meaning input(s)!";
+        String wordToUpdate = textField(command, "word");
+        String existingMeaning = textField(command, "existingMeaning");
+        String updateMeaning = textField(command, "newMeaning");
+        DictionaryEngine.Result result = engine.updateMeaning(wordToUpdate, existingMeaning, updateMeaning);
+        switch (result.getStatus()) {
+            case SUCCESS:
+                return "SUCCESS: Meaning has been updated for word " + "\""+ wordToUpdate+"\"";
+            case MISSING_INPUT:
+                return "ERROR: Missing word / existing meaning / new meaning input(s)!";
+            case NOT_FOUND:
+                return WORD_NOT_FOUND_PREFIX + wordToUpdate + WORD_NOT_FOUND_SUFFIX;
+            case MEANING_NOT_FOUND:
+                return "ERROR: Existing meaning \""+ existingMeaning + "\" not found for the word " + "\"" + wordToUpdate + "\"";
+            case MEANING_EXISTS:
+                return "ERROR: New meaning \"" + updateMeaning + "\" entered already exists for the word \"" + wordToUpdate + "\"";
+            default:
+                return failure(result, wordToUpdate);
+        }
+    }
+
+    /**
+     * Stores a word with exactly the given meanings, replacing any meanings it already has.
+     * Used when words are moved between shards, where meanings must not be re-split on commas.
+     * @param command The command JSON object containing the word and a JSON array of meanings.
+     * @return A success or error message.
+     */
+    String putWord(JSONObject command) {
+        String word = textField(command, "word");
+        JSONArray meanings = (JSONArray) command.get("meanings");
+        List<String> meaningList = new ArrayList<>();
+        if (meanings != null) {
+            for (Object meaning : meanings) {
+                meaningList.add(meaning.toString());
             }
+        }
+        DictionaryEngine.Result result = engine.putWord(word, meaningList);
+        switch (result.getStatus()) {
+            case SUCCESS:
+                return "SUCCESS: \"" + word + "\" has been stored.";
+            case MISSING_INPUT:
+                return "ERROR: Missing word or meaning input(s) !";
+            default:
+                return failure(result, word);
+        }
+    }
+
+    /**
+     * Adds a meaning to a word only if the word is still at the expected version.
+     * @param command The command JSON object containing the word, "expectedVersion" and "newMeaning".
+     * @return The reply, with the word's new "wordVersion" on success or its current one on a conflict.
+     */
+    JSONObject casAddNewMeaning(JSONObject command) {
+        JSONObject reply = new JSONObject();
+        String word = textField(command, "word");
+        String newMeaning = textField(command, "newMeaning");
+        if (word == null || word.isEmpty() || newMeaning == null || newMeaning.isEmpty()) {
+            reply.put("output", "ERROR: Missing word or meaning !");
+            return reply;
+        }
+        Object expected = command.get("expectedVersion");
+        if (!(expected instanceof Number)) {
+            reply.put("output", MISSING_EXPECTED_VERSION);
+            return reply;
+        }
+        DictionaryEngine.Result result = engine.addMeaning(word, newMeaning, ((Number) expected).longValue());
+        switch (result.getStatus()) {
+            case SUCCESS:
+                reply.put("output", "SUCCESS: New meaning has been added for the word " + "\"" + word + "\"");
+                reply.put("wordVersion", result.getWordVersion());
+                break;
+            case MEANING_EXISTS:
+                reply.put("output", "ERROR: New meaning \"" + newMeaning + "\" already exists for word " + "\"" + word + "\"");
+                break;
+            default:
+                casFailure(result, word, expected, reply);
+                break;
+        }
+        return reply;
+    }
+
+    /**
+     * Replaces the meaning at an index only if the word is still at the expected version.
+     * @param command The command JSON object containing the word, "expectedVersion", the 1-based "index" as numbered by getMeaning, and "newMeaning".
+     * @return The reply, with the word's new "wordVersion" on success or its current one on a conflict.
+     */
+    JSONObject casUpdateMeaning(JSONObject command) {
+        JSONObject reply = new JSONObject();
+        String word = textField(command, "word");
+        String newMeaning = textField(command, "newMeaning");
+        Object indexValue = command.get("index");
+        if (word == null || word.isEmpty() || newMeaning == null || newMeaning.isEmpty() || !(indexValue instanceof Number)) {
+            reply.put("output", "ERROR: Missing word / meaning index / new meaning input(s)!");
+            return reply;
+        }
+        Object expected = command.get("expectedVersion");
+        if (!(expected instanceof Number)) {
+            reply.put("output", MISSING_EXPECTED_VERSION);
+            return reply;
+        }
+        int index = ((Number) indexValue).intValue();
+        DictionaryEngine.Result result = engine.updateMeaning(word, index, newMeaning, ((Number) expected).longValue());
+        switch (result.getStatus()) {
+            case SUCCESS:
+                reply.put("output", "SUCCESS: Meaning has been updated for word " + "\"" + word + "\"");
+                reply.put("wordVersion", result.getWordVersion());
+                break;
+            case MEANING_NOT_FOUND:
+                reply.put("output", "ERROR: Meaning " + index + " not found for the word \"" + word + "\", which has " + result.getMeanings().size() + " meaning(s)");
+                break;
+            case MEANING_EXISTS:
+                reply.put("output", "ERROR: New meaning \"" + newMeaning + "\" entered already exists for the word \"" + word + "\"");
+                break;
+            default:
+                casFailure(result, word, expected, reply);
+                break;
+        }
+        return reply;
+    }
 
-            else if (dict.get(wordToUpdate) == null) {
-            	return "ERROR: Word not found. The word "  + "\""+ wordToUpdate +"\"" + " does not exists/has been removed from the dictionary";
+    /**
+     * Removes a word only if it is still at the expected version.
+     * @param command The command JSON object containing the word and "expectedVersion".
+     * @return The reply, with the word's current "wordVersion" on a conflict.
+     */
+    JSONObject casRemoveWord(JSONObject command) {
+        JSONObject reply = new JSONObject();
+        String word = textField(command, "word");
+        if (word == null || word.isEmpty()) {
+            reply.put("output", "ERROR: No word entered!  Please enter a word to remove.");
+            return reply;
+        }
+        Object expected = command.get("expectedVersion");
+        if (!(expected instanceof Number)) {
+            reply.put("output", MISSING_EXPECTED_VERSION);
+            return reply;
+        }
+        DictionaryEngine.Result result = engine.removeWord(word, ((Number) expected).longValue());
+        if (result.isSuccess()) {
+            reply.put("output", "SUCCESS: \"" + word + "\"" + " has been removed from the dictionary.");
+        } else {
+            casFailure(result, word, expected, reply);
+        }
+        return reply;
+    }
+
+    /**
+     * Fills in the reply to a conditional write that failed the version check, or failed for a reason every write shares.
+     * @param result the engine's result
+     * @param word the word to change
+     * @param expected the "expectedVersion" of the command
+     * @param reply the reply to fill in
+     */
+    private static void casFailure(DictionaryEngine.Result result, String word, Object expected, JSONObject reply) {
+        if (result.getStatus() == DictionaryEngine.Status.VERSION_CONFLICT) {
+            reply.put("output", "ERROR: Version conflict. The word \"" + word + "\" is at version " + result.getWordVersion()
+                    + ", not " + expected + "; it was changed by another client.");
+            reply.put("wordVersion", result.getWordVersion());
+        } else if (result.getStatus() == DictionaryEngine.Status.NOT_FOUND) {
+            reply.put("output", WORD_NOT_FOUND_PREFIX + word + WORD_NOT_FOUND_SUFFIX);
+        } else {
+            reply.put("output", failure(result, word));
+        }
+    }
+
+    /**
+     * Describes a result that no command expects in normal operation.
+     * @param result the engine's result
+     * @param word the word the command named
+     * @return the error message
+     */
+    private static String failure(DictionaryEngine.Result result, String word) {
+        if (result.getStatus() == DictionaryEngine.Status.READ_ONLY) {
+            return "ERROR: The dictionary is read-only.";
+        }
+        return "ERROR: Unable to change the word \"" + word + "\" (" + result.getStatus() + ").";
+    }
+
+    /**
+     * Returns one page of words in sorted order, starting after the word encoded in the cursor.
+     * The page is read at a pinned version without the dictionary lock, and stops early if its reply would not fit in one message.
+     * Passing the same "version" for every page, e.g. one from openSnapshot, makes the whole scan a single point-in-time view.
+     * @param command The command JSON object with an optional "cursor", "limit", "withMeanings" and "version".
+     * @return The reply with "words" (or "entries" with meanings), "version" and "nextCursor", which is absent on the last page.
+     */
+    JSONObject scan(JSONObject command) {
+        JSONObject reply = new JSONObject();
+        String after;
+        try {
+            after = decodeCursor(textField(command, "cursor"));
+        } catch (IllegalArgumentException e) {
+            reply.put("output", "ERROR: Invalid scan cursor.");
+            return reply;
+        }
+        Object limitValue = command.get("limit");
+        int limit = limitValue instanceof Number ? (int) Math.max(1, Math.min(MAX_SCAN_LIMIT, ((Number) limitValue).longValue())) : DEFAULT_SCAN_LIMIT;
+        boolean withMeanings = Boolean.TRUE.equals(command.get("withMeanings"));
+
+        long version = requestedVersion(command);
+        VersionedStore store = engine.acquireStore();
+        try {
+            if (version < 0) {
+                version = store.pin();
+            } else if (!store.pin(version)) {
+                reply.put("output", versionUnavailable(version));
+                return reply;
+            }
+            try {
+                scanPage(store, reply, after, limit, withMeanings, version);
+            } finally {
+                store.unpin(version);
             }
+        } finally {
+            store.release();
+        }
+        return reply;
+    }
 
-            else {
-                			
-            	List<String> meaningList = dict.get(wordToUpdate);
-            	
-            	//Check if new meaning is duplicated in existing meaning
-            	for (String meaning:meaningList) {
-            		if (updateMeaning.toLowerCase().equals(meaning.toLowerCase())) {
-            			uniqueNewMeaning = false;
-            		}
-            	}
-
-            	// Iterate through the list and update the meaning if an existing meaning match is found
-            	for (int i = 0; i < meaningList.size(); i++) {
-            		if (existingMeaning.toLowerCase().trim().equals(meaningList.get(i).toLowerCase())) {
-            			existingMeaningMatch = true;
-            			existingMeaningIndex = i;
-            			break; // Exit the loop once the update is done
-            		}
-            	}
-            	if (!existingMeaningMatch){
-            		return  "ERROR: Existing meaning \""+ existingMeaning + "\" not found for the word " + "\"" + wordToUpdate + "\"";
-
-            	}
-            	else if (!uniqueNewMeaning) {
-            		return "ERROR: New meaning \"" + updateMeaning + "\" entered already exists for the word \"" + wordToUpdate + "\"";
-
-            	}
-            	else {
-            		meaningList.set(existingMeaningIndex, updateMeaning);
-            		return  "SUCCESS: Meaning has been updated for word " + "\""+ wordToUpdate+"\"";
-            	}
-
-		    }
+    /**
+     * Collects one scan page at a version. The caller holds a pin on the version.
+     * @param store the store to read, acquired by the caller
+     * @param reply the reply to fill in
+     * @param after the word the page starts after, or null for the first page
+     * @param limit the maximum number of words in the page
+     * @param withMeanings whether to include each word's meanings
+     * @param version the version to read at
+     */
+    private void scanPage(VersionedStore store, JSONObject reply, String after, int limit, boolean withMeanings, long version) {
+        JSONArray page = new JSONArray();
+        int replyBytes = 200; // Room for the reply's other fields
+        String last = null;
+        boolean more = false;
+        Iterator<Map.Entry<String, List<String>>> entries = store.entries(after, version);
+        while (entries.hasNext()) {
+            Map.Entry<String, List<String>> wordEntry = entries.next();
+            String word = wordEntry.getKey();
+            List<String> wordMeanings = wordEntry.getValue();
+            if (page.size() >= limit) {
+                more = true;
+                break;
+            }
+            Object item = word;
+            if (withMeanings) {
+                JSONObject entry = new JSONObject();
+                JSONArray meanings = new JSONArray();
+                meanings.addAll(wordMeanings);
+                entry.put("word", word);
+                entry.put("meanings", meanings);
+                if (utfLength(entry.toJSONString()) + 200 > SCAN_REPLY_BUDGET) {
+                    // A single word too large for one message is listed without its meanings
+                    entry.remove("meanings");
+                    entry.put("truncated", true);
+                }
+                item = entry;
+            }
+            int itemBytes = utfLength(JSONValue.toJSONString(item)) + 1;
+            if (replyBytes + itemBytes > SCAN_REPLY_BUDGET && !page.isEmpty()) {
+                more = true;
+                break;
+            }
+            replyBytes += itemBytes;
+            page.add(item);
+            last = word;
+        }
+
+        reply.put(withMeanings ? "entries" : "words", page);
+        reply.put("version", version);
+        if (more) {
+            reply.put("nextCursor", encodeCursor(last));
+        }
+        reply.put("output", "Scanned " + page.size() + " word(s)" + (more ? ", more available." : ", end of dictionary."));
+    }
+
+    /**
+     * Encodes the last word of a page as an opaque cursor.
+     * @param word the last word returned
+     * @return the cursor
+     */
+    private static String encodeCursor(String word) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(word.getBytes(StandardCharsets.UTF_8));
+    }
 
+    /**
+     * Decodes a cursor back to the word the next page starts after.
+     * @param cursor the cursor, or null or empty for the first page
+     * @return the word, or null for the first page
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    private static String decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Counts the bytes a string takes in the modified UTF-8 encoding used by writeUTF.
+     * @param text the string
+     * @return the encoded length
+     */
+    static int utfLength(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            length += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF ? 2 : 3);
+        }
+        return length;
     }
-    
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The DictionaryReloader class reloads the dictionary file while the server keeps serving requests.
+ * The file is parsed into a new store on a background thread; changes committed meanwhile are replayed onto it and it is
+ * swapped in under the dictionary lock, which is only held for the replay. Requests already reading the old store finish on it,
+ * and its memory and cold tier file are released when the last of them is done. Followers then re-bootstrap from the new contents.
+ */
+package server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+public class DictionaryReloader {
+
+    private final DictionaryHandler dictionary;
+    private final ReplicationLog replicationLog;
+    private final AtomicBoolean reloading = new AtomicBoolean();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile double lastLoadMs = 0;
+    private volatile double lastSwapPauseMs = 0;
+
+    /**
+     * Constructs a DictionaryReloader for the given dictionary.
+     * @param dictionary the dictionary to reload
+     * @param replicationLog the log whose followers are re-bootstrapped after a reload
+     */
+    public DictionaryReloader(DictionaryHandler dictionary, ReplicationLog replicationLog) {
+        this.dictionary = dictionary;
+        this.replicationLog = replicationLog;
+    }
+
+    /**
+     * Starts reloading the dictionary in the background.
+     * @param command The command JSON object with an optional "file" to load instead of the server's own dictionary file.
+     * The loaded contents are saved to the server's own file either way.
+     * @return A success message once the reload has started, or an error message.
+     */
+    String reload(JSONObject command) {
+        String requested = (String) command.get("file");
+        String source = requested == null || requested.isEmpty() ? dictionary.getEngine().getFileName() : requested;
+        if (!Files.isReadable(Paths.get(source))) {
+            return "ERROR: Unable to read \"" + source + "\".";
+        }
+        if (!reloading.compareAndSet(false, true)) {
+            return "ERROR: A reload is already in progress.";
+        }
+        Thread loader = new Thread(() -> run(source), "dictionary-reload");
+        loader.setDaemon(true);
+        loader.start();
+        return "SUCCESS: Reloading \"" + source + "\" in the background. Requests are served from the current contents until it is loaded.";
+    }
+
+    /**
+     * Loads the file, swaps the new store in and logs how long each step took.
+     * @param source the file to load
+     */
+    private void run(String source) {
+        long started = System.nanoTime();
+        DictionaryEngine engine = dictionary.getEngine();
+        long baseVersion = engine.beginReload();
+        Path copy = null;
+        try {
+            boolean ownFile = source.equals(engine.getFileName());
+            if (ownFile) {
+                // Saves may rewrite the file while it is being parsed
+                copy = engine.copyDataFile();
+            }
+            VersionedStore loaded = engine.loadStore(ownFile ? copy.toString() : source, baseVersion);
+            lastLoadMs = (System.nanoTime() - started) / 1e6;
+
+            int replayed;
+            synchronized (engine) {
+                long swapStarted = System.nanoTime();
+                replayed = engine.swapStore(loaded);
+                lastSwapPauseMs = (System.nanoTime() - swapStarted) / 1e6;
+            }
+            reloads.incrementAndGet();
+            replicationLog.resyncFollowers();
+            if (!ownFile || replayed > 0) {
+                dictionary.saveDataToFile();
+            }
+            DictionaryServer.logToGui(String.format("Reloaded \"%s\" in %.1f ms; swapping it in paused requests for %.3f ms (%d change(s) replayed).",
+                    source, lastLoadMs, lastSwapPauseMs, replayed));
+        } catch (IOException | UncheckedIOException | ParseException e) {
+            engine.abortReload();
+            failures.incrementAndGet();
+            DictionaryServer.logToGui("Reload of \"" + source + "\" failed, keeping the current contents: " + e);
+        } finally {
+            if (copy != null) {
+                try {
+                    Files.deleteIfExists(copy);
+                } catch (IOException e) {
+                }
+            }
+            reloading.set(false);
+        }
+    }
+
+    /**
+     * Adds the reload statistics to the server metrics.
+     * @param metrics the metrics to add to
+     */
+    void collect(JSONObject metrics) {
+        metrics.put("reload.count", reloads.get());
+        metrics.put("reload.failures", failures.get());
+        metrics.put("reload.inProgress", reloading.get());
+        metrics.put("reload.lastLoadMs", lastLoadMs);
+        metrics.put("reload.lastSwapPauseMs", lastSwapPauseMs);
+    }
+}
@@ -4,6 +4,7 @@
  */
 package server;
 
+import java.awt.GraphicsEnvironment;
 import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
@@ -12,13 +13,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -27,88 +30,271 @@ import java.util.Scanner;
 
 import javax.swing.SwingUtilities;
 
+import common.AdmissionHandshake;
+import common.FrameCodec;
+
 public class DictionaryServer {
 
     private final int port;
     private final WorkerPool workerPool;
-    private static final List<Socket> clientSockets = new ArrayList<>();
-    private static ServerSocket serverSocket;
-    private static DictionaryHandler dictionary;
+    private volatile ConnectionAcceptor acceptor;
+    private final AtomicInteger clientCount = new AtomicInteger();
+    private final DictionaryHandler dictionary;
     private static DictionaryServerGUI serverGui;
     private static int poolSize;
+    private final ServerOptions options;
+    private final ReplicationLog replicationLog;
+    private final ReplicationFollower follower;
+    private final ShardRebalancer shardRebalancer;
+    private final DictionaryReloader dictionaryReloader;
+    private final ConnectionRegistry connectionRegistry;
+    private final RequestScheduler requestScheduler;
+    private final HotKeyTracker hotKeyTracker;
+    private final UdpLookupServer udpLookupServer;
+    private final DictionaryAnalytics dictionaryAnalytics;
+    private final FrameCodec.Stats compressionStats = new FrameCodec.Stats();
+    private final BulkImport.Stats importStats = new BulkImport.Stats();
     
     /**
      * Constructor to initialise the DictionaryServer with the given port, thread pool size, and dictionary file.
      * @param port the port number on which the server listens
      * @param threadPoolSize the number of threads in the worker pool
      * @param fileName the name of the dictionary file
+     * @param options the optional server settings, e.g. "--leader host:port" to run as a read-only replica
      * @throws IOException if an I/O error occurs
      */
-    public DictionaryServer(int port, int threadPoolSize, String fileName) throws IOException {
+    public DictionaryServer(int port, int threadPoolSize, String fileName, ServerOptions options) throws IOException {
     	this.port = port;
-    	this.workerPool = new WorkerPool(threadPoolSize);
-    	dictionary = new DictionaryHandler(fileName);
-    	serverGui = new DictionaryServerGUI(this);
-        SwingUtilities.invokeLater(() -> serverGui.setVisible(true));
+    	this.options = options;
+    	this.workerPool = new WorkerPool(threadPoolSize, options.getLong("max-wait-ms", 0));
+    	if (options.has("leader") && !Files.exists(Paths.get(fileName))) {
+    		// A replica receives its contents from the leader, so start from an empty file
+    		Files.write(Paths.get(fileName), "{}".getBytes());
+    	}
+    	dictionary = new DictionaryHandler(fileName, options.getInt("hot-tier-size", 0));
+    	replicationLog = new ReplicationLog(dictionary);
+    	follower = options.has("leader") ? new ReplicationFollower(options.get("leader", null), dictionary) : null;
+    	shardRebalancer = new ShardRebalancer(dictionary, replicationLog);
+    	dictionaryReloader = new DictionaryReloader(dictionary, replicationLog);
+    	connectionRegistry = new ConnectionRegistry(options.getInt("max-connections", 0), options.getLong("idle-timeout-ms", 0));
+    	int clientRate = options.getInt("client-rate", 0);
+    	requestScheduler = new RequestScheduler(options.getInt("scheduler-threads", threadPoolSize), clientRate,
+    			options.getInt("client-burst", Math.max(1, clientRate)));
+    	dictionaryAnalytics = new DictionaryAnalytics(options.getInt("analytics-threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+    			dictionary, requestScheduler);
+    	hotKeyTracker = new HotKeyTracker(options.getLong("hot-key-decay-ms", 60000));
+    	udpLookupServer = options.has("udp-port") ? new UdpLookupServer(options.getInt("udp-port", 0), this, dictionary) : null;
+    	if (!isHeadless()) {
+    		serverGui = new DictionaryServerGUI(this);
+    		SwingUtilities.invokeLater(() -> serverGui.setVisible(true));
+    	}
     }
     
     /**
      * Starts the server, accepts client connections, and processes requests using the worker pool.
+     * Connections are accepted by "--acceptors" threads (default 1) from listening sockets with an accept queue of
+     * "--accept-backlog" connections (default 50), and set up on "--setup-threads" separate threads (default: the number of
+     * cores, at least 2). Returns only once the server stops.
      * @throws IOException if an I/O error occurs
      */
     void start() throws IOException {
     	System.out.println("Server started");
     	InetAddress ip = InetAddress.getLocalHost(); //get the local IP address
-    	serverSocket = new ServerSocket(port);
+    	int setupThreads = options.getInt("setup-threads", Math.max(2, Runtime.getRuntime().availableProcessors()));
+    	acceptor = new ConnectionAcceptor(port, options.getInt("acceptors", 1), options.getInt("accept-backlog", 50),
+    			setupThreads, this::setUpConnection);
     	logToGui("Server running on port " + port);
     	logToGui("Current IP address : " + ip.getHostAddress());
     	logToGui("Port : " + port);	
     	logToGui("Number of threads available : " + poolSize);	
+    	logToGui("Acceptor threads : " + options.getInt("acceptors", 1) + (acceptor.usesReusePort() ? " (one SO_REUSEPORT socket each)" : ""));
+    	logToGui("Connection setup threads : " + setupThreads);
+    	if (follower != null) {
+    		logToGui("Running as read-only replica of " + follower.getLeaderAddress());
+    		Thread followerThread = new Thread(follower, "replication-follower");
+    		followerThread.setDaemon(true);
+    		followerThread.start();
+    	}
+    	if (udpLookupServer != null) {
+    		logToGui("Serving UDP lookups on port " + udpLookupServer.getPort());
+    		Thread udpThread = new Thread(udpLookupServer, "udp-lookups");
+    		udpThread.setDaemon(true);
+    		udpThread.start();
+    	}
     	logToGui("Waiting for client connection...\n------------------------------------------");
-    	int clientCount = 0;
+    	acceptor.run();
+    }
 
-    	while (true) {
-    		//Accepts client connection
-    		Socket clientSocket = serverSocket.accept();
-    		clientSockets.add(clientSocket);
-    		clientCount++;
-    		logToGui("Client " + clientCount +" connected.");
-    		clientSocket.getOutputStream().write(WorkerPool.getNumberOfAvailableThreads());
+    /**
+     * Registers a newly accepted connection and queues it for a worker thread, or refuses it if the server is full.
+     * Runs on a setup thread, so that the acceptors are never held up by it.
+     * @param clientSocket the accepted connection
+     */
+    private void setUpConnection(Socket clientSocket) {
+    	RequestEvents.Accept acceptEvent = new RequestEvents.Accept();
+    	acceptEvent.begin();
+    	int clientNumber = clientCount.incrementAndGet();
+    	ConnectionRegistry.Connection connection = connectionRegistry.register(clientNumber, clientSocket);
+    	if (connection == null) {
+    		logToGui("Client " + clientNumber + " refused, the limit of " + connectionRegistry.getMaxConnections() + " connections has been reached.");
+    		refuseConnection(clientSocket, "Server has reached its limit of " + connectionRegistry.getMaxConnections() + " connections");
+    		return;
+    	}
+    	logToGui("Client " + clientNumber +" connected.");
 
+    	try {
     		//Encapsulate a client connection as a task
-    		ThreadHandler clientHandler = new ThreadHandler(clientSocket, clientCount,dictionary);
+    		ThreadHandler clientHandler = new ThreadHandler(clientSocket, clientNumber, dictionary, this, connection);
     		//Add the client task to the queue
     		workerPool.submitTask(clientHandler);
-    		}
-
+    	} catch (IOException e) {
+    		logToGui("Client " + clientNumber + " disconnected before it could be queued: " + e.getMessage());
+    		connectionRegistry.remove(clientNumber);
+    		connection.close();
+    	}
+    	acceptEvent.finish(clientNumber);
     }
-    
+
     /**
      * Stops the server and closes all client connections.
      * @throws IOException if an I/O error occurs
      */
     void stop() throws IOException {
     	System.out.println("Server terminated.");
-    	if (serverSocket!=null) {
-	    	serverSocket.close();
-	    	for (Socket eachSocket : clientSockets) {eachSocket.close();}
+    	if (acceptor != null) {
+	    	acceptor.close();
+	    	connectionRegistry.closeAll();
     	}
         System.exit(0);
     }
     
     /**
-     * Sends a prompt to a specific client.
-     * @param clientNumber the index of the client in the clientSockets list
-     * @throws IOException if an I/O error occurs
+     * Sends a rejection to a connection that will not be queued, then closes it.
+     * @param clientSocket the refused connection
+     * @param reason the reason shown to the client
      */
-    static void promptClient(int clientNumber) throws IOException {
-    	if (clientNumber+1<= clientSockets.size()) {
-        	Socket client = clientSockets.get(clientNumber);
-        	client.getOutputStream().write(WorkerPool.getNumberOfAvailableThreads());
+    private void refuseConnection(Socket clientSocket, String reason) {
+    	try (Socket socket = clientSocket) {
+    		JSONObject message = AdmissionHandshake.message(AdmissionHandshake.REJECTED);
+    		message.put("reason", reason);
+    		new DataOutputStream(socket.getOutputStream()).writeUTF(message.toJSONString());
+    	} catch (IOException e) {
+    		// The client has already gone
     	}
+    }
 
+    /**
+     * Returns the registry of open client connections.
+     * @return the connection registry
+     */
+    ConnectionRegistry getConnectionRegistry() {
+    	return connectionRegistry;
     }
-    
+
+    /**
+     * Returns the scheduler that runs dictionary requests in priority and fairness order.
+     * @return the request scheduler
+     */
+    RequestScheduler getRequestScheduler() {
+    	return requestScheduler;
+    }
+
+    /**
+     * Returns the UDP lookup server.
+     * @return the UDP lookup server, or null if "--udp-port" was not given
+     */
+    UdpLookupServer getUdpLookupServer() {
+    	return udpLookupServer;
+    }
+
+    /**
+     * Returns the traffic statistics of the connections that negotiated compression.
+     * @return the compression statistics
+     */
+    FrameCodec.Stats getCompressionStats() {
+    	return compressionStats;
+    }
+
+    /**
+     * Returns the statistics of the "import" sessions.
+     * @return the import statistics
+     */
+    BulkImport.Stats getImportStats() {
+    	return importStats;
+    }
+
+    /**
+     * Returns the tracker of the most requested words and most active clients.
+     * @return the hot key tracker
+     */
+    HotKeyTracker getHotKeyTracker() {
+    	return hotKeyTracker;
+    }
+
+    /**
+     * Returns the replication log that ships this server's mutations to its followers.
+     * @return the replication log
+     */
+    ReplicationLog getReplicationLog() {
+    	return replicationLog;
+    }
+
+    /**
+     * Returns the follower that keeps this server in sync with its leader.
+     * @return the follower, or null if this server is a leader
+     */
+    ReplicationFollower getFollower() {
+    	return follower;
+    }
+
+    /**
+     * Returns the rebalancer that moves words to other shards when the hash ring changes.
+     * @return the shard rebalancer
+     */
+    ShardRebalancer getShardRebalancer() {
+    	return shardRebalancer;
+    }
+
+    /**
+     * Returns the component that analyses the dictionary for the "analyze" command.
+     * @return the dictionary analytics
+     */
+    DictionaryAnalytics getDictionaryAnalytics() {
+    	return dictionaryAnalytics;
+    }
+
+    /**
+     * Returns the acceptor taking new connections off the listening sockets.
+     * @return the acceptor, or null if the server has not started
+     */
+    ConnectionAcceptor getConnectionAcceptor() {
+    	return acceptor;
+    }
+
+    /**
+     * Returns the handler that answers dictionary commands, over the engine holding the dictionary.
+     * @return the dictionary handler
+     */
+    DictionaryHandler getDictionary() {
+    	return dictionary;
+    }
+
+    /**
+     * Returns the reloader that replaces the dictionary contents from its file while the server runs.
+     * @return the dictionary reloader
+     */
+    DictionaryReloader getDictionaryReloader() {
+    	return dictionaryReloader;
+    }
+
+    /**
+     * Checks whether the server runs without a control panel, either because "--headless" was given or no display is available.
+     * @return true if the server should start immediately and log to standard output
+     */
+    boolean isHeadless() {
+    	return options.has("headless") || GraphicsEnvironment.isHeadless();
+    }
+
     /**
      * Logs messages to the GUI's output pane.
      * @param message the message to log
@@ -119,7 +305,7 @@ public class DictionaryServer {
 
     /**
      * Main method to start the server application.
-     * @param args command-line arguments: <port> <pool-size> <dictionary-file>
+     * @param args command-line arguments: <port> <pool-size> <dictionary-file> [--headless] [--leader host:port] [--max-wait-ms ms] [--max-connections n] [--idle-timeout-ms ms]
      */
     public static void main(String[] args) {
     	try {
@@ -130,10 +316,14 @@ public class DictionaryServer {
             int port = Integer.parseInt(args[0]); // Example port number
             poolSize = Integer.parseInt(args[1]);
             String fileName = args[2];
-            DictionaryServer server = new DictionaryServer(port,poolSize, fileName);
+            ServerOptions options = new ServerOptions(args, 3);
+            DictionaryServer server = new DictionaryServer(port,poolSize, fileName, options);
+            if (server.isHeadless()) {
+            	server.start();
+            }
             
     	}catch (NumberFormatException e) {
-    		System.err.println("Error: Invalid format for port number or worker pool size");
+    		System.err.println("Error: Invalid format for port number, worker pool size or leader address");
             System.exit(1);
         } catch (UnknownHostException e) {
         	System.err.println("Unknown Host. Please try again");
@@ -139,10 +139,14 @@ public class DictionaryServerGUI extends JFrame {
     }
 
     /**
-     * Logs a message to the output pane.
+     * Logs a message to the output pane, or to standard output when the server runs headless.
      * @param message the message to log
      */
     static void logToOutputPane(String message) {
+        if (outputPane == null) {
+            System.out.println(message);
+            return;
+        }
         SwingUtilities.invokeLater(() -> {
             outputPane.append(message + "\n"); // Append to existing text
         });
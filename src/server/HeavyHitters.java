@@ -0,0 +1,150 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The HeavyHitters class finds the most frequent keys of an unbounded stream in fixed memory.
+ * A Count-Min sketch estimates every key's count, and a min-heap keeps the K keys with the highest estimates.
+ * All counts are halved once per decay period, so the ranking follows recent traffic rather than all-time totals.
+ */
+package server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+public class HeavyHitters {
+
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = { 0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F };
+
+    private final int width;
+    private final int capacity;
+    private final long decayPeriodNanos;
+    private final long[][] sketch;
+    // The top K keys by estimated count, smallest first, with an index to find a key's entry
+    private final PriorityQueue<Entry> heap = new PriorityQueue<>();
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long total = 0;
+    private long nextDecayAt;
+
+    /**
+     * Constructs an empty tracker.
+     * @param width the number of counters per sketch row, rounded up to a power of two; the count error is about total / width
+     * @param capacity the number of top keys kept
+     * @param decayPeriodMs how often all counts are halved
+     */
+    public HeavyHitters(int width, int capacity, long decayPeriodMs) {
+        this.width = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+        this.capacity = capacity;
+        this.decayPeriodNanos = decayPeriodMs * 1_000_000L;
+        this.sketch = new long[DEPTH][this.width];
+        this.nextDecayAt = System.nanoTime() + decayPeriodNanos;
+    }
+
+    /**
+     * Counts one occurrence of a key.
+     * @param key the key
+     */
+    synchronized void add(String key) {
+        long now = System.nanoTime();
+        if (now - nextDecayAt >= 0) {
+            decay();
+            nextDecayAt = now + decayPeriodNanos;
+        }
+        total++;
+        int hash = key.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            long[] counters = sketch[row];
+            int index = bucket(hash, row);
+            estimate = Math.min(estimate, ++counters[index]);
+        }
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            // The heap orders by count, so the entry is re-inserted with its new estimate
+            heap.remove(entry);
+            entry.count = estimate;
+            heap.add(entry);
+        } else if (heap.size() < capacity) {
+            insert(key, estimate);
+        } else if (estimate > heap.peek().count) {
+            entries.remove(heap.poll().key);
+            insert(key, estimate);
+        }
+    }
+
+    private void insert(String key, long count) {
+        Entry entry = new Entry(key, count);
+        entries.put(key, entry);
+        heap.add(entry);
+    }
+
+    /**
+     * Picks a key's counter in one sketch row.
+     * @param hash the key's hash code
+     * @param row the sketch row
+     * @return the counter index
+     */
+    private int bucket(int hash, int row) {
+        int mixed = hash * SEEDS[row];
+        mixed ^= mixed >>> 15;
+        return mixed & (width - 1);
+    }
+
+    /**
+     * Halves every count. Halving keeps the heap order, so the heap needs no rebuilding.
+     */
+    private void decay() {
+        for (long[] counters : sketch) {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] >>= 1;
+            }
+        }
+        for (Entry entry : heap) {
+            entry.count >>= 1;
+        }
+        total >>= 1;
+    }
+
+    /**
+     * Returns the tracked keys with the highest estimated counts.
+     * @param limit the maximum number of keys
+     * @return the keys and their estimated counts, highest first
+     */
+    synchronized List<Map.Entry<String, Long>> top(int limit) {
+        List<Entry> sorted = new ArrayList<>(heap);
+        sorted.sort((a, b) -> Long.compare(b.count, a.count));
+        List<Map.Entry<String, Long>> result = new ArrayList<>();
+        for (Entry entry : sorted) {
+            if (result.size() >= limit || entry.count == 0) {
+                break;
+            }
+            result.add(Map.entry(entry.key, entry.count));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the decayed number of occurrences counted, which puts the top counts in proportion.
+     * @return the decayed total
+     */
+    synchronized long getTotal() {
+        return total;
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final String key;
+        long count;
+
+        Entry(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(count, other.count);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The HotKeyTracker class records which words and which clients drive the server's traffic, separately for reads and writes,
+ * for the "hotKeys" command and the metrics. It is fed from the request path, so every update runs in fixed time and memory.
+ */
+package server;
+
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+public class HotKeyTracker {
+    private static final int SKETCH_WIDTH = 4096;
+    private static final int TOP_KEYS = 32;
+    static final int DEFAULT_REPORT_LIMIT = 10;
+
+    private final HeavyHitters readWords;
+    private final HeavyHitters writeWords;
+    private final HeavyHitters readClients;
+    private final HeavyHitters writeClients;
+
+    /**
+     * Constructs a HotKeyTracker.
+     * @param decayPeriodMs how often all counts are halved, so that the ranking follows recent traffic
+     */
+    public HotKeyTracker(long decayPeriodMs) {
+        readWords = new HeavyHitters(SKETCH_WIDTH, TOP_KEYS, decayPeriodMs);
+        writeWords = new HeavyHitters(SKETCH_WIDTH, TOP_KEYS, decayPeriodMs);
+        readClients = new HeavyHitters(SKETCH_WIDTH, TOP_KEYS, decayPeriodMs);
+        writeClients = new HeavyHitters(SKETCH_WIDTH, TOP_KEYS, decayPeriodMs);
+    }
+
+    /**
+     * Records one request.
+     * @param write whether the request changes the dictionary
+     * @param word the word the request is about, or null if it has none, e.g. a scan
+     * @param client the client's address
+     */
+    void record(boolean write, String word, String client) {
+        if (word != null && !word.isEmpty()) {
+            (write ? writeWords : readWords).add(word);
+        }
+        (write ? writeClients : readClients).add(client);
+    }
+
+    /**
+     * Builds the reply of the "hotKeys" command.
+     * @param limit the number of keys to list per category
+     * @return the reply, with the ranking as text in "output" and as JSON in "hotKeys"
+     */
+    JSONObject report(int limit) {
+        JSONObject hotKeys = new JSONObject();
+        StringBuilder result = new StringBuilder("Hot keys (decayed request counts):\n");
+        append(hotKeys, result, "readWords", readWords, limit);
+        append(hotKeys, result, "writeWords", writeWords, limit);
+        append(hotKeys, result, "readClients", readClients, limit);
+        append(hotKeys, result, "writeClients", writeClients, limit);
+        JSONObject reply = new JSONObject();
+        reply.put("output", result.toString());
+        reply.put("hotKeys", hotKeys);
+        return reply;
+    }
+
+    private static void append(JSONObject hotKeys, StringBuilder result, String category, HeavyHitters tracker, int limit) {
+        List<Map.Entry<String, Long>> top = tracker.top(limit);
+        long total = tracker.getTotal();
+        JSONArray ranking = new JSONArray();
+        result.append(category).append(" (of ").append(total).append("):\n");
+        int rank = 1;
+        for (Map.Entry<String, Long> entry : top) {
+            JSONObject item = new JSONObject();
+            item.put("key", entry.getKey());
+            item.put("count", entry.getValue());
+            ranking.add(item);
+            result.append("  ").append(rank++).append(". ").append(entry.getKey()).append(" ").append(entry.getValue()).append("\n");
+        }
+        hotKeys.put(category, ranking);
+    }
+
+    /**
+     * Adds the hottest key of each category to the server metrics.
+     * @param metrics the metrics to add to
+     */
+    void collect(JSONObject metrics) {
+        collect(metrics, "readWords", readWords);
+        collect(metrics, "writeWords", writeWords);
+        collect(metrics, "readClients", readClients);
+        collect(metrics, "writeClients", writeClients);
+    }
+
+    private static void collect(JSONObject metrics, String category, HeavyHitters tracker) {
+        List<Map.Entry<String, Long>> top = tracker.top(1);
+        metrics.put("hotKeys." + category + ".total", tracker.getTotal());
+        metrics.put("hotKeys." + category + ".top", top.isEmpty() ? "" : top.get(0).getKey());
+        metrics.put("hotKeys." + category + ".topCount", top.isEmpty() ? 0 : top.get(0).getValue());
+    }
+}
@@ -0,0 +1,576 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The LegacyCodec class reads and writes the messages of a connection that uses the original framing, where every message is
+ * a JSON object sent with writeUTF. getMeaning, by far the most frequent request, is decoded straight from the frame's bytes
+ * and its reply is encoded into a buffer the connection reuses, so that a lookup builds no strings, maps or parser state
+ * beyond the word itself. The reply is byte for byte what json-simple and writeUTF produce, so clients cannot tell the paths
+ * apart. Any other message, or a getMeaning this decoder does not fully understand, is returned as text for the general path.
+ */
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.util.List;
+
+final class LegacyCodec {
+    private static final int MAX_FRAME_BYTES = 65535;
+    private static final String GET_MEANING = "getMeaning";
+    private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+    // Starts small and grows to the largest frame the connection has sent, so idle connections do not hold 64 KB each
+    private byte[] frame = new byte[256];
+    private int frameLength;
+    private int position;
+    private char[] chars = new char[256];
+    private byte[] reply = new byte[1024];
+    private int replyLength;
+
+    // The fields of the getMeaning request last decoded
+    private String word;
+    private long version;
+    private boolean normalize;
+    private boolean traced;
+    private long traceId;
+    private long timeoutMs;
+    private final DictionaryEngine.Lookup lookup = new DictionaryEngine.Lookup();
+    // The error for a version that is no longer readable, built only when a lookup hits one
+    private String versionError;
+
+    /**
+     * Reads the next frame, as readUTF would, into the connection's frame buffer.
+     * @param input the connection's input stream
+     * @throws IOException if the connection fails
+     */
+    void readFrame(DataInputStream input) throws IOException {
+        frameLength = input.readUnsignedShort();
+        if (frameLength > frame.length) {
+            frame = new byte[Math.min(MAX_FRAME_BYTES, Math.max(frameLength, frame.length * 2))];
+        }
+        input.readFully(frame, 0, frameLength);
+    }
+
+    /**
+     * Returns the frame last read as text, as readUTF would have returned it.
+     * @return the message
+     * @throws UTFDataFormatException if the frame is not valid modified UTF-8
+     */
+    String frameText() throws UTFDataFormatException {
+        position = 0;
+        int length = 0;
+        ensureChars(frameLength);
+        while (position < frameLength) {
+            int c = decodeChar();
+            if (c < 0) {
+                throw new UTFDataFormatException("malformed input around byte " + position);
+            }
+            chars[length++] = (char) c;
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Decodes the frame last read if it is a getMeaning request this codec can answer by itself: a flat JSON object whose
+     * "word" is a string, with at most a whole-number "version", a boolean "normalize" and a whole-number "traceId" and
+     * "timeoutMs", and none of the options that ask for part of the meanings.
+     * @return true if the request was decoded; false if the general path must parse it
+     */
+    boolean decodeLookup() {
+        position = 0;
+        word = null;
+        version = -1;
+        normalize = false;
+        traced = false;
+        traceId = 0;
+        timeoutMs = 0;
+        boolean getMeaning = false;
+        skipWhitespace();
+        if (!consume('{')) {
+            return false;
+        }
+        skipWhitespace();
+        if (consume('}')) {
+            return false;
+        }
+        do {
+            skipWhitespace();
+            int keyLength = readString();
+            skipWhitespace();
+            if (keyLength < 0 || !consume(':')) {
+                return false;
+            }
+            if (keyIs("countOnly", keyLength) || keyIs("offset", keyLength) || keyIs("limit", keyLength) || keyIs("format", keyLength)) {
+                // Asks for part of the meanings, which only the general path projects
+                return false;
+            }
+            skipWhitespace();
+            if (position >= frameLength) {
+                return false;
+            }
+            byte first = frame[position];
+            if (first == '"') {
+                int valueStart = keyLength;
+                int valueLength = readString(valueStart);
+                if (valueLength < 0) {
+                    return false;
+                }
+                if (keyIs("command", keyLength)) {
+                    getMeaning = equals(GET_MEANING, valueStart, valueLength);
+                    if (!getMeaning) {
+                        return false;
+                    }
+                } else if (keyIs("word", keyLength)) {
+                    word = new String(chars, valueStart, valueLength);
+                } else if (keyIs("version", keyLength) || keyIs("normalize", keyLength) || keyIs("traceId", keyLength)) {
+                    // Read by the general path with different results from the values handled here
+                    return false;
+                }
+            } else if (first == '-' || (first >= '0' && first <= '9')) {
+                long number = readLong();
+                if (number == Long.MIN_VALUE) {
+                    return false;
+                }
+                if (keyIs("version", keyLength)) {
+                    version = number;
+                } else if (keyIs("traceId", keyLength)) {
+                    traced = true;
+                    traceId = number;
+                } else if (keyIs("timeoutMs", keyLength)) {
+                    timeoutMs = number;
+                } else if (keyIs("command", keyLength) || keyIs("word", keyLength) || keyIs("normalize", keyLength)) {
+                    return false;
+                }
+            } else if (first == 't' || first == 'f') {
+                boolean value = first == 't';
+                if (!consumeLiteral(value ? "true" : "false")) {
+                    return false;
+                }
+                if (keyIs("normalize", keyLength)) {
+                    normalize = value;
+                } else if (keyIs("command", keyLength) || keyIs("word", keyLength) || keyIs("version", keyLength) || keyIs("traceId", keyLength)) {
+                    return false;
+                }
+            } else if (consumeLiteral("null")) {
+                if (keyIs("command", keyLength) || keyIs("word", keyLength)) {
+                    return false;
+                } else if (keyIs("version", keyLength)) {
+                    version = -1;
+                } else if (keyIs("normalize", keyLength)) {
+                    normalize = false;
+                } else if (keyIs("traceId", keyLength)) {
+                    traced = true;
+                    traceId = 0;
+                } else if (keyIs("timeoutMs", keyLength)) {
+                    timeoutMs = 0;
+                }
+            } else {
+                // Nested arrays and objects are left to the general path
+                return false;
+            }
+            skipWhitespace();
+        } while (consume(','));
+        if (!consume('}')) {
+            return false;
+        }
+        skipWhitespace();
+        return position == frameLength && getMeaning && word != null;
+    }
+
+    /**
+     * Returns the word of the getMeaning request last decoded.
+     * @return the word
+     */
+    String getWord() {
+        return word;
+    }
+
+    /**
+     * Returns the trace id of the getMeaning request last decoded.
+     * @return the trace id, or 0 if the request is not traced
+     */
+    long getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Returns the time the client of the getMeaning request last decoded waits for the reply.
+     * @return the "timeoutMs", or 0 if the request has none
+     */
+    long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Returns whether the getMeaning request last decoded carried a "traceId".
+     * @return true if the reply must echo the trace id
+     */
+    boolean isTraced() {
+        return traced;
+    }
+
+    /**
+     * Looks up the word of the getMeaning request last decoded, keeping the result for writeReply().
+     * @param dictionary the dictionary to read
+     */
+    void lookup(DictionaryHandler dictionary) {
+        if (!word.isEmpty()) {
+            dictionary.getEngine().lookup(word, version, normalize, lookup);
+            if (lookup.versionUnavailable) {
+                versionError = dictionary.versionUnavailable(version);
+            }
+        }
+    }
+
+    /**
+     * Writes the reply to the getMeaning request last looked up, with its fields in the order json-simple would write them.
+     * @param output the connection's output stream; not flushed
+     * @throws IOException if the connection fails or the reply is too long for writeUTF
+     */
+    void writeReply(DataOutputStream output) throws IOException {
+        replyLength = 2;
+        // json-simple writes a HashMap's keys in bucket order: "output" and "traceId" share the first bucket, and "word"
+        // and "wordVersion" a later one, each group in the order the keys were put
+        putAscii("{\"output\":\"");
+        VersionedStore.Version entry = null;
+        if (word.isEmpty()) {
+            putEscaped(DictionaryHandler.NO_WORD_ENTERED);
+        } else if (lookup.versionUnavailable) {
+            putEscaped(versionError);
+        } else if (lookup.entry == null) {
+            putEscaped(DictionaryHandler.WORD_NOT_FOUND_PREFIX);
+            putEscaped(word);
+            putEscaped(DictionaryHandler.WORD_NOT_FOUND_SUFFIX);
+        } else {
+            entry = lookup.entry;
+            putEscaped("Meaning(s):\n");
+            List<String> meanings = entry.meanings;
+            for (int i = 0; i < meanings.size(); i++) {
+                putNumber(i + 1);
+                putEscaped(". ");
+                putTrimmed(meanings.get(i));
+                putEscaped("\n");
+            }
+        }
+        putByte('"');
+        if (traced) {
+            putAscii(",\"traceId\":");
+            putNumber(traceId);
+        }
+        if (entry != null) {
+            if (normalize) {
+                putAscii(",\"word\":\"");
+                putEscaped(lookup.spelling);
+                putByte('"');
+            }
+            putAscii(",\"wordVersion\":");
+            putNumber(entry.sequence);
+        }
+        putByte('}');
+        lookup.entry = null;
+        lookup.spelling = null;
+        versionError = null;
+
+        int length = replyLength - 2;
+        if (length > MAX_FRAME_BYTES) {
+            throw new UTFDataFormatException("encoded string too long: " + length + " bytes");
+        }
+        reply[0] = (byte) (length >>> 8);
+        reply[1] = (byte) length;
+        output.write(reply, 0, replyLength);
+    }
+
+    /**
+     * Decodes one modified UTF-8 character of the frame.
+     * @return the character, or -1 if the bytes are malformed
+     */
+    private int decodeChar() {
+        int a = frame[position] & 0xFF;
+        if (a < 0x80) {
+            position++;
+            return a;
+        }
+        if ((a & 0xE0) == 0xC0) {
+            if (position + 1 >= frameLength || (frame[position + 1] & 0xC0) != 0x80) {
+                return -1;
+            }
+            int c = ((a & 0x1F) << 6) | (frame[position + 1] & 0x3F);
+            position += 2;
+            return c;
+        }
+        if ((a & 0xF0) == 0xE0) {
+            if (position + 2 >= frameLength || (frame[position + 1] & 0xC0) != 0x80 || (frame[position + 2] & 0xC0) != 0x80) {
+                return -1;
+            }
+            int c = ((a & 0x0F) << 12) | ((frame[position + 1] & 0x3F) << 6) | (frame[position + 2] & 0x3F);
+            position += 3;
+            return c;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a JSON string into the start of the character buffer.
+     * @return its length, or -1 if it is not a string this decoder handles
+     */
+    private int readString() {
+        return readString(0);
+    }
+
+    /**
+     * Reads a JSON string into the character buffer, unescaping it.
+     * @param offset where in the character buffer to put it
+     * @return its length, or -1 if it is not a string this decoder handles
+     */
+    private int readString(int offset) {
+        if (!consume('"')) {
+            return -1;
+        }
+        ensureChars(offset + frameLength - position);
+        int length = 0;
+        while (position < frameLength) {
+            int c = frame[position] & 0xFF;
+            if (c == '"') {
+                position++;
+                return length;
+            }
+            if (c < 0x20) {
+                // Raw control characters are left to json-simple to accept or reject
+                return -1;
+            }
+            if (c == '\\') {
+                if (position + 1 >= frameLength) {
+                    return -1;
+                }
+                byte escape = frame[position + 1];
+                position += 2;
+                switch (escape) {
+                    case '"': c = '"'; break;
+                    case '\\': c = '\\'; break;
+                    case '/': c = '/'; break;
+                    case 'b': c = '\b'; break;
+                    case 'f': c = '\f'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    case 'u':
+                        c = readHex();
+                        if (c < 0) {
+                            return -1;
+                        }
+                        break;
+                    default:
+                        return -1;
+                }
+            } else {
+                c = decodeChar();
+                if (c < 0x20) {
+                    return -1;
+                }
+            }
+            chars[offset + length++] = (char) c;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the four hex digits of a unicode escape.
+     * @return the character, or -1 if the digits are malformed
+     */
+    private int readHex() {
+        if (position + 4 > frameLength) {
+            return -1;
+        }
+        int c = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(frame[position++], 16);
+            if (digit < 0) {
+                return -1;
+            }
+            c = (c << 4) | digit;
+        }
+        return c;
+    }
+
+    /**
+     * Reads a whole JSON number, as json-simple would read it into a Long.
+     * @return the number, or Long.MIN_VALUE if it has a fraction or exponent or may not fit in a long
+     */
+    private long readLong() {
+        boolean negative = consume('-');
+        int start = position;
+        long value = 0;
+        while (position < frameLength && frame[position] >= '0' && frame[position] <= '9') {
+            value = value * 10 + (frame[position++] - '0');
+        }
+        int digits = position - start;
+        if (digits == 0 || digits > 18 || (digits > 1 && frame[start] == '0')) {
+            return Long.MIN_VALUE;
+        }
+        if (position < frameLength && (frame[position] == '.' || frame[position] == 'e' || frame[position] == 'E')) {
+            return Long.MIN_VALUE;
+        }
+        return negative ? -value : value;
+    }
+
+    private void skipWhitespace() {
+        while (position < frameLength) {
+            byte b = frame[position];
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private boolean consume(char expected) {
+        if (position < frameLength && frame[position] == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean consumeLiteral(String literal) {
+        if (position + literal.length() > frameLength) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (frame[position + i] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        position += literal.length();
+        return true;
+    }
+
+    private boolean keyIs(String key, int keyLength) {
+        return equals(key, 0, keyLength);
+    }
+
+    private boolean equals(String text, int offset, int length) {
+        if (text.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars[offset + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureChars(int capacity) {
+        if (chars.length < capacity) {
+            char[] grown = new char[Math.max(capacity, chars.length * 2)];
+            System.arraycopy(chars, 0, grown, 0, chars.length);
+            chars = grown;
+        }
+    }
+
+    private void ensureReply(int extra) {
+        if (replyLength + extra > reply.length) {
+            byte[] grown = new byte[Math.max(replyLength + extra, reply.length * 2)];
+            System.arraycopy(reply, 0, grown, 0, replyLength);
+            reply = grown;
+        }
+    }
+
+    private void putByte(char b) {
+        ensureReply(1);
+        reply[replyLength++] = (byte) b;
+    }
+
+    private void putAscii(String text) {
+        ensureReply(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            reply[replyLength++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void putNumber(long number) {
+        if (number < 0) {
+            putByte('-');
+            if (number == Long.MIN_VALUE) {
+                putAscii("9223372036854775808");
+                return;
+            }
+            number = -number;
+        }
+        long divisor = 1;
+        while (number / divisor >= 10) {
+            divisor *= 10;
+        }
+        ensureReply(19);
+        for (; divisor > 0; divisor /= 10) {
+            reply[replyLength++] = (byte) ('0' + number / divisor % 10);
+        }
+    }
+
+    /**
+     * Writes a string with surrounding whitespace left out, as trim() would.
+     * @param text the string
+     */
+    private void putTrimmed(String text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        putEscaped(text, start, end);
+    }
+
+    private void putEscaped(String text) {
+        putEscaped(text, 0, text.length());
+    }
+
+    /**
+     * Writes part of a string escaped as JSONValue.escape() does, encoded as modified UTF-8 as writeUTF does.
+     * @param text the string
+     * @param start the index of the first character
+     * @param end the index after the last character
+     */
+    private void putEscaped(String text, int start, int end) {
+        ensureReply((end - start) * 6);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': putEscape('"'); break;
+                case '\\': putEscape('\\'); break;
+                case '\b': putEscape('b'); break;
+                case '\f': putEscape('f'); break;
+                case '\n': putEscape('n'); break;
+                case '\r': putEscape('r'); break;
+                case '\t': putEscape('t'); break;
+                case '/': putEscape('/'); break;
+                default:
+                    if (c <= '\u001F' || (c >= '\u007F' && c <= '\u009F') || (c >= '\u2000' && c <= '\u20FF')) {
+                        reply[replyLength++] = '\\';
+                        reply[replyLength++] = 'u';
+                        reply[replyLength++] = HEX[c >>> 12];
+                        reply[replyLength++] = HEX[(c >>> 8) & 0xF];
+                        reply[replyLength++] = HEX[(c >>> 4) & 0xF];
+                        reply[replyLength++] = HEX[c & 0xF];
+                    } else if (c < 0x80) {
+                        reply[replyLength++] = (byte) c;
+                    } else if (c < 0x800) {
+                        reply[replyLength++] = (byte) (0xC0 | (c >> 6));
+                        reply[replyLength++] = (byte) (0x80 | (c & 0x3F));
+                    } else {
+                        reply[replyLength++] = (byte) (0xE0 | (c >> 12));
+                        reply[replyLength++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        reply[replyLength++] = (byte) (0x80 | (c & 0x3F));
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void putEscape(char c) {
+        reply[replyLength++] = '\\';
+        reply[replyLength++] = (byte) c;
+    }
+}
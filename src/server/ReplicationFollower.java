@@ -0,0 +1,247 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The ReplicationFollower class runs on a read-only replica. It bootstraps the local dictionary from the leader's snapshot
+ * and then tails the leader's mutation stream, applying each mutation locally and tracking how far behind the leader it is.
+ */
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.AdmissionHandshake;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class ReplicationFollower implements Runnable {
+
+    private static final long MAX_RETRY_DELAY_MS = 10000;
+
+    private final String leaderHost;
+    private final int leaderPort;
+    private final DictionaryHandler dictionary;
+
+    private volatile boolean bootstrapped = false;
+    private volatile long appliedSequence = 0;
+    private volatile long leaderSequence = 0;
+    private volatile long lagMillis = 0;
+
+    /**
+     * Constructs a ReplicationFollower for the given leader.
+     * @param leaderAddress the leader address in "host:port" form
+     * @param dictionary the local dictionary to keep in sync
+     * @throws NumberFormatException if the address does not contain a valid port
+     */
+    public ReplicationFollower(String leaderAddress, DictionaryHandler dictionary) {
+        int colon = leaderAddress.lastIndexOf(':');
+        if (colon < 0) {
+            throw new NumberFormatException("Leader address must be in host:port form");
+        }
+        this.leaderHost = leaderAddress.substring(0, colon);
+        this.leaderPort = Integer.parseInt(leaderAddress.substring(colon + 1));
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Connects to the leader and follows its log, reconnecting with an increasing delay whenever the connection drops.
+     */
+    @Override
+    public void run() {
+        long retryDelay = 500;
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Socket socket = new Socket(leaderHost, leaderPort)) {
+                DictionaryServer.logToGui("Connected to leader " + getLeaderAddress() + ", waiting for snapshot...");
+                retryDelay = 500;
+                follow(socket);
+            } catch (IOException | ParseException e) {
+                DictionaryServer.logToGui("Lost connection to leader " + getLeaderAddress() + ": " + e.getMessage());
+            }
+            bootstrapped = false;
+            try {
+                Thread.sleep(retryDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+        }
+    }
+
+    /**
+     * Requests replication on an open connection and applies the snapshot and mutation stream until the connection fails.
+     * @param socket the connection to the leader
+     * @throws IOException if the connection fails
+     * @throws ParseException if the leader sends a malformed message
+     */
+    private void follow(Socket socket) throws IOException, ParseException {
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+        DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+
+        // Wait until the leader has a worker thread available for this connection
+        AdmissionHandshake.await(input, null);
+
+        JSONObject request = new JSONObject();
+        request.put("command", "replicate");
+        output.writeUTF(request.toJSONString());
+        output.flush();
+
+        JSONParser parser = new JSONParser();
+        Map<String, List<String>> snapshot = new HashMap<>();
+        while (true) {
+            JSONObject message = readMessage(input, parser);
+            String type = (String) message.get("type");
+            Object seqValue = message.get("seq");
+            long seq = seqValue == null ? 0 : ((Number) seqValue).longValue();
+
+            switch (type) {
+                case "snapshot":
+                    JSONObject words = (JSONObject) message.get("words");
+                    for (Object key : words.keySet()) {
+                        List<String> meanings = new ArrayList<>();
+                        for (Object meaning : (JSONArray) words.get(key)) {
+                            meanings.add(meaning.toString());
+                        }
+                        snapshot.put((String) key, meanings);
+                    }
+                    break;
+
+                case "snapshotEnd":
+                    dictionary.getEngine().replaceContents(snapshot);
+                    snapshot = new HashMap<>();
+                    appliedSequence = seq;
+                    leaderSequence = seq;
+                    lagMillis = 0;
+                    bootstrapped = true;
+                    dictionary.saveDataToFile();
+                    DictionaryServer.logToGui("Replica bootstrapped from leader at sequence " + seq);
+                    break;
+
+                case "mutation":
+                    applyMutation((JSONObject) message.get("command"));
+                    appliedSequence = seq;
+                    leaderSequence = Math.max(leaderSequence, seq);
+                    lagMillis = Math.max(0, System.currentTimeMillis() - ((Number) message.get("timestamp")).longValue());
+                    dictionary.saveDataToFile();
+                    break;
+
+                case "heartbeat":
+                    leaderSequence = seq;
+                    if (appliedSequence >= seq) {
+                        lagMillis = 0;
+                    }
+                    break;
+
+                default:
+                    DictionaryServer.logToGui("Ignoring unknown replication message \"" + type + "\"");
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads the next log message, joining the texts of "fragment" messages back into the message the leader split up.
+     * @param input the connection's input stream
+     * @param parser the parser for the messages
+     * @return the message
+     * @throws IOException if the connection fails
+     * @throws ParseException if the leader sends a malformed message
+     */
+    private JSONObject readMessage(DataInputStream input, JSONParser parser) throws IOException, ParseException {
+        StringBuilder fragments = null;
+        while (true) {
+            JSONObject message = (JSONObject) parser.parse(input.readUTF());
+            if (!"fragment".equals(message.get("type"))) {
+                return message;
+            }
+            if (fragments == null) {
+                fragments = new StringBuilder();
+            }
+            fragments.append((String) message.get("text"));
+            if (Boolean.TRUE.equals(message.get("last"))) {
+                return (JSONObject) parser.parse(fragments.toString());
+            }
+        }
+    }
+
+    /**
+     * Applies a mutation received from the leader to the local dictionary.
+     * @param command the mutation command as it was applied on the leader
+     */
+    private void applyMutation(JSONObject command) {
+        String commandName = (String) command.get("command");
+        String result;
+        synchronized (dictionary.getEngine()) {
+            switch (commandName) {
+                case "addNewWord":
+                    result = dictionary.addNewWord(command);
+                    break;
+                case "removeWord":
+                    result = dictionary.removeWord(command);
+                    break;
+                case "addNewMeaning":
+                    result = dictionary.addNewMeaning(command);
+                    break;
+                case "updateMeaning":
+                    result = dictionary.updateMeaning(command);
+                    break;
+                case "putWord":
+                    result = dictionary.putWord(command);
+                    break;
+                default:
+                    result = "ERROR: Unknown mutation \"" + commandName + "\"";
+                    break;
+            }
+        }
+        if (!result.startsWith("SUCCESS")) {
+            DictionaryServer.logToGui("Replica diverged while applying " + commandName + ": " + result);
+        }
+    }
+
+    /**
+     * Returns the leader address this follower replicates from.
+     * @return the leader address in "host:port" form
+     */
+    public String getLeaderAddress() {
+        return leaderHost + ":" + leaderPort;
+    }
+
+    /**
+     * Checks whether the replica has received a complete snapshot on its current connection.
+     * @return true once the snapshot has been applied
+     */
+    public boolean isBootstrapped() {
+        return bootstrapped;
+    }
+
+    /**
+     * Returns the sequence number of the last mutation applied locally.
+     * @return the applied sequence number
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * Returns the last sequence number the leader reported.
+     * @return the leader sequence number
+     */
+    public long getLeaderSequence() {
+        return leaderSequence;
+    }
+
+    /**
+     * Returns the replication lag in milliseconds: the age of the last applied mutation, or zero when caught up.
+     * @return the replication lag in milliseconds
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+}
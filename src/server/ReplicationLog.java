@@ -0,0 +1,211 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The ReplicationLog class numbers every successful mutation on the leader and ships it to the connected follower servers.
+ * A follower first receives a snapshot of the dictionary, then every mutation committed after that snapshot, in order.
+ */
+package server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+public class ReplicationLog {
+
+    // Keep snapshot messages well below the 65535 byte limit of writeUTF
+    private static final int SNAPSHOT_CHUNK_BYTES = 32 * 1024;
+    // A fragment's text is escaped again inside its message, and escaping makes one char at most 6 bytes
+    private static final int FRAGMENT_CHARS = 8 * 1024;
+    private static final long HEARTBEAT_INTERVAL_MS = 1000;
+
+    private final DictionaryHandler dictionary;
+    private final List<FollowerStream> followers = new CopyOnWriteArrayList<>();
+    private volatile long sequence;
+
+    /**
+     * Constructs a ReplicationLog for the given dictionary.
+     * @param dictionary the dictionary whose mutations are replicated
+     */
+    public ReplicationLog(DictionaryHandler dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Records a committed mutation and queues it for every follower.
+     * Must be called while holding the dictionary lock so that sequence numbers follow the commit order.
+     * @param command the mutation command exactly as it was applied
+     */
+    void append(JSONObject command) {
+        sequence++;
+        JSONObject entry = new JSONObject();
+        entry.put("type", "mutation");
+        entry.put("seq", sequence);
+        entry.put("timestamp", System.currentTimeMillis());
+        entry.put("command", command);
+        String message = entry.toJSONString();
+        for (FollowerStream follower : followers) {
+            follower.queue.offer(message);
+        }
+    }
+
+    /**
+     * Registers a follower connection, sends it a snapshot and then streams mutations to it on a dedicated thread.
+     * The calling worker thread is released as soon as the follower is registered.
+     * @param socket the follower's socket
+     * @param output the output stream of the follower's socket
+     */
+    void attachFollower(Socket socket, DataOutputStream output) {
+        FollowerStream follower = new FollowerStream(socket, output);
+        Map<String, List<String>> snapshot;
+        long snapshotSequence;
+        synchronized (dictionary.getEngine()) {
+            snapshot = dictionary.getEngine().snapshot();
+            snapshotSequence = sequence;
+            followers.add(follower);
+        }
+        Thread sender = new Thread(() -> follower.stream(snapshot, snapshotSequence), "replication-sender-" + socket.getPort());
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Disconnects every follower, so that each reconnects and bootstraps from a fresh snapshot.
+     * Used after the dictionary contents were replaced by a reload, which is not a mutation the followers could replay.
+     */
+    void resyncFollowers() {
+        for (FollowerStream follower : followers) {
+            try {
+                follower.socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last committed mutation.
+     * @return the current log sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the number of followers currently attached.
+     * @return the follower count
+     */
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    /**
+     * A single follower connection with its queue of pending log entries.
+     */
+    private class FollowerStream {
+        private final Socket socket;
+        private final DataOutputStream output;
+        private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+
+        FollowerStream(Socket socket, DataOutputStream output) {
+            this.socket = socket;
+            this.output = output;
+        }
+
+        /**
+         * Sends the snapshot in chunks, then forwards queued mutations, sending a heartbeat whenever the log is idle.
+         * @param snapshot the dictionary contents at the snapshot sequence number
+         * @param snapshotSequence the sequence number the snapshot corresponds to
+         */
+        void stream(Map<String, List<String>> snapshot, long snapshotSequence) {
+            try {
+                JSONObject words = new JSONObject();
+                int chunkBytes = 0;
+                for (Map.Entry<String, List<String>> entry : snapshot.entrySet()) {
+                    JSONArray meanings = new JSONArray();
+                    meanings.addAll(entry.getValue());
+                    // The word, its meanings, a colon and a comma, as they are written in the chunk
+                    int entryBytes = DictionaryHandler.utfLength(JSONValue.toJSONString(entry.getKey()))
+                            + DictionaryHandler.utfLength(meanings.toJSONString()) + 2;
+                    if (chunkBytes + entryBytes > SNAPSHOT_CHUNK_BYTES && !words.isEmpty()) {
+                        sendSnapshotChunk(words);
+                        words = new JSONObject();
+                        chunkBytes = 0;
+                    }
+                    // A word too large for a chunk of its own is sent alone, and send() splits it into fragments
+                    words.put(entry.getKey(), meanings);
+                    chunkBytes += entryBytes;
+                }
+                sendSnapshotChunk(words);
+
+                JSONObject end = new JSONObject();
+                end.put("type", "snapshotEnd");
+                end.put("seq", snapshotSequence);
+                send(end.toJSONString());
+                DictionaryServer.logToGui("Follower " + socket.getRemoteSocketAddress() + " bootstrapped at sequence " + snapshotSequence);
+
+                while (true) {
+                    String message = queue.poll(HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    if (message == null) {
+                        JSONObject heartbeat = new JSONObject();
+                        heartbeat.put("type", "heartbeat");
+                        heartbeat.put("seq", sequence);
+                        heartbeat.put("timestamp", System.currentTimeMillis());
+                        message = heartbeat.toJSONString();
+                    }
+                    send(message);
+                }
+            } catch (IOException | InterruptedException e) {
+                DictionaryServer.logToGui("Follower " + socket.getRemoteSocketAddress() + " detached.");
+            } finally {
+                followers.remove(this);
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        private void sendSnapshotChunk(JSONObject words) throws IOException {
+            JSONObject chunk = new JSONObject();
+            chunk.put("type", "snapshot");
+            chunk.put("words", words);
+            send(chunk.toJSONString());
+        }
+
+        /**
+         * Sends one log message. A message too large for writeUTF, such as a word with very many or very long meanings
+         * or a mutation storing one, is sent as a run of "fragment" messages whose texts the follower joins back together.
+         * @param message the message as JSON text
+         * @throws IOException if the connection fails
+         */
+        private void send(String message) throws IOException {
+            if (DictionaryHandler.utfLength(message) <= DictionaryHandler.MAX_MESSAGE_BYTES) {
+                output.writeUTF(message);
+            } else {
+                int start = 0;
+                while (start < message.length()) {
+                    int end = Math.min(message.length(), start + FRAGMENT_CHARS);
+                    if (end < message.length() && Character.isHighSurrogate(message.charAt(end - 1))) {
+                        // Keeps both halves of a surrogate pair in the same fragment
+                        end--;
+                    }
+                    JSONObject fragment = new JSONObject();
+                    fragment.put("type", "fragment");
+                    fragment.put("text", message.substring(start, end));
+                    fragment.put("last", end == message.length());
+                    output.writeUTF(fragment.toJSONString());
+                    start = end;
+                }
+            }
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The RequestEvents class holds the Java Flight Recorder events emitted for each stage of a connection and its requests:
+ * connection setup, the wait for a worker thread, parsing, the wait for a scheduler executor, the wait for and hold of the
+ * dictionary lock, the file save and the reply write. Together they show where a slow request spent its time.
+ * While no recording is running the events are never committed and their fields are never filled in.
+ * A request carrying a client-chosen "traceId" is tagged with it, so a latency seen by the client can be matched to these stages.
+ */
+package server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import org.json.simple.JSONObject;
+
+final class RequestEvents {
+
+    private RequestEvents() {
+    }
+
+    /**
+     * Reads the optional trace id of a request.
+     * @param command the command JSON object
+     * @return the trace id, or 0 if the request is not traced
+     */
+    static long traceId(JSONObject command) {
+        Object traceId = command.get("traceId");
+        return traceId instanceof Number ? ((Number) traceId).longValue() : 0;
+    }
+
+    /**
+     * An event about one client connection.
+     */
+    @Category({ "Dictionary Server", "Connection" })
+    @StackTrace(false)
+    abstract static class ConnectionStage extends Event {
+        @Label("Connection Id")
+        int connectionId;
+
+        /**
+         * Ends the stage and commits it if a recording wants it.
+         * @param connectionId the connection's number
+         */
+        void finish(int connectionId) {
+            end();
+            if (shouldCommit()) {
+                this.connectionId = connectionId;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * An event about one stage of a request.
+     */
+    @Category({ "Dictionary Server", "Request" })
+    @StackTrace(false)
+    abstract static class RequestStage extends Event {
+        @Label("Connection Id")
+        int connectionId;
+
+        @Label("Command")
+        String command;
+
+        @Label("Word Length")
+        int wordLength;
+
+        @Label("Trace Id")
+        @Description("Id chosen by the client for a sampled request, or 0")
+        long traceId;
+
+        /**
+         * Ends the stage and commits it, tagged with the request's details, if a recording wants it.
+         * @param connectionId the connection's number
+         * @param request the command JSON object, or null if it could not be parsed
+         */
+        void finish(int connectionId, JSONObject request) {
+            end();
+            if (shouldCommit()) {
+                Object word = request == null ? null : request.get("word");
+                tag(connectionId, request == null ? null : (String) request.get("command"),
+                        word instanceof String ? ((String) word).length() : 0, request == null ? 0 : traceId(request));
+            }
+        }
+
+        /**
+         * Ends the stage of a request decoded by the LegacyCodec, which has no command JSON object, and commits it if a
+         * recording wants it.
+         * @param connectionId the connection's number
+         * @param command the command name
+         * @param word the word looked up
+         * @param traceId the trace id, or 0 if the request is not traced
+         */
+        void finish(int connectionId, String command, String word, long traceId) {
+            end();
+            if (shouldCommit()) {
+                tag(connectionId, command, word.length(), traceId);
+            }
+        }
+
+        private void tag(int connectionId, String command, int wordLength, long traceId) {
+            this.connectionId = connectionId;
+            this.command = command;
+            this.wordLength = wordLength;
+            this.traceId = traceId;
+            commit();
+        }
+    }
+
+    @Name("dictionary.Accept")
+    @Label("Accept Connection")
+    @Description("Registering an accepted connection and queueing it for a worker thread")
+    static final class Accept extends ConnectionStage {
+    }
+
+    @Name("dictionary.WorkerQueue")
+    @Label("Wait For Worker")
+    @Description("Time an accepted connection waited in the WorkerPool queue")
+    static final class WorkerQueue extends ConnectionStage {
+    }
+
+    @Name("dictionary.Request")
+    @Label("Request")
+    @Description("A whole request, from receiving it to sending the reply and saving")
+    static final class Request extends RequestStage {
+    }
+
+    @Name("dictionary.Parse")
+    @Label("Parse Request")
+    static final class Parse extends RequestStage {
+    }
+
+    @Name("dictionary.SchedulerQueue")
+    @Label("Wait For Executor")
+    @Description("Time a request waited in the RequestScheduler queue, including the wait for its fair-queuing turn")
+    static final class SchedulerQueue extends RequestStage {
+    }
+
+    @Name("dictionary.LockWait")
+    @Label("Wait For Dictionary Lock")
+    static final class LockWait extends RequestStage {
+    }
+
+    @Name("dictionary.LockHeld")
+    @Label("Hold Dictionary Lock")
+    static final class LockHeld extends RequestStage {
+    }
+
+    @Name("dictionary.Save")
+    @Label("Save Dictionary File")
+    static final class Save extends RequestStage {
+    }
+
+    @Name("dictionary.Write")
+    @Label("Write Reply")
+    static final class Write extends RequestStage {
+    }
+}
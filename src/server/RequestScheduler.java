@@ -0,0 +1,443 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The RequestScheduler class runs dictionary requests on a fixed set of executor threads instead of on the connection's own thread.
+ * Requests are split into read, write and bulk classes, each with its own queue. Between the classes, a free executor
+ * takes from the queues in proportion to their weights, so that however many connections have writes and bulk operations
+ * waiting, reads get most of the executors and are served ahead of them without starving them. Within a class, requests
+ * are served by start-time fair queuing: every client connection has its own virtual clock, so no single busy client can
+ * starve the others. Bulk requests never occupy every executor, so a read does not wait behind a long scan. Each client is also held to a token-bucket rate limit and receives a throttle response
+ * instead of queuing when it exceeds it.
+ * A request may carry a deadline: if it passes before an executor takes the request, the request is dropped with a "timedOut"
+ * reply instead of being run for a client that has stopped waiting. A queued request is also dropped as soon as its client is
+ * found to have disconnected.
+ */
+package server;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.json.simple.JSONObject;
+
+public class RequestScheduler {
+
+    /**
+     * The scheduling class of a request. A class with twice the weight gets twice the share of the executors under contention,
+     * whichever connections its requests come from.
+     */
+    enum RequestClass {
+        READ(8), WRITE(4), BULK(1);
+
+        final int weight;
+
+        RequestClass(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    // How often a connection waiting for its request checks whether its client is still there
+    private static final long DISCONNECT_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final int threadCount;
+    private final double ratePerSecond;
+    private final double burst;
+    private final int maxBulkRunning;
+    // Guards the queues, the virtual times and passes, bulkRunning and every client's virtual finish times
+    private final Object queueLock = new Object();
+    // Per request class: the queued requests in order of their virtual start time, and, indexed by ordinal, the class's virtual time
+    private final Map<RequestClass, PriorityQueue<Task>> queues = new EnumMap<>(RequestClass.class);
+    private final double[] virtualTimes = new double[RequestClass.values().length];
+    // Per request class, how far it has been served, advancing by the inverse of its weight each time an executor takes from it;
+    // the class with the lowest pass goes next
+    private final double[] passes = new double[RequestClass.values().length];
+    // The pass of the class served last, which a class that had nothing queued catches up to so that it banks no credit
+    private double currentPass = 0;
+    private int bulkRunning = 0;
+    private long nextTaskId = 0;
+    private final AtomicLong throttledRequests = new AtomicLong();
+    private final AtomicLong expiredRequests = new AtomicLong();
+    private final AtomicLong cancelledRequests = new AtomicLong();
+    // Per request class, indexed by ordinal
+    private final AtomicLongArray executedRequests = new AtomicLongArray(RequestClass.values().length);
+    private final AtomicLongArray totalWaitNanos = new AtomicLongArray(RequestClass.values().length);
+
+    /**
+     * Constructs a RequestScheduler and starts its executor threads.
+     * @param threadCount the number of executor threads
+     * @param ratePerSecond the sustained number of requests each client may send per second, or 0 for no limit
+     * @param burst the number of requests a client may send at once after being idle
+     */
+    public RequestScheduler(int threadCount, double ratePerSecond, int burst) {
+        this.threadCount = threadCount;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = Math.max(1, burst);
+        this.maxBulkRunning = Math.max(1, threadCount - 1);
+        for (RequestClass requestClass : RequestClass.values()) {
+            queues.put(requestClass, new PriorityQueue<>());
+        }
+        for (int i = 0; i < threadCount; i++) {
+            Thread executor = new Thread(this::runTasks, "request-executor-" + i);
+            executor.setDaemon(true);
+            executor.start();
+        }
+    }
+
+    /**
+     * Returns the scheduling class of a command.
+     * @param commandName the name of the command
+     * @return the class, or null for cheap status and session commands that are answered on the connection's thread
+     */
+    static RequestClass classify(String commandName) {
+        if (commandName == null) {
+            return null;
+        }
+        switch (commandName) {
+            case "getMeaning":
+                return RequestClass.READ;
+            case "scan":
+            case "putWord":
+            case "rebalance":
+                return RequestClass.BULK;
+            default:
+                return ThreadHandler.isMutation(commandName) ? RequestClass.WRITE : null;
+        }
+    }
+
+    /**
+     * Creates the scheduling state of a new client connection.
+     * @param id the connection id
+     * @return the client's state, to pass to execute()
+     */
+    Client newClient(int id) {
+        return new Client(id, burst);
+    }
+
+    /**
+     * Runs a request on an executor thread once its turn comes and waits for the reply.
+     * @param client the client that sent the request
+     * @param requestClass the request's scheduling class
+     * @param operation the request's work, returning the reply
+     * @return the reply, or a throttle response if the client has exceeded its rate limit
+     */
+    JSONObject execute(Client client, RequestClass requestClass, Supplier<JSONObject> operation) {
+        return execute(client, requestClass, operation, 0, null);
+    }
+
+    /**
+     * Runs a request on an executor thread once its turn comes and waits for the reply, unless the request's deadline
+     * passes or its client disconnects before an executor takes it. A request already running is always finished.
+     * @param client the client that sent the request
+     * @param requestClass the request's scheduling class
+     * @param operation the request's work, returning the reply
+     * @param deadline the System.nanoTime() by which the request must start, or 0 for none
+     * @param clientGone checked while the request waits, and true once the client has disconnected; or null not to check
+     * @return the reply; a throttle response if the client has exceeded its rate limit; or a "timedOut" or "cancelled"
+     * response if the request was dropped without running
+     */
+    JSONObject execute(Client client, RequestClass requestClass, Supplier<JSONObject> operation, long deadline, BooleanSupplier clientGone) {
+        long retryAfterMs = client.tryAcquire(ratePerSecond);
+        if (retryAfterMs > 0) {
+            throttledRequests.incrementAndGet();
+            JSONObject reply = new JSONObject();
+            reply.put("output", "ERROR: Too many requests. Please retry in " + retryAfterMs + " ms.");
+            reply.put("throttled", true);
+            reply.put("retryAfterMs", retryAfterMs);
+            return reply;
+        }
+        Task task;
+        synchronized (queueLock) {
+            int index = requestClass.ordinal();
+            double start = Math.max(virtualTimes[index], client.virtualFinish[index]);
+            client.virtualFinish[index] = start + 1;
+            task = new Task(requestClass, operation, start, nextTaskId++, deadline);
+            if (queues.get(requestClass).isEmpty()) {
+                passes[index] = Math.max(passes[index], currentPass);
+            }
+            queues.get(requestClass).add(task);
+            queueLock.notifyAll();
+        }
+        try {
+            if (deadline == 0 && clientGone == null) {
+                return task.result.get();
+            }
+            while (true) {
+                long waitNanos = clientGone != null ? DISCONNECT_CHECK_NANOS : Long.MAX_VALUE;
+                if (deadline != 0) {
+                    waitNanos = Math.min(waitNanos, deadline - System.nanoTime());
+                }
+                try {
+                    return task.result.get(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    // Still waiting; drop the request below if nobody wants its reply any more
+                }
+                if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                    if (remove(task)) {
+                        expiredRequests.incrementAndGet();
+                        return timedOut(task);
+                    }
+                } else if (clientGone != null && clientGone.getAsBoolean()) {
+                    if (remove(task)) {
+                        cancelledRequests.incrementAndGet();
+                        JSONObject reply = new JSONObject();
+                        reply.put("output", "ERROR: Request cancelled because the client disconnected.");
+                        reply.put("cancelled", true);
+                        return reply;
+                    }
+                } else {
+                    continue;
+                }
+                // An executor has already taken the request, so its reply is on the way
+                return task.result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a request to run", e);
+        } catch (ExecutionException e) {
+            // Fail the request on the connection's thread, as if it had run there
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Takes a request out of the queue before an executor does.
+     * @param task the request
+     * @return true if the request was removed and will not run; false if an executor has already taken it
+     */
+    private boolean remove(Task task) {
+        synchronized (queueLock) {
+            return queues.get(task.requestClass).remove(task);
+        }
+    }
+
+    /**
+     * Builds the reply to a request dropped because its deadline passed before it could run.
+     * @param task the request
+     * @return the reply, flagged "timedOut"
+     */
+    private static JSONObject timedOut(Task task) {
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - task.queuedAt);
+        JSONObject reply = new JSONObject();
+        reply.put("output", "ERROR: Request timed out after waiting " + waitedMs + " ms for the server, and was not carried out.");
+        reply.put("timedOut", true);
+        return reply;
+    }
+
+    /**
+     * The method that each executor thread runs. Takes the next queued request, as next() chooses it, and runs it.
+     */
+    private void runTasks() {
+        while (true) {
+            Task task;
+            synchronized (queueLock) {
+                while ((task = next()) == null) {
+                    try {
+                        queueLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            long now = System.nanoTime();
+            try {
+                if (task.deadline != 0 && now - task.deadline >= 0) {
+                    // Its client has stopped waiting for the reply
+                    expiredRequests.incrementAndGet();
+                    task.result.complete(timedOut(task));
+                    continue;
+                }
+                executedRequests.incrementAndGet(task.requestClass.ordinal());
+                totalWaitNanos.addAndGet(task.requestClass.ordinal(), now - task.queuedAt);
+                task.result.complete(task.operation.get());
+            } catch (RuntimeException | Error e) {
+                task.result.completeExceptionally(e);
+            } finally {
+                if (task.requestClass == RequestClass.BULK) {
+                    synchronized (queueLock) {
+                        bulkRunning--;
+                        queueLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the next request to run: from the class with the lowest pass among those with a runnable request, the request
+     * with the earliest virtual start time. Ties go to the class with the higher weight. Callers hold the queue lock.
+     * @return the request, or null if nothing can run, i.e. every queue is empty or only bulk requests wait and enough are running
+     */
+    private Task next() {
+        RequestClass chosen = null;
+        for (RequestClass requestClass : RequestClass.values()) {
+            int index = requestClass.ordinal();
+            if (queues.get(requestClass).isEmpty() || (requestClass == RequestClass.BULK && bulkRunning >= maxBulkRunning)) {
+                continue;
+            }
+            if (chosen == null || passes[index] < passes[chosen.ordinal()]) {
+                chosen = requestClass;
+            }
+        }
+        if (chosen == null) {
+            return null;
+        }
+        int index = chosen.ordinal();
+        currentPass = passes[index];
+        passes[index] += 1.0 / chosen.weight;
+        if (chosen == RequestClass.BULK) {
+            bulkRunning++;
+        }
+        Task task = queues.get(chosen).poll();
+        virtualTimes[index] = Math.max(virtualTimes[index], task.start);
+        return task;
+    }
+
+    /**
+     * Returns the number of executor threads.
+     * @return the thread count
+     */
+    int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Returns the number of requests waiting for an executor.
+     * @return the queue length
+     */
+    int getQueueLength() {
+        synchronized (queueLock) {
+            int length = 0;
+            for (PriorityQueue<Task> queue : queues.values()) {
+                length += queue.size();
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Returns the number of read and write requests waiting for an executor, i.e. the queued foreground work.
+     * @return the queue length, without bulk requests
+     */
+    int getForegroundQueueLength() {
+        synchronized (queueLock) {
+            return queues.get(RequestClass.READ).size() + queues.get(RequestClass.WRITE).size();
+        }
+    }
+
+    /**
+     * Returns how many requests were refused because their client exceeded its rate limit.
+     * @return the throttled request count
+     */
+    long getThrottledRequests() {
+        return throttledRequests.get();
+    }
+
+    /**
+     * Returns how many requests were dropped because their deadline passed before they could run.
+     * @return the expired request count
+     */
+    long getExpiredRequests() {
+        return expiredRequests.get();
+    }
+
+    /**
+     * Returns how many queued requests were dropped because their client disconnected.
+     * @return the cancelled request count
+     */
+    long getCancelledRequests() {
+        return cancelledRequests.get();
+    }
+
+    /**
+     * Returns how many requests of a class have been run.
+     * @param requestClass the request class
+     * @return the executed request count
+     */
+    long getExecutedRequests(RequestClass requestClass) {
+        return executedRequests.get(requestClass.ordinal());
+    }
+
+    /**
+     * Returns the average time requests of a class waited for an executor.
+     * @param requestClass the request class
+     * @return the average wait in milliseconds
+     */
+    double getAverageWaitMs(RequestClass requestClass) {
+        long executed = executedRequests.get(requestClass.ordinal());
+        return executed == 0 ? 0.0 : totalWaitNanos.get(requestClass.ordinal()) / 1e6 / executed;
+    }
+
+    /**
+     * A queued request.
+     */
+    private static final class Task implements Comparable<Task> {
+        final RequestClass requestClass;
+        final Supplier<JSONObject> operation;
+        final double start;
+        final long id;
+        final long deadline;
+        final long queuedAt = System.nanoTime();
+        final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+
+        Task(RequestClass requestClass, Supplier<JSONObject> operation, double start, long id, long deadline) {
+            this.requestClass = requestClass;
+            this.operation = operation;
+            this.start = start;
+            this.id = id;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int byStart = Double.compare(start, other.start);
+            return byStart != 0 ? byStart : Long.compare(id, other.id);
+        }
+    }
+
+    /**
+     * The scheduling state of one client connection: its virtual clock in each request class and its token bucket.
+     */
+    static final class Client {
+        final int id;
+        // Per request class, indexed by ordinal; guarded by the scheduler's queue lock
+        final double[] virtualFinish = new double[RequestClass.values().length];
+        private final double burst;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        Client(int id, double burst) {
+            this.id = id;
+            this.burst = burst;
+            this.tokens = burst;
+        }
+
+        /**
+         * Takes one token from the client's bucket.
+         * @param ratePerSecond the refill rate, or 0 for no limit
+         * @return 0 if the request may run, otherwise the time in milliseconds until a token is available
+         */
+        synchronized long tryAcquire(double ratePerSecond) {
+            if (ratePerSecond <= 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * ratePerSecond);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) / ratePerSecond * 1000));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The ServerMetrics class gathers the server's runtime statistics for the "metrics" command,
+ * both as readable text for the client's output area and as a JSON object for monitoring tools.
+ */
+package server;
+
+import common.FrameCodec;
+
+import org.json.simple.JSONObject;
+
+public class ServerMetrics {
+
+    /**
+     * Collects the current metrics of the server.
+     * @param server the server to report on
+     * @return a JSON object of metric name to value
+     */
+    static JSONObject collect(DictionaryServer server) {
+        JSONObject metrics = new JSONObject();
+        ConnectionRegistry connections = server.getConnectionRegistry();
+        metrics.put("connections.open", connections.size());
+        metrics.put("connections.max", connections.getMaxConnections());
+        metrics.put("connections.rejected", connections.getRejectedConnections());
+        metrics.put("connections.reapedIdle", connections.getReapedConnections());
+        metrics.put("connections.abandonedWhileQueued", connections.getAbandonedConnections());
+        ConnectionAcceptor acceptor = server.getConnectionAcceptor();
+        if (acceptor != null) {
+            acceptor.collect(metrics);
+        }
+
+        RequestScheduler scheduler = server.getRequestScheduler();
+        metrics.put("scheduler.threads", scheduler.getThreadCount());
+        metrics.put("scheduler.queued", scheduler.getQueueLength());
+        metrics.put("scheduler.throttled", scheduler.getThrottledRequests());
+        metrics.put("scheduler.expired", scheduler.getExpiredRequests());
+        metrics.put("scheduler.cancelled", scheduler.getCancelledRequests());
+        for (RequestScheduler.RequestClass requestClass : RequestScheduler.RequestClass.values()) {
+            String prefix = "scheduler." + requestClass.name().toLowerCase() + ".";
+            metrics.put(prefix + "executed", scheduler.getExecutedRequests(requestClass));
+            metrics.put(prefix + "avgWaitMs", scheduler.getAverageWaitMs(requestClass));
+        }
+
+        server.getHotKeyTracker().collect(metrics);
+
+        VersionedStore store = server.getDictionary().getEngine().getStore();
+        metrics.put("mvcc.currentVersion", store.getCurrentVersion());
+        metrics.put("mvcc.oldestReadableVersion", store.getOldestReadableVersion());
+        metrics.put("mvcc.pinnedReaders", store.getPinCount());
+        metrics.put("mvcc.wordsWithOldVersions", store.getReclaimableWordCount());
+        metrics.put("tier.memory.words", store.getChainedWordCount());
+        if (store.getColdTier() != null) {
+            store.getColdTier().collect(metrics);
+        }
+        server.getDictionaryReloader().collect(metrics);
+        FrameCodec.Stats compression = server.getCompressionStats();
+        metrics.put("compression.sentMessages", compression.sentMessages.sum());
+        metrics.put("compression.compressedMessages", compression.compressedMessages.sum());
+        metrics.put("compression.sentRawBytes", compression.sentRawBytes.sum());
+        metrics.put("compression.sentWireBytes", compression.sentWireBytes.sum());
+        metrics.put("compression.ratio", compression.getSentRatio());
+        metrics.put("compression.compressMs", compression.compressNanos.sum() / 1e6);
+        metrics.put("compression.compressMsPerMB", compression.getCompressMsPerMegabyte());
+        metrics.put("compression.decompressMs", compression.decompressNanos.sum() / 1e6);
+        server.getImportStats().collect(metrics);
+        server.getDictionaryAnalytics().collect(metrics);
+        if (server.getUdpLookupServer() != null) {
+            server.getUdpLookupServer().collect(metrics);
+        }
+
+        ReplicationFollower follower = server.getFollower();
+        ReplicationLog log = server.getReplicationLog();
+
+        if (follower == null) {
+            metrics.put("replication.role", "leader");
+            metrics.put("replication.sequence", log.getSequence());
+            metrics.put("replication.followers", log.getFollowerCount());
+        } else {
+            metrics.put("replication.role", "follower");
+            metrics.put("replication.leader", follower.getLeaderAddress());
+            metrics.put("replication.bootstrapped", follower.isBootstrapped());
+            metrics.put("replication.appliedSequence", follower.getAppliedSequence());
+            metrics.put("replication.leaderSequence", follower.getLeaderSequence());
+            metrics.put("replication.lagSequences", Math.max(0, follower.getLeaderSequence() - follower.getAppliedSequence()));
+            metrics.put("replication.lagMillis", follower.getLagMillis());
+        }
+        return metrics;
+    }
+
+    /**
+     * Formats the current metrics of the server as one "name: value" line per metric.
+     * @param server the server to report on
+     * @return the metrics as text
+     */
+    static String report(DictionaryServer server) {
+        JSONObject metrics = collect(server);
+        StringBuilder result = new StringBuilder("Server metrics:\n");
+        metrics.keySet().stream().sorted().forEach(name -> result.append(name).append(": ").append(metrics.get(name)).append("\n"));
+        return result.toString();
+    }
+}
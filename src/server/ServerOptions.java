@@ -0,0 +1,81 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * This class parses the optional "--name value" arguments that follow the required server parameters, e.g. "--leader 127.0.0.1:4000".
+ */
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ServerOptions {
+
+    private final Map<String, String> options = new HashMap<>();
+
+    /**
+     * Parses the optional arguments starting at the given index.
+     * Options may be written as "--name value", "--name=value" or as a bare "--flag".
+     * @param args the command-line arguments
+     * @param offset the index of the first optional argument
+     */
+    public ServerOptions(String[] args, int offset) {
+        for (int i = offset; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                System.err.println("Ignoring unrecognised argument \"" + arg + "\"");
+                continue;
+            }
+            String name = arg.substring(2);
+            int equals = name.indexOf('=');
+            if (equals >= 0) {
+                options.put(name.substring(0, equals), name.substring(equals + 1));
+            } else if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+    }
+
+    /**
+     * Checks whether an option was supplied.
+     * @param name the option name without the leading dashes
+     * @return true if the option is present
+     */
+    public boolean has(String name) {
+        return options.containsKey(name);
+    }
+
+    /**
+     * Returns the value of an option.
+     * @param name the option name without the leading dashes
+     * @param defaultValue the value returned when the option is absent
+     * @return the option value or the default
+     */
+    public String get(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    /**
+     * Returns the value of a numeric option.
+     * @param name the option name without the leading dashes
+     * @param defaultValue the value returned when the option is absent
+     * @return the option value or the default
+     * @throws NumberFormatException if the value is not a number
+     */
+    public int getInt(String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Returns the value of a numeric option as a long.
+     * @param name the option name without the leading dashes
+     * @param defaultValue the value returned when the option is absent
+     * @return the option value or the default
+     * @throws NumberFormatException if the value is not a number
+     */
+    public long getLong(String name, long defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The ShardRebalancer class moves words to their new owners when a node joins the shard ring.
+ * Words are streamed to each new owner with "putWord" and only removed locally once the owner has stored them,
+ * so every word stays readable on at least one node while the rebalance runs.
+ */
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.AdmissionHandshake;
+import common.ConsistentHashRing;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class ShardRebalancer {
+
+    // Number of putWord requests sent before waiting for their replies
+    private static final int WINDOW = 64;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final DictionaryHandler dictionary;
+    private final ReplicationLog replicationLog;
+
+    /**
+     * Constructs a ShardRebalancer for the given dictionary.
+     * @param dictionary the local dictionary
+     * @param replicationLog the log that records the removals of moved words
+     */
+    public ShardRebalancer(DictionaryHandler dictionary, ReplicationLog replicationLog) {
+        this.dictionary = dictionary;
+        this.replicationLog = replicationLog;
+    }
+
+    /**
+     * Moves every word that the new ring assigns to another node.
+     * @param command The command JSON object containing "nodes" (the full new node list), "self" (this node's address on the ring) and optionally "virtualNodes".
+     * @return A success or error message.
+     */
+    String rebalance(JSONObject command) {
+        JSONArray nodes = (JSONArray) command.get("nodes");
+        String self = (String) command.get("self");
+        Object virtualNodes = command.get("virtualNodes");
+        if (nodes == null || nodes.isEmpty() || self == null || !nodes.contains(self)) {
+            return "ERROR: Rebalance needs the new node list and this node's own address in it.";
+        }
+        List<String> nodeList = new ArrayList<>();
+        for (Object node : nodes) {
+            nodeList.add(node.toString());
+        }
+        ConsistentHashRing ring = new ConsistentHashRing(nodeList,
+                virtualNodes == null ? ConsistentHashRing.DEFAULT_VIRTUAL_NODES : ((Number) virtualNodes).intValue());
+
+        long start = System.currentTimeMillis();
+        int moved = 0;
+        int total = 0;
+        List<String> failures = new ArrayList<>();
+
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            Map<String, List<String>> moving = dictionary.getEngine().wordsNotOwnedBy(ring, self);
+            if (moving.isEmpty()) {
+                break;
+            }
+            if (attempt == 1) {
+                total = moving.size();
+            }
+
+            // Group the words into one stream per new owner
+            Map<String, Map<String, List<String>>> byOwner = new HashMap<>();
+            for (Map.Entry<String, List<String>> entry : moving.entrySet()) {
+                byOwner.computeIfAbsent(ring.getOwner(entry.getKey()), owner -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+            }
+
+            failures.clear();
+            for (Map.Entry<String, Map<String, List<String>>> stream : byOwner.entrySet()) {
+                try {
+                    moved += transfer(stream.getKey(), stream.getValue());
+                } catch (IOException | ParseException e) {
+                    failures.add(stream.getKey() + " (" + e.getMessage() + ")");
+                }
+            }
+            if (!failures.isEmpty()) {
+                break;
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        DictionaryServer.logToGui("Rebalance moved " + moved + " of " + total + " words in " + elapsed + " ms");
+        if (!failures.isEmpty()) {
+            return "ERROR: Rebalance moved " + moved + " of " + total + " words but could not reach " + String.join(", ", failures);
+        }
+        return "SUCCESS: Rebalance moved " + moved + " of " + total + " words to their new owners in " + elapsed + " ms.";
+    }
+
+    /**
+     * Streams a group of words to their new owner and removes the ones the owner acknowledged.
+     * @param owner the new owner's address in "host:port" form
+     * @param words the words to move with their meanings
+     * @return the number of words removed locally
+     * @throws IOException if the owner cannot be reached
+     * @throws ParseException if the owner sends a malformed reply
+     */
+    private int transfer(String owner, Map<String, List<String>> words) throws IOException, ParseException {
+        int colon = owner.lastIndexOf(':');
+        int removed = 0;
+        try (Socket socket = new Socket(owner.substring(0, colon), Integer.parseInt(owner.substring(colon + 1)))) {
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+            AdmissionHandshake.await(input, null);
+
+            JSONParser parser = new JSONParser();
+            List<Map.Entry<String, List<String>>> window = new ArrayList<>();
+            List<Map.Entry<String, List<String>>> entries = new ArrayList<>(words.entrySet());
+            for (int i = 0; i < entries.size(); i += WINDOW) {
+                window.clear();
+                window.addAll(entries.subList(i, Math.min(i + WINDOW, entries.size())));
+                for (Map.Entry<String, List<String>> entry : window) {
+                    JSONObject request = new JSONObject();
+                    JSONArray meanings = new JSONArray();
+                    meanings.addAll(entry.getValue());
+                    request.put("command", "putWord");
+                    request.put("word", entry.getKey());
+                    request.put("meanings", meanings);
+                    output.writeUTF(request.toJSONString());
+                }
+                output.flush();
+
+                for (Map.Entry<String, List<String>> entry : window) {
+                    JSONObject response = (JSONObject) parser.parse(input.readUTF());
+                    if (response.get("output").toString().startsWith("SUCCESS") && removeMovedWord(entry.getKey(), entry.getValue())) {
+                        removed++;
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes a moved word if it was not changed during the transfer, and records the removal for followers.
+     * @param word the moved word
+     * @param meanings the meanings that were sent to the new owner
+     * @return true if the word was removed
+     */
+    private boolean removeMovedWord(String word, List<String> meanings) {
+        synchronized (dictionary.getEngine()) {
+            if (!dictionary.getEngine().removeIfUnchanged(word, meanings)) {
+                return false;
+            }
+            JSONObject removal = new JSONObject();
+            removal.put("command", "removeWord");
+            removal.put("word", word);
+            replicationLog.append(removal);
+            return true;
+        }
+    }
+}
@@ -6,17 +6,28 @@ package server;
 
 import java.awt.Color;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.UTFDataFormatException;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import common.AdmissionHandshake;
+import common.FrameCodec;
 
  // Inner class to handle client communication
  public class ThreadHandler implements Runnable {
@@ -26,23 +37,223 @@ import java.util.List;
     private DataInputStream input;
     private DataOutputStream output;
     private DictionaryHandler dict;
+    private DictionaryServer server;
+    private final ConnectionRegistry.Connection connection;
+    private final String clientAddress;
+    private final long queuedAt = System.currentTimeMillis();
+    private final RequestEvents.WorkerQueue workerQueueEvent = new RequestEvents.WorkerQueue();
+    // Guards the admission state and the admission messages written before the session starts
+    private final Object admissionLock = new Object();
+    private String admissionState = AdmissionHandshake.QUEUED;
+    // Set when an admission message could not be written, so that a dead connection is not written to again while queued
+    private boolean clientGone = false;
+    // The position last sent to the client while it waits, or 0 before the first
+    private volatile int queuedPosition = 0;
+    // Versions pinned by this connection's openSnapshot commands, released when it disconnects
+    private final List<Long> openSnapshots = new ArrayList<>();
+    private static final int MAX_OPEN_SNAPSHOTS = 16;
+    // How often a running "analyze" command reports its progress
+    private static final long ANALYSIS_PROGRESS_INTERVAL_MS = 500;
+    // Set once the client has negotiated compression; the codec agreed on takes effect after the reply that accepts it
+    private FrameCodec codec;
+    private FrameCodec acceptedCodec;
+    // Reads every message until compression is negotiated, and answers getMeaning requests without json-simple
+    private final LegacyCodec legacyCodec = new LegacyCodec();
+    private final Supplier<JSONObject> legacyLookup = this::runLegacyLookup;
+    private RequestEvents.SchedulerQueue legacyQueueEvent;
+    // Lets the scheduler drop this connection's queued request once the client has gone
+    private final BooleanSupplier clientClosedCheck = this::isClientClosed;
     
     /**
      * Constructor initializes the ThreadHandler with a client socket, client number, and dictionary handler.
      * @param socket the socket associated with the client
      * @param client_num the number assigned to the client
      * @param dict the DictionaryHandler instance for handling dictionary operations
+     * @param server the server that accepted the connection
+     * @param connection the connection's entry in the server's connection registry
      * @throws IOException if an I/O error occurs
      */
-    public ThreadHandler(Socket socket, int client_num, DictionaryHandler dict) throws IOException {
+    public ThreadHandler(Socket socket, int client_num, DictionaryHandler dict, DictionaryServer server, ConnectionRegistry.Connection connection) throws IOException {
         this.clientSocket = socket;
         this.clientNum = client_num;
         this.dict = dict;
-        this.input = new DataInputStream(clientSocket.getInputStream());
-        this.output = new DataOutputStream(clientSocket.getOutputStream());
-
+        this.server = server;
+        this.connection = connection;
+        this.clientAddress = socket.getInetAddress().getHostAddress();
+        this.input = new DataInputStream(new BufferedInputStream(connection.countingInput(clientSocket.getInputStream())));
+        this.output = new DataOutputStream(connection.countingOutput(clientSocket.getOutputStream()));
+        workerQueueEvent.begin();
     }
     
+    /**
+     * Tells a waiting client its position in the queue and the estimated wait.
+     * Ignored once the client has been admitted or rejected.
+     * @param position the position in the queue, starting at 1
+     * @param etaMs the estimated wait in milliseconds, or -1 if unknown
+     */
+    void sendQueued(int position, long etaMs) {
+    	JSONObject message = AdmissionHandshake.message(AdmissionHandshake.QUEUED);
+    	message.put("position", position);
+    	message.put("etaMs", etaMs);
+    	synchronized (admissionLock) {
+    		if (AdmissionHandshake.QUEUED.equals(admissionState) && !clientGone) {
+    			queuedPosition = position;
+    			sendAdmissionMessage(message);
+    		}
+    	}
+    }
+
+    /**
+     * Returns the position last sent to the waiting client.
+     * @return the position, or 0 if none has been sent
+     */
+    int getQueuedPosition() {
+    	return queuedPosition;
+    }
+
+    /**
+     * Closes the connection of a waiting client that has stopped reading its admission messages. The write blocked on it
+     * then fails, which marks the client as gone, so the worker that picks the connection up drops it.
+     */
+    void closeStalled() {
+    	DictionaryServerGUI.logToOutputPane("Client " + clientNum + " stopped reading while waiting, closing its connection.");
+    	try {
+    		clientSocket.close();
+    	} catch (IOException e) {
+    	}
+    }
+
+    /**
+     * Tells the client that a worker thread has picked up its connection.
+     * @return false if the client was rejected or has gone away in the meantime
+     */
+    boolean admit() {
+    	synchronized (admissionLock) {
+    		if (!AdmissionHandshake.QUEUED.equals(admissionState)) {
+    			return false;
+    		}
+    		admissionState = AdmissionHandshake.ADMITTED;
+    		workerQueueEvent.finish(clientNum);
+    		if (!clientGone && isClientClosed()) {
+    			// Gave up while queued; a worker would otherwise serve a connection nobody is reading
+    			clientGone = true;
+    			DictionaryServerGUI.logToOutputPane("Client " + clientNum + " gave up while waiting.");
+    		}
+    		if (clientGone || !sendAdmissionMessage(AdmissionHandshake.message(AdmissionHandshake.ADMITTED))) {
+    			server.getConnectionRegistry().remove(clientNum);
+    			server.getConnectionRegistry().recordAbandoned();
+    			try {
+    				clientSocket.close();
+    			} catch (IOException e) {
+    			}
+    			return false;
+    		}
+    		connection.lastActivity = System.currentTimeMillis();
+    		connection.active = true;
+    		return true;
+    	}
+    }
+
+    /**
+     * Tells a waiting client that it will not be served and closes the connection.
+     * @param reason the reason shown to the client
+     */
+    void reject(String reason) {
+    	JSONObject message = AdmissionHandshake.message(AdmissionHandshake.REJECTED);
+    	message.put("reason", reason);
+    	synchronized (admissionLock) {
+    		if (!AdmissionHandshake.QUEUED.equals(admissionState)) {
+    			return;
+    		}
+    		admissionState = AdmissionHandshake.REJECTED;
+    		if (!clientGone) {
+    			sendAdmissionMessage(message);
+    		}
+    	}
+    	server.getConnectionRegistry().remove(clientNum);
+    	try {
+    		clientSocket.close();
+    	} catch (IOException e) {
+    	}
+    }
+
+    /**
+     * Writes one admission message. Callers hold the admission lock.
+     * @param message the message to write
+     * @return false if the client has disconnected
+     */
+    private boolean sendAdmissionMessage(JSONObject message) {
+    	try {
+    		output.writeUTF(message.toJSONString());
+    		output.flush();
+    		return true;
+    	} catch (IOException e) {
+    		clientGone = true;
+    		DictionaryServerGUI.logToOutputPane("Client " + clientNum + " disconnected while waiting.");
+    		return false;
+    	}
+    }
+
+    /**
+     * Checks whether the client has closed its end of the connection, without consuming anything it has sent.
+     * Only called from the thread that reads the connection.
+     * @return true if the client has disconnected
+     */
+    private boolean isClientClosed() {
+    	try {
+    		int timeout = clientSocket.getSoTimeout();
+    		clientSocket.setSoTimeout(1);
+    		try {
+    			input.mark(1);
+    			if (input.read() < 0) {
+    				return true;
+    			}
+    			input.reset();
+    		} catch (SocketTimeoutException e) {
+    			// Nothing to read, but the connection is open
+    		} finally {
+    			clientSocket.setSoTimeout(timeout);
+    		}
+    		return false;
+    	} catch (IOException e) {
+    		return true;
+    	}
+    }
+
+    /**
+     * Works out when a request stops being worth running from the "timeoutMs" it carries, the time its client waits for
+     * the reply, counted from when the server read it.
+     * @param timeoutMs the request's "timeoutMs", or null
+     * @param receivedAt the System.nanoTime() at which the request was read
+     * @return the deadline as a System.nanoTime(), or 0 if the request has none
+     */
+    static long deadline(Object timeoutMs, long receivedAt) {
+    	return timeoutMs instanceof Number ? deadline(((Number) timeoutMs).longValue(), receivedAt) : 0;
+    }
+
+    /**
+     * Works out when a request stops being worth running from the time its client waits for the reply.
+     * @param timeoutMs the request's timeout in milliseconds, or 0 or less for none
+     * @param receivedAt the System.nanoTime() at which the request was read
+     * @return the deadline as a System.nanoTime(), or 0 if the request has none
+     */
+    static long deadline(long timeoutMs, long receivedAt) {
+    	if (timeoutMs <= 0) {
+    		return 0;
+    	}
+    	long deadline = receivedAt + Math.min(timeoutMs, Long.MAX_VALUE / 4_000_000L) * 1_000_000L;
+    	// 0 means no deadline
+    	return deadline == 0 ? 1 : deadline;
+    }
+
+    /**
+     * Returns when the connection was accepted and joined the queue.
+     * @return the time in milliseconds since the epoch
+     */
+    long getQueuedAt() {
+    	return queuedAt;
+    }
+
     /**
      * The run method processes client requests in a loop, handling various dictionary commands.
      */
@@ -52,67 +263,565 @@ import java.util.List;
     	DictionaryServerGUI.logToOutputPane("Running application for client " + clientNum);
     	DictionaryServerGUI.logToOutputPane("------------------------------------------");
         JSONParser parser = new JSONParser();
-        JSONObject jsonResponse = new JSONObject(); 
+        RequestScheduler.Client schedulerClient = server.getRequestScheduler().newClient(clientNum);
 
 
 		String clientMsg;
-		while (true) {
-		    try {
-		    	//Read the client's message
-		        clientMsg = input.readUTF();
-		        JSONObject command = (JSONObject) parser.parse(clientMsg);
-		        String commandName = (String) command.get("command");
-		        String result = "";
-		        
-                // Handle different commands from the client
-		        // Synchronize on the dictionary to ensure thread safety
-		        synchronized (dict) {
-			        switch (commandName) {
-			            case "getMeaning":
-					        jsonResponse.put("output",  dict.getMeaning(command));
-				            break;
-	
-			            case "addNewWord":
-					        jsonResponse.put("output",  dict.addNewWord(command));
+		// Set once the socket belongs to the replication log, which then keeps it open
+		boolean handedOver = false;
+		try {
+			while (true) {
+			    try {
+			    	// The previous request, whichever way it was answered, is finished once the next read begins
+			    	connection.recordReply();
+			    	//Read the client's message
+			        if (codec == null) {
+			        	legacyCodec.readFrame(input);
+			        	if (legacyCodec.decodeLookup()) {
+			        		serveLegacyLookup(schedulerClient);
+			        		continue;
+			        	}
+			        	clientMsg = legacyCodec.frameText();
+			        } else {
+			        	clientMsg = codec.read(input);
+			        }
+			        long receivedAt = System.nanoTime();
+			        RequestEvents.Request requestEvent = new RequestEvents.Request();
+			        requestEvent.begin();
+			        connection.recordRequest();
+			        RequestEvents.Parse parseEvent = new RequestEvents.Parse();
+			        parseEvent.begin();
+			        JSONObject command = (JSONObject) parser.parse(clientMsg);
+			        String commandName = DictionaryHandler.textField(command, "command");
+			        parseEvent.finish(clientNum, command);
+
+			        if ("replicate".equals(commandName)) {
+			        	// Hand the connection over to the replication log and free this worker
+			        	DictionaryServerGUI.logToOutputPane("Client " + clientNum + " registered as a replication follower.");
+			        	// The stream is long-lived and never sends requests, so it must not be reaped as an idle client
+			        	server.getConnectionRegistry().remove(clientNum);
+			        	server.getReplicationLog().attachFollower(clientSocket, output);
+			        	handedOver = true;
+			        	return;
+			        }
+			        if ("download".equals(commandName)) {
+			        	// Writes raw file bytes after the reply, so it cannot go through handle()
+			        	sendDictionaryFile();
+			        	requestEvent.finish(clientNum, command);
+			        	continue;
+			        }
+			        if ("analyze".equals(commandName)) {
+			        	// Sends progress messages until the report is ready, so it cannot go through handle()
+			        	runAnalysis(command);
+			        	requestEvent.finish(clientNum, command);
+			        	continue;
+			        }
+			        if ("import".equals(commandName)) {
+			        	// Reads records on this connection until the client ends the stream
+			        	runImport(command, schedulerClient);
+			        	requestEvent.finish(clientNum, command);
+			        	continue;
+			        }
+			        RequestScheduler.RequestClass requestClass = RequestScheduler.classify(commandName);
+			        if (requestClass != null) {
+			        	Object word = command.get("word");
+			        	server.getHotKeyTracker().record(isMutation(commandName), word instanceof String ? (String) word : null, clientAddress);
+			        }
+			        JSONObject jsonResponse;
+			        if (requestClass == null) {
+			        	// Status and session commands are cheap and answered straight away, even under load
+			        	jsonResponse = handle(commandName, command);
+			        } else {
+			        	RequestEvents.SchedulerQueue queueEvent = new RequestEvents.SchedulerQueue();
+			        	queueEvent.begin();
+			        	jsonResponse = server.getRequestScheduler().execute(schedulerClient, requestClass, () -> {
+			        		queueEvent.finish(clientNum, command);
+			        		return handle(commandName, command);
+			        	}, deadline(command.get("timeoutMs"), receivedAt), clientClosedCheck);
+			        }
+			        if (command.containsKey("traceId")) {
+			        	// Lets the client match its own timing to this request's events
+			        	jsonResponse.put("traceId", RequestEvents.traceId(command));
+			        }
+			        //Send response back to the client
+			        RequestEvents.Write writeEvent = new RequestEvents.Write();
+			        writeEvent.begin();
+			        writeMessage(jsonResponse.toString());
+			        writeEvent.finish(clientNum, command);
+			        if (acceptedCodec != null) {
+			        	if (codec != null) {
+			        		codec.close();
+			        	}
+			        	codec = acceptedCodec;
+			        	acceptedCodec = null;
+			        }
+			        // Save the dictionary data to file after every change
+			        if (isMutation(commandName) && jsonResponse.get("output").toString().startsWith("SUCCESS")) {
+			        	RequestEvents.Save saveEvent = new RequestEvents.Save();
+			        	saveEvent.begin();
+			        	dict.saveDataToFile();
+			        	saveEvent.finish(clientNum, command);
+			        }
+			        requestEvent.finish(clientNum, command);
+			        
+
+			    } catch (IOException | ParseException e) {
+			    	// Log disconnection when an client disconnects
+			    	DictionaryServerGUI.logToOutputPane("Client " + clientNum + " disconnected.");
+			        break;
+			    } catch (RuntimeException e) {
+			    	// A malformed request fails on its own, and the connection carries on
+			    	DictionaryServerGUI.logToOutputPane("Client " + clientNum + " sent a request that failed: " + e);
+			    	JSONObject errorReply = new JSONObject();
+			    	errorReply.put("output", "ERROR: Unable to process the request (" + e.getClass().getSimpleName() + "). Please check its fields.");
+			    	try {
+			    		writeMessage(errorReply.toString());
+			    	} catch (IOException writeFailure) {
+			    		DictionaryServerGUI.logToOutputPane("Client " + clientNum + " disconnected.");
+			    		break;
+			    	}
+			    }
+			}
+		} finally {
+			// Runs however the session ends, so that no snapshot stays pinned and no connection stays registered
+			server.getConnectionRegistry().remove(clientNum);
+			for (long version : openSnapshots) {
+				dict.getEngine().releaseSnapshot(version);
+			}
+			if (!handedOver) {
+				if (codec != null) {
+					codec.close();
+				}
+				try {
+					clientSocket.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+    }
+
+    /**
+     * Reads one message in the connection's current framing.
+     * @return the message
+     * @throws IOException if the connection fails
+     */
+    private String readMessage() throws IOException {
+    	if (codec != null) {
+    		return codec.read(input);
+    	}
+    	legacyCodec.readFrame(input);
+    	return legacyCodec.frameText();
+    }
+
+    /**
+     * Writes one message in the connection's current framing and flushes it.
+     * @param message the message
+     * @throws IOException if the connection fails
+     */
+    private void writeMessage(String message) throws IOException {
+    	if (codec == null) {
+    		output.writeUTF(message);
+    	} else {
+    		codec.write(output, message);
+    	}
+    	output.flush();
+    }
+
+    /**
+     * Sends the dictionary file as last saved: a reply with its "size", "version" and "crc32", followed by exactly that
+     * many raw bytes of the file, which the kernel copies from the file to the socket. Neither the dictionary lock nor
+     * the dictionary's contents are needed, and saves made meanwhile do not affect the file being sent.
+     * @throws IOException if the connection fails
+     */
+    private void sendDictionaryFile() throws IOException {
+    	JSONObject reply = new JSONObject();
+    	DictionaryEngine.SavedFile file;
+    	try {
+    		file = dict.getEngine().openSavedFile();
+    	} catch (IOException e) {
+    		reply.put("output", "ERROR: Unable to read the dictionary file: " + e.getMessage());
+    		writeMessage(reply.toString());
+    		return;
+    	}
+    	try (file) {
+    		long size = file.channel.size();
+    		reply.put("output", "SUCCESS: Sending " + size + " bytes of the dictionary at version " + file.version + ".");
+    		reply.put("size", size);
+    		reply.put("version", file.version);
+    		reply.put("crc32", file.checksum);
+    		writeMessage(reply.toString());
+    		// Sockets accepted from a channel have one; writing through the stream instead would copy every byte into the JVM
+    		SocketChannel channel = clientSocket.getChannel();
+    		WritableByteChannel target = channel != null ? channel : Channels.newChannel(output);
+    		long sent = 0;
+    		while (sent < size) {
+    			sent += file.channel.transferTo(sent, size - sent, target);
+    		}
+    		if (channel != null) {
+    			connection.bytesOut.addAndGet(sent);
+    		}
+    	}
+    	DictionaryServerGUI.logToOutputPane("Client " + clientNum + " downloaded the dictionary file.");
+    }
+
+    /**
+     * Runs an "import" session: receives frames of JSON line records until an empty frame, granting the client more
+     * credits as frames are applied, and replies with the outcome. If the client goes away mid-stream, the records
+     * received so far are still applied and saved.
+     * @param command the "import" command
+     * @param schedulerClient the connection's scheduler client, which the import's batches are charged to
+     * @throws IOException if the connection fails
+     */
+    private void runImport(JSONObject command, RequestScheduler.Client schedulerClient) throws IOException {
+    	JSONObject reply = new JSONObject();
+    	ReplicationFollower follower = server.getFollower();
+    	if (follower != null) {
+    		reply.put("output", "ERROR: This server is a read-only replica. Please send changes to the leader at " + follower.getLeaderAddress());
+    		writeMessage(reply.toString());
+    		return;
+    	}
+    	BulkImport bulkImport = new BulkImport(command, dict, server, schedulerClient);
+    	reply.put("output", "SUCCESS: Ready to import. Send records as JSON lines, each frame within the credits granted, and an empty frame to finish.");
+    	reply.put("credits", BulkImport.CREDIT_WINDOW);
+    	writeMessage(reply.toString());
+    	DictionaryServerGUI.logToOutputPane("Client " + clientNum + " started an import.");
+    	int consumed = 0;
+    	try {
+    		while (true) {
+    			String frame = readMessage();
+    			connection.recordRequest();
+    			if (frame.isEmpty()) {
+    				break;
+    			}
+    			bulkImport.accept(frame);
+    			// Granting half the window at a time keeps the client sending while the server applies
+    			if (++consumed >= BulkImport.CREDIT_WINDOW / 2) {
+    				JSONObject grant = new JSONObject();
+    				grant.put("credits", consumed);
+    				grant.put("imported", bulkImport.getImported());
+    				writeMessage(grant.toString());
+    				consumed = 0;
+    			}
+    		}
+    	} catch (IOException e) {
+    		bulkImport.finish();
+    		throw e;
+    	}
+    	JSONObject outcome = bulkImport.finish();
+    	DictionaryServerGUI.logToOutputPane("Client " + clientNum + ": " + outcome.get("output"));
+    	writeMessage(outcome.toString());
+    }
+
+    /**
+     * Runs an "analyze" command: the dictionary statistics are computed on the analytics pool while this connection sends
+     * a progress message with the words walked so far every ANALYSIS_PROGRESS_INTERVAL_MS, followed by the report.
+     * The analysis stops if the client goes away.
+     * @param command the "analyze" command
+     * @throws IOException if the connection fails
+     */
+    private void runAnalysis(JSONObject command) throws IOException {
+    	JSONObject reply = new JSONObject();
+    	DictionaryAnalytics.Analysis analysis = server.getDictionaryAnalytics().start(command, reply);
+    	if (analysis == null) {
+    		writeMessage(reply.toString());
+    		return;
+    	}
+    	DictionaryServerGUI.logToOutputPane("Client " + clientNum + " started an analysis.");
+    	try {
+    		JSONObject report;
+    		while ((report = analysis.await(ANALYSIS_PROGRESS_INTERVAL_MS)) == null) {
+    			if (isClientClosed()) {
+    				// A write to the closed connection could still succeed, so do not wait for one to fail
+    				throw new EOFException("Client closed the connection during an analysis");
+    			}
+    			writeMessage(analysis.progress().toString());
+    		}
+    		writeMessage(report.toString());
+    	} finally {
+    		analysis.cancel();
+    	}
+    }
+
+    /**
+     * Answers the getMeaning request decoded by the legacy codec. It is scheduled, tracked and traced like a request on
+     * the general path, and its reply has the same bytes, but no JSON objects are built for it.
+     * @param schedulerClient the connection's scheduler client
+     * @throws IOException if the connection fails
+     */
+    private void serveLegacyLookup(RequestScheduler.Client schedulerClient) throws IOException {
+    	long receivedAt = System.nanoTime();
+    	RequestEvents.Request requestEvent = new RequestEvents.Request();
+    	requestEvent.begin();
+    	connection.recordRequest();
+    	String word = legacyCodec.getWord();
+    	server.getHotKeyTracker().record(false, word, clientAddress);
+    	legacyQueueEvent = new RequestEvents.SchedulerQueue();
+    	legacyQueueEvent.begin();
+    	// Null unless the client is throttled or the request was dropped without running
+    	JSONObject jsonResponse = server.getRequestScheduler().execute(schedulerClient, RequestScheduler.RequestClass.READ, legacyLookup,
+    			deadline(legacyCodec.getTimeoutMs(), receivedAt), clientClosedCheck);
+    	RequestEvents.Write writeEvent = new RequestEvents.Write();
+    	writeEvent.begin();
+    	if (jsonResponse == null) {
+    		try {
+    			legacyCodec.writeReply(output);
+    		} catch (UTFDataFormatException e) {
+    			// Too many meanings for one message; nothing has been written, and the general path sends the first of them
+    			output.writeUTF(largeLookupReply());
+    		}
+    	} else {
+    		if (legacyCodec.isTraced()) {
+    			jsonResponse.put("traceId", legacyCodec.getTraceId());
+    		}
+    		output.writeUTF(jsonResponse.toString());
+    	}
+    	output.flush();
+    	writeEvent.finish(clientNum, "getMeaning", word, legacyCodec.getTraceId());
+    	requestEvent.finish(clientNum, "getMeaning", word, legacyCodec.getTraceId());
+    }
+
+    /**
+     * Answers the legacy codec's getMeaning request on the general path, for a word whose reply does not fit in one message.
+     * @return the reply, with as many meanings as fit
+     * @throws IOException if the request cannot be parsed again
+     */
+    private String largeLookupReply() throws IOException {
+    	JSONObject command;
+    	try {
+    		command = (JSONObject) new JSONParser().parse(legacyCodec.frameText());
+    	} catch (ParseException e) {
+    		throw new IOException("Unable to parse a request the legacy codec decoded", e);
+    	}
+    	JSONObject jsonResponse = new JSONObject();
+    	jsonResponse.putAll(dict.getMeaning(command));
+    	if (legacyCodec.isTraced()) {
+    		jsonResponse.put("traceId", legacyCodec.getTraceId());
+    	}
+    	return jsonResponse.toString();
+    }
+
+    /**
+     * Looks up the legacy codec's getMeaning request on a scheduler executor thread.
+     * @return null, as the result is kept by the codec
+     */
+    private JSONObject runLegacyLookup() {
+    	legacyQueueEvent.finish(clientNum, "getMeaning", legacyCodec.getWord(), legacyCodec.getTraceId());
+    	legacyCodec.lookup(dict);
+    	return null;
+    }
+
+    /**
+     * Carries out one request. Dictionary requests run on a scheduler executor thread; status and session commands
+     * run on the connection's own thread.
+     * @param commandName the name of the command
+     * @param command the command JSON object
+     * @return the response to send to the client
+     */
+    private JSONObject handle(String commandName, JSONObject command) {
+    	JSONObject jsonResponse = new JSONObject();
+    	String result = "";
+    	ReplicationFollower follower = server.getFollower();
+    	if (follower != null && (isMutation(commandName) || "rebalance".equals(commandName) || "reload".equals(commandName))) {
+    		jsonResponse.put("output", "ERROR: This server is a read-only replica. Please send changes to the leader at " + follower.getLeaderAddress());
+    	}
+    	else if ("rebalance".equals(commandName)) {
+    		// Takes the dictionary lock per word, so it must not run inside the block below
+    		jsonResponse.put("output", server.getShardRebalancer().rebalance(command));
+    	}
+    	else if ("reload".equals(commandName)) {
+    		// Loads on a background thread and only takes the dictionary lock to swap the new contents in
+    		jsonResponse.put("output", server.getDictionaryReloader().reload(command));
+    	}
+    	else if ("ping".equals(commandName)) {
+    		// Health check from pooled clients; does not touch the dictionary
+    		jsonResponse.put("output", "SUCCESS: pong");
+    	}
+    	else if ("getMeaning".equals(commandName)) {
+    		// Reads a published version and never waits for writers
+    		jsonResponse.putAll(dict.getMeaning(command));
+    	}
+    	else if ("scan".equals(commandName)) {
+    		// Reads one page at a pinned version without the dictionary lock
+    		jsonResponse.putAll(dict.scan(command));
+    	}
+    	else if ("openSnapshot".equals(commandName)) {
+    		openSnapshot(jsonResponse);
+    	}
+    	else if ("releaseSnapshot".equals(commandName)) {
+    		releaseSnapshot(command, jsonResponse);
+    	}
+    	else if ("compression".equals(commandName)) {
+    		negotiateCompression(command, jsonResponse);
+    	}
+    	else if ("connections".equals(commandName)) {
+    		jsonResponse.put("output", server.getConnectionRegistry().report());
+    	}
+    	else if ("hotKeys".equals(commandName)) {
+    		Object limit = command.get("limit");
+    		jsonResponse.putAll(server.getHotKeyTracker().report(limit instanceof Number ? ((Number) limit).intValue() : HotKeyTracker.DEFAULT_REPORT_LIMIT));
+    	}
+    	else if ("metrics".equals(commandName)) {
+    		jsonResponse.put("output", ServerMetrics.report(server));
+    		jsonResponse.put("metrics", ServerMetrics.collect(server));
+    	}
+    	else {
+    		// Handle different commands from the client
+    		// Synchronize on the dictionary to ensure thread safety
+    		RequestEvents.LockWait lockWaitEvent = new RequestEvents.LockWait();
+    		RequestEvents.LockHeld lockHeldEvent = new RequestEvents.LockHeld();
+    		lockWaitEvent.begin();
+    		synchronized (dict.getEngine()) {
+    			lockWaitEvent.finish(clientNum, command);
+    			lockHeldEvent.begin();
+    			switch (commandName) {
+    				case "addNewWord":
+    					jsonResponse.put("output",  dict.addNewWord(command));
 	
-			                break;
+    					break;
 	
-			            case "removeWord":
-					        jsonResponse.put("output",  dict.removeWord(command));
+    				case "removeWord":
+    					jsonResponse.put("output",  dict.removeWord(command));
 	
-			                break;
+    					break;
 	
-			            case "addNewMeaning":
-					        jsonResponse.put("output",  dict.addNewMeaning(command));
+    				case "addNewMeaning":
+    					jsonResponse.put("output",  dict.addNewMeaning(command));
 	
-			                break;
+    					break;
 	
-			            case "updateMeaning":
-					        jsonResponse.put("output",  dict.updateMeaning(command));
+    				case "updateMeaning":
+    					jsonResponse.put("output",  dict.updateMeaning(command));
 	
-			                break;
-			            default:
-			            	//Handle unknown commands
-			            	result= "Unknown command";
-			            	break;
-			        }
-		        }
-		        //Send response back to the client
-		        String serverResponse = jsonResponse.toString();
-		        output.writeUTF(serverResponse);
-		        output.flush();
-		        // Save the dictionary data to file after every operation
-		        DictionaryHandler.saveDataToFile();
-		        
-
-		    } catch (IOException | ParseException e) {
-		    	// Log disconnection when an client disconnects
-		    	DictionaryServerGUI.logToOutputPane("Client " + clientNum + " disconnected.");
-		        break;
-		    }
-		}
+    					break;
+
+    				case "putWord":
+    					jsonResponse.put("output",  dict.putWord(command));
+
+    					break;
+
+    				case "casAddNewMeaning":
+    					jsonResponse.putAll(dict.casAddNewMeaning(command));
+    					break;
+
+    				case "casUpdateMeaning":
+    					jsonResponse.putAll(dict.casUpdateMeaning(command));
+    					break;
+
+    				case "casRemoveWord":
+    					jsonResponse.putAll(dict.casRemoveWord(command));
+    					break;
+    				default:
+    					//Handle unknown commands
+    					result= "Unknown command";
+    					jsonResponse.put("output", "ERROR: " + result + " \"" + commandName + "\"");
+    					break;
+    			}
+    			// Ship successful changes to the followers in commit order
+    			if (isMutation(commandName) && jsonResponse.get("output").toString().startsWith("SUCCESS")) {
+    				server.getReplicationLog().append(replicatedForm(commandName, command));
+    			}
+    		}
+    		lockHeldEvent.finish(clientNum, command);
+    	}
+    	return jsonResponse;
+    }
+
+    /**
+     * Accepts a client's offer to compress the rest of the session. The reply is still sent in the current framing;
+     * every later message in both directions is a FrameCodec frame.
+     * @param command the command JSON object with the offered "algorithm" and optionally the "threshold" in bytes from
+     * which replies are compressed
+     * @param jsonResponse the response to fill in
+     */
+    private void negotiateCompression(JSONObject command, JSONObject jsonResponse) {
+    	if (!FrameCodec.ALGORITHM.equals(command.get("algorithm"))) {
+    		jsonResponse.put("output", "ERROR: Unsupported compression. This server supports \"" + FrameCodec.ALGORITHM + "\".");
+    		return;
+    	}
+    	Object threshold = command.get("threshold");
+    	acceptedCodec = new FrameCodec(threshold instanceof Number ? ((Number) threshold).intValue() : FrameCodec.DEFAULT_THRESHOLD,
+    			server.getCompressionStats());
+    	jsonResponse.put("output", "SUCCESS: Compression enabled.");
+    	jsonResponse.put("algorithm", FrameCodec.ALGORITHM);
+    }
+
+    /**
+     * Pins the current version so that later reads with that "version" see the same state of the dictionary.
+     * @param jsonResponse the response to fill in with the pinned "version"
+     */
+    private void openSnapshot(JSONObject jsonResponse) {
+    	if (openSnapshots.size() >= MAX_OPEN_SNAPSHOTS) {
+    		jsonResponse.put("output", "ERROR: Too many open snapshots. Release a snapshot before opening another one.");
+    		return;
+    	}
+    	long version = dict.getEngine().openSnapshot();
+    	openSnapshots.add(version);
+    	jsonResponse.put("version", version);
+    	jsonResponse.put("output", "SUCCESS: Snapshot opened at version " + version + ". Pass it as \"version\" to read at this version.");
+    }
+
+    /**
+     * Releases a snapshot opened on this connection.
+     * @param command the command JSON object containing the snapshot's "version"
+     * @param jsonResponse the response to fill in
+     */
+    private void releaseSnapshot(JSONObject command, JSONObject jsonResponse) {
+    	Object version = command.get("version");
+    	if (!(version instanceof Number) || !openSnapshots.remove(Long.valueOf(((Number) version).longValue()))) {
+    		jsonResponse.put("output", "ERROR: No snapshot at version " + version + " is open on this connection.");
+    		return;
+    	}
+    	dict.getEngine().releaseSnapshot(((Number) version).longValue());
+    	jsonResponse.put("output", "SUCCESS: Snapshot at version " + version + " released.");
     }
     
+    /**
+     * Checks whether a command changes the dictionary and therefore has to be replicated.
+     * @param commandName the name of the command
+     * @return true for addNewWord, removeWord, addNewMeaning, updateMeaning, putWord and the conditional writes
+     */
+    static boolean isMutation(String commandName) {
+    	switch (commandName) {
+    		case "addNewWord":
+    		case "removeWord":
+    		case "addNewMeaning":
+    		case "updateMeaning":
+    		case "putWord":
+    		case "casAddNewMeaning":
+    		case "casUpdateMeaning":
+    		case "casRemoveWord":
+    			return true;
+    		default:
+    			return false;
+    	}
+    }
+
+    /**
+     * Returns the form in which a successful change is shipped to the followers. Called with the dictionary lock held.
+     * Word versions are local to each server, so a conditional write is sent as its outcome rather than as the condition.
+     * @param commandName the name of the command
+     * @param command the command as received from the client
+     * @return the command to append to the replication log
+     */
+    private JSONObject replicatedForm(String commandName, JSONObject command) {
+    	if (!commandName.startsWith("cas")) {
+    		return command;
+    	}
+    	String word = (String) command.get("word");
+    	List<String> meanings = dict.getEngine().getStore().getLatest(word);
+    	JSONObject outcome = new JSONObject();
+    	outcome.put("word", word);
+    	if (meanings == null) {
+    		outcome.put("command", "removeWord");
+    	} else {
+    		JSONArray meaningArray = new JSONArray();
+    		meaningArray.addAll(meanings);
+    		outcome.put("command", "putWord");
+    		outcome.put("meanings", meaningArray);
+    	}
+    	return outcome;
+    }
+
     /**
      * Returns the client socket associated with this handler.
      * @return the client socket
@@ -0,0 +1,238 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The UdpLookupServer class answers read-only lookups in single UDP datagrams, for latency-critical clients such as
+ * spell checkers that cannot afford a TCP connection and its framing per lookup. A request is one JSON datagram:
+ * {"command":"getMeaning","word":...} returns "found" with the word's meanings and version, and {"command":"exists","word":...}
+ * returns only "found" and the version, both with "meaningCount". "offset" and "limit" select part of the meanings as for
+ * a TCP getMeaning, with "nextOffset" giving where the rest starts. An optional "id" is echoed so the client can match
+ * replies to requests.
+ * One thread serves every client from a non-blocking channel, reading the same lock-free store as the TCP path.
+ * A reply that does not fit in one datagram keeps as many meanings as fit and is flagged "truncated", with "nextOffset"
+ * giving where the rest start.
+ */
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class UdpLookupServer implements Runnable {
+    // Fits a typical Ethernet MTU after the IP and UDP headers, so replies are never fragmented
+    static final int MAX_DATAGRAM_BYTES = 1400;
+    private static final int MAX_REQUEST_BYTES = 2048;
+
+    private final DictionaryServer server;
+    private final DictionaryHandler dictionary;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final JSONParser parser = new JSONParser();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_REQUEST_BYTES);
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Binds the UDP port. The server starts answering once run() is called.
+     * @param port the UDP port to listen on
+     * @param server the server whose hot key tracker records the lookups
+     * @param dictionary the dictionary to read
+     * @throws IOException if the port cannot be bound
+     */
+    public UdpLookupServer(int port, DictionaryServer server, DictionaryHandler dictionary) throws IOException {
+        this.server = server;
+        this.dictionary = dictionary;
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(port));
+        this.channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Receives and answers requests until the channel is closed. Every datagram waiting on the channel is drained
+     * before the loop selects again.
+     */
+    @Override
+    public void run() {
+        try {
+            while (channel.isOpen()) {
+                selector.select();
+                selector.selectedKeys().clear();
+                SocketAddress client;
+                while ((client = receive()) != null) {
+                    answer(client);
+                }
+            }
+        } catch (IOException e) {
+            DictionaryServer.logToGui("UDP lookups stopped: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads one datagram into the receive buffer.
+     * @return the sender, or null if no datagram is waiting
+     * @throws IOException if the channel fails
+     */
+    private SocketAddress receive() throws IOException {
+        receiveBuffer.clear();
+        SocketAddress client = channel.receive(receiveBuffer);
+        receiveBuffer.flip();
+        return client;
+    }
+
+    /**
+     * Answers the datagram in the receive buffer. A reply the socket cannot take straight away is dropped, as the client
+     * retries after its timeout anyway. A request that fails for any other reason is counted as malformed and ignored,
+     * so that one bad datagram cannot stop the lookups of every other client.
+     * @param client the sender
+     * @throws IOException if the channel fails
+     */
+    private void answer(SocketAddress client) throws IOException {
+        requests.increment();
+        byte[] reply;
+        try {
+            reply = handle(StandardCharsets.UTF_8.decode(receiveBuffer).toString(), client);
+        } catch (RuntimeException e) {
+            reply = null;
+        }
+        if (reply == null) {
+            malformed.increment();
+            return;
+        }
+        if (channel.send(ByteBuffer.wrap(reply), client) == 0) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Carries out one request.
+     * @param message the request datagram as text
+     * @param client the sender
+     * @return the encoded reply, or null if the request is not a valid lookup and is ignored
+     */
+    private byte[] handle(String message, SocketAddress client) {
+        JSONObject command;
+        try {
+            command = (JSONObject) parser.parse(message);
+        } catch (ParseException | ClassCastException e) {
+            return null;
+        }
+        String commandName = DictionaryHandler.textField(command, "command");
+        Object word = command.get("word");
+        if (!(word instanceof String) || !("getMeaning".equals(commandName) || "exists".equals(commandName))) {
+            return null;
+        }
+        if (client instanceof InetSocketAddress) {
+            server.getHotKeyTracker().record(false, (String) word, ((InetSocketAddress) client).getAddress().getHostAddress());
+        }
+
+        JSONObject lookup = new JSONObject();
+        lookup.put("word", word);
+        lookup.put("normalize", command.get("normalize"));
+        // The reply carries only the meanings array, so the numbered text is never built, and "exists" not even the array
+        lookup.put("format", "array");
+        if ("exists".equals(commandName)) {
+            lookup.put("countOnly", true);
+        }
+        if (command.containsKey("offset")) {
+            lookup.put("offset", command.get("offset"));
+        }
+        if (command.containsKey("limit")) {
+            lookup.put("limit", command.get("limit"));
+        }
+        JSONObject result = dictionary.getMeaning(lookup);
+        boolean found = result.containsKey("wordVersion");
+        JSONObject reply = new JSONObject();
+        if (command.containsKey("id")) {
+            reply.put("id", command.get("id"));
+        }
+        reply.put("found", found);
+        if (found) {
+            reply.put("wordVersion", result.get("wordVersion"));
+            if (result.containsKey("word")) {
+                reply.put("word", result.get("word"));
+            }
+            reply.put("meaningCount", result.get("meaningCount"));
+            if ("getMeaning".equals(commandName)) {
+                reply.put("meanings", result.get("meanings"));
+                if (result.containsKey("nextOffset")) {
+                    reply.put("nextOffset", result.get("nextOffset"));
+                }
+            }
+        }
+        return encode(reply);
+    }
+
+    /**
+     * Encodes a reply, keeping only as many meanings from the start as fit in one datagram. The size is worked out once
+     * per meaning kept rather than by encoding the reply again, and "nextOffset" then gives where the dropped meanings start.
+     * @param reply the reply
+     * @return the UTF-8 bytes of the reply
+     */
+    private byte[] encode(JSONObject reply) {
+        byte[] bytes = reply.toJSONString().getBytes(StandardCharsets.UTF_8);
+        JSONArray meanings = (JSONArray) reply.get("meanings");
+        if (bytes.length <= MAX_DATAGRAM_BYTES || meanings == null) {
+            return bytes;
+        }
+        truncated.increment();
+        // The meanings sent start where those after them would, counted back from nextOffset or the end of the list
+        Object end = reply.containsKey("nextOffset") ? reply.get("nextOffset") : reply.get("meaningCount");
+        long offset = ((Number) end).longValue() - meanings.size();
+        // Measures the reply with no meanings, and with the widest nextOffset it can have, as no kept meanings can make it wider
+        JSONArray kept = new JSONArray();
+        reply.put("meanings", kept);
+        reply.put("truncated", true);
+        reply.put("nextOffset", ((Number) end).longValue());
+        int length = reply.toJSONString().getBytes(StandardCharsets.UTF_8).length;
+        for (Object meaning : meanings) {
+            // Each meaning after the first also needs a comma to separate it from the one before
+            int meaningLength = JSONValue.toJSONString(meaning).getBytes(StandardCharsets.UTF_8).length + (kept.isEmpty() ? 0 : 1);
+            if (length + meaningLength > MAX_DATAGRAM_BYTES) {
+                break;
+            }
+            length += meaningLength;
+            kept.add(meaning);
+        }
+        reply.put("nextOffset", offset + kept.size());
+        if (kept.isEmpty()) {
+            // Not even one meaning fits; the client has to fall back to TCP
+            reply.remove("meanings");
+        }
+        return reply.toJSONString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Adds the UDP statistics to the server metrics.
+     * @param metrics the metrics to add to
+     */
+    void collect(JSONObject metrics) {
+        metrics.put("udp.requests", requests.sum());
+        metrics.put("udp.malformed", malformed.sum());
+        metrics.put("udp.truncated", truncated.sum());
+        metrics.put("udp.dropped", dropped.sum());
+    }
+
+    /**
+     * Returns the bound UDP port.
+     * @return the port
+     * @throws IOException if the channel is closed
+     */
+    int getPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+}
@@ -0,0 +1,554 @@
+/**
+ * Name: Anna Gan, Student ID: 1579818
+ * The VersionedStore class keeps every word as a chain of versions, newest first, numbered by a global sequence number.
+ * Readers see the dictionary as of a version without taking any lock, so long reads such as scans and snapshots never
+ * block writers. Writers are serialised by the caller (the DictionaryHandler monitor). Versions that no pinned reader
+ * can still see are reclaimed after writes and whenever a reader releases its snapshot.
+ * An optional cold tier holds the words as they were loaded, at the base version, on disk; the chains then only hold words
+ * changed since, and a word without a chain, or without a version old enough for a reader, is looked up in the cold tier.
+ * When the dictionary is reloaded the store is replaced; the old one is retired and closed once its last reader has released it.
+ * A secondary index maps trimmed, case-folded, NFC-normalised forms to the spellings that differ from them, so that a lookup
+ * of "Apple " can find "apple", or a decomposed accented word its precomposed spelling, in constant time.
+ */
+package server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.Normalizer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.TreeMap;
+
+public class VersionedStore {
+
+    /**
+     * One version of a word. A version without meanings records that the word was removed.
+     * The sequence number doubles as the word's version, which conditional writes compare against.
+     */
+    static final class Version {
+        final long sequence;
+        final List<String> meanings;
+        volatile Version older;
+
+        Version(long sequence, List<String> meanings, Version older) {
+            this.sequence = sequence;
+            this.meanings = meanings;
+            this.older = older;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Version> heads = new ConcurrentHashMap<>();
+    // Every word that has a chain, including removed words not yet reclaimed, in sorted order
+    private final ConcurrentSkipListSet<String> words = new ConcurrentSkipListSet<>();
+    // Words whose chain holds more than one version, or a removal, and may have something to reclaim
+    private final Set<String> reclaimable = ConcurrentHashMap.newKeySet();
+    // Pinned version to number of readers holding it; guarded by itself
+    private final TreeMap<Long, Integer> pins = new TreeMap<>();
+    private final long baseVersion;
+    private volatile long currentVersion;
+    private volatile long oldestReadableVersion;
+    private volatile ColdTier cold;
+    // Every readable spelling that is not its own folded form, by folded form; a spelling that is its own folded form
+    // is found by looking the folded form up directly, so the index stays small for mostly lower-case dictionaries
+    private final ConcurrentHashMap<String, Set<String>> foldedSpellings = new ConcurrentHashMap<>();
+    // Lock-free readers currently using this store; once it is retired, the last one out closes it
+    private final AtomicInteger users = new AtomicInteger();
+    private volatile boolean retired = false;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Constructs an empty store.
+     * @param baseVersion the version of the loaded words, which is also the first readable version
+     */
+    public VersionedStore(long baseVersion) {
+        this.baseVersion = baseVersion;
+        this.currentVersion = baseVersion;
+        this.oldestReadableVersion = baseVersion;
+    }
+
+    /**
+     * Returns the latest published version.
+     * @return the current version number
+     */
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+
+    /**
+     * Returns the oldest version that can still be read consistently.
+     * @return the oldest readable version number
+     */
+    public long getOldestReadableVersion() {
+        return oldestReadableVersion;
+    }
+
+    /**
+     * Returns the newest published meanings of a word. Single-word reads need no snapshot, so this takes no pin; see latest().
+     * @param word the word to look up
+     * @return an unmodifiable list of meanings, or null if the word does not exist
+     */
+    public List<String> getLatest(String word) {
+        Version head = latest(word);
+        return head == null ? null : head.meanings;
+    }
+
+    /**
+     * Returns the newest published version of a word, so that its meanings and version number are read together.
+     * A write installs its versions before it publishes them, so the head of a chain may be newer than the current version;
+     * until publish() it is skipped here, and a batch becomes visible all at once.
+     * No pin is held, so a writer may publish and prune the chain during the walk. The current version is therefore read
+     * again at every step, and a version whose older link has been cut is returned, as it can only have been cut once published.
+     * @param word the word to look up
+     * @return the version, whose meanings are null if the word was removed, or null if the word does not exist
+     */
+    Version latest(String word) {
+        Version candidate = heads.get(word);
+        while (candidate != null && candidate.sequence > currentVersion) {
+            Version older = candidate.older;
+            if (older == null && candidate.sequence <= currentVersion) {
+                // Published and pruned since the loop checked it
+                break;
+            }
+            candidate = older;
+        }
+        return candidate != null ? candidate : coldVersion(word);
+    }
+
+    /**
+     * Returns the version of a word that was current at the given version. The caller must hold a pin, as for get().
+     * @param word the word to look up
+     * @param version the version to read at
+     * @return the version, whose meanings are null if the word was removed, or null if the word did not exist yet
+     */
+    Version at(String word, long version) {
+        Version candidate = chainAt(word, version);
+        return candidate != null ? candidate : coldVersion(word);
+    }
+
+    /**
+     * Returns the version of a word in its chain that was current at the given version, without consulting the cold tier.
+     * @param word the word to look up
+     * @param version the version to read at
+     * @return the version, or null if the chain holds none that old
+     */
+    private Version chainAt(String word, long version) {
+        Version candidate = heads.get(word);
+        while (candidate != null && candidate.sequence > version) {
+            candidate = candidate.older;
+        }
+        return candidate;
+    }
+
+    /**
+     * Returns a word as it was loaded into the cold tier.
+     * @param word the word to look up
+     * @return the base version of the word, or null if there is no cold tier or the word is not in it
+     */
+    private Version coldVersion(String word) {
+        ColdTier tier = cold;
+        List<String> meanings = tier == null ? null : tier.get(word);
+        return meanings == null ? null : new Version(baseVersion, meanings, null);
+    }
+
+    /**
+     * Returns the meanings of a word as of a version. The caller must hold a pin on the version, or on an older one.
+     * @param word the word to look up
+     * @param version the version to read at
+     * @return an unmodifiable list of meanings, or null if the word did not exist at that version
+     */
+    public List<String> get(String word, long version) {
+        Version candidate = at(word, version);
+        return candidate == null ? null : candidate.meanings;
+    }
+
+    /**
+     * Returns the version at which a word last changed.
+     * @param word the word
+     * @return the version number, or -1 if the word has never existed or has been reclaimed
+     */
+    public long getWordVersion(String word) {
+        Version head = latest(word);
+        return head == null ? -1 : head.sequence;
+    }
+
+    /**
+     * Iterates over the words that exist at a version, in sorted order, merging the chains with a sequential read of the
+     * cold tier. The caller must hold a pin on the version for as long as it iterates.
+     * @param after the word to start after, or null to start at the first word
+     * @param version the version to read at
+     * @return the words and their meanings at that version
+     */
+    Iterator<Map.Entry<String, List<String>>> entries(String after, long version) {
+        Iterator<String> changed = (after == null ? words : words.tailSet(after, false)).iterator();
+        ColdTier tier = cold;
+        Iterator<Map.Entry<String, List<String>>> loaded = tier == null ? Collections.emptyIterator() : tier.iterator(after);
+        return new Iterator<Map.Entry<String, List<String>>>() {
+            private String changedWord = changed.hasNext() ? changed.next() : null;
+            private Map.Entry<String, List<String>> loadedEntry = loaded.hasNext() ? loaded.next() : null;
+            private Map.Entry<String, List<String>> next = advance();
+
+            private Map.Entry<String, List<String>> advance() {
+                while (changedWord != null || loadedEntry != null) {
+                    int order = changedWord == null ? 1 : loadedEntry == null ? -1 : changedWord.compareTo(loadedEntry.getKey());
+                    if (order > 0) {
+                        // Never changed since it was loaded
+                        Map.Entry<String, List<String>> entry = loadedEntry;
+                        loadedEntry = loaded.hasNext() ? loaded.next() : null;
+                        return entry;
+                    }
+                    String word = changedWord;
+                    Version candidate = chainAt(word, version);
+                    List<String> meanings = candidate != null ? candidate.meanings : order == 0 ? loadedEntry.getValue() : null;
+                    changedWord = changed.hasNext() ? changed.next() : null;
+                    if (order == 0) {
+                        loadedEntry = loaded.hasNext() ? loaded.next() : null;
+                    }
+                    if (meanings != null) {
+                        return new AbstractMap.SimpleImmutableEntry<>(word, meanings);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, List<String>> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, List<String>> current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    /**
+     * Picks words that divide the dictionary into about the given number of sorted ranges of similar size, so that it can be
+     * walked in parallel: each range holds the words after the previous point up to and including its own point, and the
+     * last range the words after the last point.
+     * @param ranges the number of ranges wanted
+     * @return the points in ascending order; fewer than ranges - 1 for a small dictionary
+     */
+    List<String> splitPoints(int ranges) {
+        List<String> points = new ArrayList<>();
+        ColdTier tier = cold;
+        if (tier != null) {
+            // Most words are in the cold tier, whose blocks are already evenly sized; changed words fall wherever they sort
+            String[] firstWords = tier.getBlockFirstWords();
+            int previous = 0;
+            for (int i = 1; i < ranges; i++) {
+                int block = (int) ((long) firstWords.length * i / ranges);
+                if (block > previous) {
+                    points.add(firstWords[block]);
+                    previous = block;
+                }
+            }
+            return points;
+        }
+        int step = Math.max(1, heads.size() / Math.max(1, ranges));
+        int index = 0;
+        for (String word : words) {
+            if (points.size() >= ranges - 1) {
+                break;
+            }
+            if (++index % step == 0) {
+                points.add(word);
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Puts the words loaded from the dictionary file on disk underneath the chains, as version 0.
+     * Must be called before the store is used.
+     * @param tier the cold tier
+     */
+    void attachColdTier(ColdTier tier) {
+        cold = tier;
+    }
+
+    /**
+     * Returns the cold tier.
+     * @return the cold tier, or null if every word is held in memory
+     */
+    ColdTier getColdTier() {
+        return cold;
+    }
+
+    /**
+     * Installs a new version of a word. Writers must be serialised and must call publish() once all changes
+     * of the write have been installed; readers at earlier versions keep seeing the previous version meanwhile.
+     * @param word the word
+     * @param meanings the new meanings, or null to remove the word
+     * @param version the version number of the write, greater than the current version
+     */
+    void put(String word, List<String> meanings, long version) {
+        Version head = heads.get(word);
+        if (head == null && meanings == null && coldVersion(word) == null) {
+            return;
+        }
+        Version created = new Version(version, meanings == null ? null : Collections.unmodifiableList(meanings), head);
+        words.add(word);
+        heads.put(word, created);
+        if (head != null || meanings == null) {
+            reclaimable.add(word);
+        }
+        if (meanings != null && head == null) {
+            indexSpelling(word);
+        }
+    }
+
+    /**
+     * Reduces a word to the form used by case-insensitive lookups: trimmed, case-folded and NFC-normalised.
+     * Upper-casing before lower-casing folds characters such as the German sharp s to "ss" the way a full case fold does.
+     * @param word the word
+     * @return the folded form
+     */
+    static String fold(String word) {
+        return Normalizer.normalize(word.trim().toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT), Normalizer.Form.NFC);
+    }
+
+    /**
+     * Adds a spelling to the folded index. Called for every word put and every word loaded into the cold tier;
+     * must be called by a writer or the loader.
+     * @param word the spelling
+     */
+    void indexSpelling(String word) {
+        String folded = fold(word);
+        if (!folded.equals(word)) {
+            foldedSpellings.computeIfAbsent(folded, key -> new ConcurrentSkipListSet<>()).add(word);
+        }
+    }
+
+    /**
+     * Removes a spelling from the folded index once no version of it is readable any more.
+     * @param word the spelling
+     */
+    private void unindexSpelling(String word) {
+        String folded = fold(word);
+        if (!folded.equals(word)) {
+            foldedSpellings.computeIfPresent(folded, (key, spellings) -> {
+                spellings.remove(word);
+                return spellings.isEmpty() ? null : spellings;
+            });
+        }
+    }
+
+    /**
+     * Lists the spellings a case-insensitive lookup should try, in order of preference: the query as given, its folded
+     * form, then every other spelling with the same folded form. The index may name spellings that are removed or not yet
+     * visible at the reader's version, so callers still look each one up.
+     * @param query the word as the client sent it
+     * @return the spellings to try
+     */
+    List<String> spellingsOf(String query) {
+        String folded = fold(query);
+        List<String> candidates = new ArrayList<>(3);
+        candidates.add(query);
+        if (!folded.equals(query)) {
+            candidates.add(folded);
+        }
+        Set<String> variants = foldedSpellings.get(folded);
+        if (variants != null) {
+            for (String variant : variants) {
+                if (!candidates.contains(variant)) {
+                    candidates.add(variant);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Makes every version up to the given one visible to new readers.
+     * @param version the version number of the completed write
+     */
+    void publish(long version) {
+        currentVersion = version;
+    }
+
+    /**
+     * Registers a lock-free reader, so that the store is not closed while the reader still uses it.
+     */
+    void retain() {
+        users.incrementAndGet();
+    }
+
+    /**
+     * Unregisters a reader registered with retain(), closing the store if it has been retired and this was the last reader.
+     */
+    void release() {
+        if (users.decrementAndGet() == 0 && retired) {
+            close();
+        }
+    }
+
+    /**
+     * Marks the store as replaced. It is closed as soon as no reader uses it, which may be immediately.
+     */
+    void retire() {
+        retired = true;
+        if (users.get() == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Closes and deletes the cold tier file, if any. Runs at most once.
+     */
+    private void close() {
+        ColdTier tier = cold;
+        if (closed.compareAndSet(false, true) && tier != null) {
+            try {
+                tier.close();
+                Files.deleteIfExists(tier.getFile());
+            } catch (IOException e) {
+                DictionaryServerGUI.logToOutputPane("Unable to remove " + tier.getFile() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Pins the current version so that it stays readable until it is released.
+     * @return the pinned version
+     */
+    public long pin() {
+        synchronized (pins) {
+            long version = currentVersion;
+            pins.merge(version, 1, Integer::sum);
+            return version;
+        }
+    }
+
+    /**
+     * Pins a specific version, if it is still readable.
+     * @param version the version to pin
+     * @return true if the version was pinned, false if it is newer than the current version or already reclaimed
+     */
+    public boolean pin(long version) {
+        synchronized (pins) {
+            if (version > currentVersion || version < oldestReadableVersion) {
+                return false;
+            }
+            pins.merge(version, 1, Integer::sum);
+            return true;
+        }
+    }
+
+    /**
+     * Releases a pin taken with pin().
+     * @param version the pinned version
+     */
+    public void unpin(long version) {
+        synchronized (pins) {
+            pins.computeIfPresent(version, (pinned, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * Returns the number of pins currently held.
+     * @return the pin count
+     */
+    public int getPinCount() {
+        synchronized (pins) {
+            int count = 0;
+            for (int readers : pins.values()) {
+                count += readers;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Returns the number of words held in chains, i.e. all words without a cold tier, or the words changed since loading with one.
+     * @return the number of words with a chain
+     */
+    public int getChainedWordCount() {
+        return words.size();
+    }
+
+    /**
+     * Returns the number of words that hold versions which may be reclaimable.
+     * @return the number of words with more than one retained version or a removal
+     */
+    public int getReclaimableWordCount() {
+        return reclaimable.size();
+    }
+
+    /**
+     * Drops every version that no pinned reader can see any more: for each word, everything older than its newest
+     * version at or below the oldest pinned version. Removed words whose removal is visible to every reader are forgotten.
+     * Must be called by a writer, i.e. while writes are serialised.
+     */
+    void reclaim() {
+        long horizon = reclaimHorizon();
+        for (String word : reclaimable) {
+            prune(word, horizon);
+        }
+    }
+
+    /**
+     * Reclaims the old versions of a single word, which keeps the cost of a write independent of the dictionary size.
+     * Must be called by a writer, i.e. while writes are serialised.
+     * @param word the word that was just written
+     */
+    void reclaim(String word) {
+        if (reclaimable.contains(word)) {
+            prune(word, reclaimHorizon());
+        }
+    }
+
+    /**
+     * Returns the oldest version any reader may still need and stops new pins on anything older.
+     * @return the oldest pinned version, or the current version if nothing is pinned
+     */
+    private long reclaimHorizon() {
+        synchronized (pins) {
+            long horizon = pins.isEmpty() ? currentVersion : pins.firstKey();
+            oldestReadableVersion = Math.max(oldestReadableVersion, horizon);
+            return horizon;
+        }
+    }
+
+    /**
+     * Cuts a word's chain after its newest version at or below the horizon.
+     * @param word the word
+     * @param horizon the oldest version any reader may still need
+     */
+    private void prune(String word, long horizon) {
+        Version head = heads.get(word);
+        Version keep = head;
+        while (keep != null && keep.sequence > horizon) {
+            keep = keep.older;
+        }
+        if (keep == null) {
+            return;
+        }
+        keep.older = null;
+        if (keep == head) {
+            // A removal must stay while the cold tier still holds the word, or the word would reappear
+            if (head.meanings == null && coldVersion(word) == null) {
+                heads.remove(word, head);
+                words.remove(word);
+                unindexSpelling(word);
+            }
+            reclaimable.remove(word);
+        }
+    }
+}
@@ -1,58 +1,87 @@
 /**
  * Name: Anna Gan, Student ID: 1579818
- * This class creates a fixed pool of worker threads and manages them, it accepts client request from the ClientHandler class and puts them in a queue for the worker thread to execute   
+ * This class creates a fixed pool of worker threads and manages them, it accepts client request from the ClientHandler class and puts them in a queue for the worker thread to execute
+ * Waiting connections are served in strict FIFO order. Each one is told its position and estimated wait whenever it moves up,
+ * is told when it has been admitted, and is rejected if it waits longer than the configured maximum.
+ * Position updates are written by a notifier thread rather than the workers, at most once per interval however often the
+ * queue moves, and a client that stops reading them is disconnected instead of holding the notifier up.
  */
 package server;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import common.AdmissionHandshake;
+
 
 public class WorkerPool {
+    // Weight of the newest session in the moving average used for wait estimates
+    private static final double SESSION_AVERAGE_WEIGHT = 0.2;
+    // Queue moves within this interval are sent to the waiting clients as one update
+    private static final long POSITION_UPDATE_INTERVAL_MS = 100;
+    // A position update a client has not taken within this time means it has stopped reading
+    private static final long POSITION_WRITE_TIMEOUT_MS = 2000;
+
     private final int poolSize;
-    private final LinkedList<Runnable> taskQueue; 
-    private static int idleWorkers;
-    private DataInputStream input;
-    private DataOutputStream output;
-    
+    private final long maxWaitMs;
+    private final LinkedList<ThreadHandler> taskQueue;
+    private final AtomicInteger idleWorkers;
+    private volatile double averageSessionMs = -1;
+    // Set when the queue has moved since the waiting clients were last told their positions. The notifier waits on its own
+    // lock, so that a worker is never woken in its place when a task is submitted
+    private final Object positionsLock = new Object();
+    private boolean positionsChanged = false;
+    // Closes the connection of a client whose position update has not been written in time
+    private final ScheduledExecutorService writeTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "queue-write-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * Constructs a WorkerPool with a specified number of worker threads.
      * @param poolSize the number of worker threads in the pool
+     * @param maxWaitMs the longest a connection may wait for a worker before it is rejected, or 0 for no limit
      */
-    public WorkerPool(int poolSize) {
+    public WorkerPool(int poolSize, long maxWaitMs) {
         this.poolSize = poolSize;
+        this.maxWaitMs = maxWaitMs;
         this.taskQueue = new LinkedList<>();
-        idleWorkers = poolSize;
+        this.idleWorkers = new AtomicInteger(poolSize);
         initialiseThreadPool();
     }
-	
+
     /**
-     * Sets up the worker pool by creating a fixed number of threads.
+     * Sets up the worker pool by creating a fixed number of threads, plus a thread that sends waiting connections their
+     * positions and one that rejects connections that waited too long.
      */
 	private void initialiseThreadPool() {
 		for (int i = 0; i < poolSize; i++) {
-			Thread worker = new Thread(() -> {
-				try {
-					run();
-				} catch (IOException e) {
-					DictionaryServerGUI.logToOutputPane("IOException occurred: "+ e.getMessage());
-				}
-				
-			});
+			Thread worker = new Thread(this::run, "worker-" + i);
  			worker.start(); //start executing each thread
 		}
+		Thread notifier = new Thread(this::notifyPositions, "queue-notifier");
+		notifier.setDaemon(true);
+		notifier.start();
+		if (maxWaitMs > 0) {
+			Thread reaper = new Thread(this::rejectExpired, "admission-reaper");
+			reaper.setDaemon(true);
+			reaper.start();
+		}
 	}
-	
+
 	/**
      * The method that each worker thread runs. Continuously processes tasks from the queue.
-     * @throws IOException if an error occurs during task execution
      */
-	private void run() throws IOException {
+	private void run() {
 		while (true) {
 			ThreadHandler task;
 			// Synchronised access to the task queue
@@ -66,47 +95,179 @@ public class WorkerPool {
 						return; //Exit if the thread is interrupted
 					}
 				}
-				task = (ThreadHandler) taskQueue.poll();
+				task = taskQueue.poll();
+	            idleWorkers.decrementAndGet(); 	//Decrease the number of available threads
+				// The remaining connections moved up one place; the notifier tells them
+				markPositionsChanged();
 			}
 
+			long start = System.currentTimeMillis();
 			try {
-	            idleWorkers--; 	//Decrease the number of available threads	            
-				task.run(); //Execute the task
+				if (task.admit()) {
+					task.run(); //Execute the task
+				}
 			} catch (Exception e) {
 				DictionaryServerGUI.logToOutputPane(e.getMessage());
 			} finally {
-                idleWorkers++;
-                DictionaryServer.promptClient(task.getClientNumber());
+                idleWorkers.incrementAndGet();
+                recordSession(System.currentTimeMillis() - start);
 			}
 		}
 	}
-	
+
 	/**
      * Submits a task to the worker pool.
      * @param task the task to be submitted
-     * @throws IOException if an error occurs while submitting the task
      */
-	synchronized void submitTask(ThreadHandler task) throws IOException {
+	void submitTask(ThreadHandler task) {
+		int position;
 		//Synchronise access to the task queue
 	    synchronized (taskQueue) {
 	        taskQueue.addLast(task); //add the task to the end of the queue
+	        // Connections ahead of this one that no idle worker will pick up straight away
+	        position = taskQueue.size() - idleWorkers.get();
 	        taskQueue.notify(); //Notify a waiting thread in the pool that a task is available
 	    }
-	    if (idleWorkers==0) {
+	    if (position > 0) {
 	    	//Log message if all threads are busy
-	    	DictionaryServerGUI.logToOutputPane("Client " + task.getClientNumber() +" waiting for available threads...");
+	    	DictionaryServerGUI.logToOutputPane("Client " + task.getClientNumber() +" waiting for available threads (position " + position + ")...");
 	    	DictionaryServerGUI.logToOutputPane("------------------------------------------");
+	    	// Even the first position is written by the notifier, so a client that never reads cannot hold up connection setup
+	    	markPositionsChanged();
 	    }
 
 	}
-	
+
+	/**
+	 * Records that the queue has moved and wakes the notifier.
+	 */
+	private void markPositionsChanged() {
+		synchronized (positionsLock) {
+			positionsChanged = true;
+			positionsLock.notify();
+		}
+	}
+
+	/**
+	 * Sends the waiting connections their current positions whenever the queue has moved, on the notifier thread.
+	 * All moves since the last update are sent as one, and a connection whose position has not changed is not written to.
+	 */
+	private void notifyPositions() {
+		while (true) {
+			synchronized (positionsLock) {
+				while (!positionsChanged) {
+					try {
+						positionsLock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				positionsChanged = false;
+			}
+			List<ThreadHandler> waiting;
+			synchronized (taskQueue) {
+				waiting = new ArrayList<>(taskQueue);
+			}
+			int position = 1;
+			for (ThreadHandler task : waiting) {
+				if (task.getQueuedPosition() != position) {
+					sendPosition(task, position);
+				}
+				position++;
+			}
+			try {
+				Thread.sleep(POSITION_UPDATE_INTERVAL_MS);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes one position update, closing the connection if the client does not take it in time.
+	 * @param task the waiting connection
+	 * @param position its position in the queue, starting at 1
+	 */
+	private void sendPosition(ThreadHandler task, int position) {
+		ScheduledFuture<?> timeout = writeTimer.schedule(task::closeStalled, POSITION_WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		try {
+			task.sendQueued(position, estimateWait(position));
+		} finally {
+			timeout.cancel(false);
+		}
+	}
+
+	/**
+	 * Periodically rejects the connections that have waited longer than the maximum wait.
+	 */
+	private void rejectExpired() {
+		while (true) {
+			try {
+				Thread.sleep(Math.min(1000, maxWaitMs));
+			} catch (InterruptedException e) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			List<ThreadHandler> expired = new ArrayList<>();
+			synchronized (taskQueue) {
+				Iterator<ThreadHandler> iterator = taskQueue.iterator();
+				while (iterator.hasNext()) {
+					ThreadHandler task = iterator.next();
+					if (now - task.getQueuedAt() > maxWaitMs) {
+						iterator.remove();
+						expired.add(task);
+					}
+				}
+				if (!expired.isEmpty()) {
+					markPositionsChanged();
+				}
+			}
+			for (ThreadHandler task : expired) {
+				DictionaryServerGUI.logToOutputPane("Client " + task.getClientNumber() + " rejected after waiting " + maxWaitMs + " ms.");
+				task.reject("Server busy, no worker thread became available within " + maxWaitMs + " ms");
+			}
+		}
+	}
+
+	/**
+	 * Estimates how long a connection at the given position will wait, from the average length of recent sessions.
+	 * @param position the connection's position in the queue, starting at 1
+	 * @return the estimated wait in milliseconds, or -1 if no session has finished yet
+	 */
+	private long estimateWait(int position) {
+		double average = averageSessionMs;
+		if (average < 0) {
+			return -1;
+		}
+		return (long) Math.ceil((double) position / poolSize) * (long) average;
+	}
+
+	/**
+	 * Folds a finished session's length into the moving average.
+	 * @param durationMs the length of the session in milliseconds
+	 */
+	private synchronized void recordSession(long durationMs) {
+		averageSessionMs = averageSessionMs < 0 ? durationMs
+				: (1 - SESSION_AVERAGE_WEIGHT) * averageSessionMs + SESSION_AVERAGE_WEIGHT * durationMs;
+	}
+
 	/**
      * Gets the number of available (idle) worker threads.
      * @return the number of available worker threads
      */
-	public static int getNumberOfAvailableThreads() {
-        return idleWorkers;
+	public int getNumberOfAvailableThreads() {
+        return idleWorkers.get();
 	}
-	
-	
-}
\ No newline at end of file
+
+	/**
+	 * Gets the number of connections waiting for a worker thread.
+	 * @return the length of the queue
+	 */
+	public int getQueueLength() {
+		synchronized (taskQueue) {
+			return taskQueue.size();
+		}
+	}
+
+
+}